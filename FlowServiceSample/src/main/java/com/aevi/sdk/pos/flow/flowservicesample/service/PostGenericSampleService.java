@@ -21,6 +21,11 @@ import com.aevi.sdk.flow.stage.PostGenericStageModel;
 
 public class PostGenericSampleService extends BasePostGenericService {
 
+    public PostGenericSampleService() {
+        // Toasts must be shown from the main thread
+        getRequestDispatcher().setDeliverOnMainThread(true);
+    }
+
     @Override
     protected void processResponse(PostGenericStageModel stageModel) {
         Toast.makeText(this, "Received post-generic response data!", Toast.LENGTH_SHORT).show();
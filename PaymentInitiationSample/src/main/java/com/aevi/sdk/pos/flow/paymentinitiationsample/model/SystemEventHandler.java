@@ -20,19 +20,29 @@ import com.aevi.sdk.pos.flow.PaymentClient;
 import com.aevi.sdk.pos.flow.paymentinitiationsample.ui.adapter.SystemEventAdapter;
 
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 
 public class SystemEventHandler {
 
-    private List<FlowEvent> receivedFlowEvents = new ArrayList<>();
+    private static final int MAX_EVENTS = 100;
+
+    private final LinkedList<FlowEvent> receivedFlowEvents = new LinkedList<>();
 
     public void subscribeToEvents(PaymentClient paymentClient) {
         paymentClient.subscribeToSystemEvents().subscribe(flowEvent -> {
-            receivedFlowEvents.add(flowEvent);
+            synchronized (receivedFlowEvents) {
+                receivedFlowEvents.add(flowEvent);
+                if (receivedFlowEvents.size() > MAX_EVENTS) {
+                    receivedFlowEvents.removeFirst();
+                }
+            }
         }, throwable -> Log.e(SystemEventAdapter.class.getSimpleName(), "Failed to subscribe", throwable));
     }
 
     public List<FlowEvent> getReceivedFlowEvents() {
-        return receivedFlowEvents;
+        synchronized (receivedFlowEvents) {
+            return new ArrayList<>(receivedFlowEvents);
+        }
     }
 }
@@ -18,8 +18,6 @@ package com.aevi.sdk.flow;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.os.Build;
 import android.support.annotation.NonNull;
 import com.aevi.android.rxmessenger.ChannelClient;
@@ -27,17 +25,28 @@ import com.aevi.android.rxmessenger.Channels;
 import com.aevi.android.rxmessenger.MessageException;
 import com.aevi.sdk.config.ConfigApi;
 import com.aevi.sdk.config.ConfigClient;
+import com.aevi.sdk.flow.codec.ChunkedTransfer;
+import com.aevi.sdk.flow.codec.WireFormat;
 import com.aevi.sdk.flow.constants.ErrorConstants;
 import com.aevi.sdk.flow.model.*;
+import com.aevi.sdk.flow.util.PeerCapabilities;
 import io.reactivex.*;
 import io.reactivex.functions.Action;
 import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
+import org.reactivestreams.Publisher;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import static com.aevi.android.rxmessenger.MessageConstants.CHANNEL_WEBSOCKET;
 import static com.aevi.sdk.flow.constants.AppMessageTypes.DEVICE_INFO_REQUEST;
 import static com.aevi.sdk.flow.constants.AppMessageTypes.REQUEST_MESSAGE;
+import static com.aevi.sdk.flow.constants.InternalDataKeys.EVENT_TYPES;
 import static com.aevi.sdk.flow.constants.ResponseMechanisms.MESSENGER_CONNECTION;
 import static com.aevi.sdk.flow.constants.ResponseMechanisms.RESPONSE_SERVICE;
 
@@ -48,6 +57,13 @@ public abstract class BaseApiClient {
 
     private static final String APPFLOW_COMMS_CHANNEL = "appFlowCommsChannel";
 
+    /**
+     * The default maximum number of batch items waiting to be accepted by the processing service at any time.
+     *
+     * Each item in flight uses a channel of its own, so this is kept small to limit the number of concurrent connections.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
     public static final String FLOW_PROCESSING_SERVICE = "com.aevi.sdk.fps";
     protected static final ComponentName FLOW_PROCESSING_SERVICE_COMPONENT =
             new ComponentName(FLOW_PROCESSING_SERVICE, FLOW_PROCESSING_SERVICE + ".FlowProcessingService");
@@ -58,6 +74,11 @@ public abstract class BaseApiClient {
     protected static final FlowException NO_FPS_EXCEPTION =
             new FlowException(ErrorConstants.PROCESSING_SERVICE_NOT_INSTALLED, "Processing service is not installed");
 
+    private static final ChannelPool CHANNEL_POOL = new ChannelPool();
+    private static final ProcessingServiceCache PROCESSING_SERVICE_CACHE = new ProcessingServiceCache();
+    private static final SystemEventStream SYSTEM_EVENT_STREAM = new SystemEventStream();
+    private static final RequestCoalescer INFO_REQUEST_COALESCER = new RequestCoalescer();
+
     private final InternalData internalData;
     protected final Context context;
     private boolean useWebsocket = false;
@@ -76,6 +97,8 @@ public abstract class BaseApiClient {
         String channel = configClient.getConfigValue(APPFLOW_COMMS_CHANNEL);
         if (CHANNEL_WEBSOCKET.equals(channel)) {
             useWebsocket = true;
+            // Strings are sent as UTF-8 over websockets, where the binary form is larger than JSON
+            internalData.addAdditionalData(WireFormat.INTERNAL_DATA_KEY, WireFormat.TEXT_CODECS);
         }
     }
 
@@ -88,19 +111,10 @@ public abstract class BaseApiClient {
         if (!isProcessingServiceInstalled(context)) {
             return Completable.error(NO_FPS_EXCEPTION);
         }
-        final ChannelClient requestMessenger = getMessengerClient(FLOW_PROCESSING_SERVICE_COMPONENT);
-        AppMessage appMessage = new AppMessage(REQUEST_MESSAGE, request.toJson(), getInternalData());
-        appMessage.setResponseMechanism(RESPONSE_SERVICE);
-        return requestMessenger
-                .sendMessage(appMessage.toJson())
+        AppMessage appMessage = createAppMessageForRequest(request, RESPONSE_SERVICE);
+        return sendMessage(FLOW_PROCESSING_SERVICE_COMPONENT, appMessage)
                 .singleOrError()
                 .ignoreElement()
-                .doFinally(new Action() {
-                    @Override
-                    public void run() throws Exception {
-                        requestMessenger.closeConnection();
-                    }
-                })
                 .onErrorResumeNext(new Function<Throwable, CompletableSource>() {
                     @Override
                     public CompletableSource apply(Throwable throwable) throws Exception {
@@ -109,15 +123,95 @@ public abstract class BaseApiClient {
                 });
     }
 
+    /**
+     * Initiate processing of a batch of requests, with up to {@link #DEFAULT_MAX_IN_FLIGHT} requests in flight at a time.
+     *
+     * See {@link #initiateRequests(List, int)}.
+     *
+     * @param requests The requests
+     * @return Stream emitting the outcome of initiating each request, in order
+     */
+    @NonNull
+    public Flowable<BatchItemResult<Request>> initiateRequests(List<Request> requests) {
+        return initiateRequests(requests, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Initiate processing of a batch of requests.
+     *
+     * Requests are sent back to back over pooled channels, without waiting for each request to be accepted before sending the next one, up to
+     * the given number of requests in flight. The stream emits whether each request was accepted, in the same order as the requests. A request
+     * failing does not stop the remaining requests from being sent.
+     *
+     * The responses are delivered to the response listener services, as for {@link #initiateRequest(Request)}.
+     *
+     * @param requests    The requests
+     * @param maxInFlight The maximum number of requests waiting to be accepted at any time
+     * @return Stream emitting the outcome of initiating each request, in order
+     */
+    @NonNull
+    public Flowable<BatchItemResult<Request>> initiateRequests(List<Request> requests, int maxInFlight) {
+        return initiateBatch(requests, maxInFlight, new Function<Request, AppMessage>() {
+            @Override
+            public AppMessage apply(Request request) throws Exception {
+                return createAppMessageForRequest(request, RESPONSE_SERVICE);
+            }
+        });
+    }
+
+    /**
+     * Send a batch of messages to the processing service, with up to the given number of messages waiting to be accepted at any time.
+     *
+     * @param items          The items to send
+     * @param maxInFlight    The maximum number of messages in flight
+     * @param messageFactory Function creating the message for an item
+     * @param <T>            The type of the items
+     * @return Stream emitting the outcome of sending each item, in order
+     */
+    protected <T> Flowable<BatchItemResult<T>> initiateBatch(final List<T> items, int maxInFlight,
+                                                             final Function<T, AppMessage> messageFactory) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Max in flight must be at least one");
+        }
+        if (!isProcessingServiceInstalled(context)) {
+            return Flowable.error(NO_FPS_EXCEPTION);
+        }
+        return Flowable.range(0, items.size())
+                .concatMapEager(new Function<Integer, Publisher<BatchItemResult<T>>>() {
+                    @Override
+                    public Publisher<BatchItemResult<T>> apply(final Integer index) throws Exception {
+                        final T item = items.get(index);
+                        return sendMessage(FLOW_PROCESSING_SERVICE_COMPONENT, messageFactory.apply(item))
+                                .singleOrError()
+                                .map(new Function<String, BatchItemResult<T>>() {
+                                    @Override
+                                    public BatchItemResult<T> apply(String ack) throws Exception {
+                                        return new BatchItemResult<>(index, item, null);
+                                    }
+                                })
+                                .onErrorReturn(new Function<Throwable, BatchItemResult<T>>() {
+                                    @Override
+                                    public BatchItemResult<T> apply(Throwable throwable) throws Exception {
+                                        return new BatchItemResult<>(index, item, createFlowException(throwable));
+                                    }
+                                })
+                                .toFlowable();
+                    }
+                }, maxInFlight, 1);
+    }
+
+    protected AppMessage createAppMessageForRequest(Request request, String responseMechanism) {
+        AppMessage appMessage = new AppMessage(REQUEST_MESSAGE, serializeForProcessingService(request), getInternalData());
+        appMessage.setResponseMechanism(responseMechanism);
+        return appMessage;
+    }
+
     protected Single<Response> initiateRequestDirect(final Request request) {
         if (!isProcessingServiceInstalled(context)) {
             return Single.error(NO_FPS_EXCEPTION);
         }
-        final ChannelClient requestMessenger = getMessengerClient(FLOW_PROCESSING_SERVICE_COMPONENT);
-        AppMessage appMessage = new AppMessage(REQUEST_MESSAGE, request.toJson(), getInternalData());
-        appMessage.setResponseMechanism(MESSENGER_CONNECTION);
-        return requestMessenger
-                .sendMessage(appMessage.toJson())
+        AppMessage appMessage = createAppMessageForRequest(request, MESSENGER_CONNECTION);
+        return sendMessage(FLOW_PROCESSING_SERVICE_COMPONENT, appMessage)
                 .singleOrError()
                 .map(new Function<String, Response>() {
                     @Override
@@ -127,12 +221,6 @@ public abstract class BaseApiClient {
                         return response;
                     }
                 })
-                .doFinally(new Action() {
-                    @Override
-                    public void run() throws Exception {
-                        requestMessenger.closeConnection();
-                    }
-                })
                 .onErrorResumeNext(new Function<Throwable, SingleSource<? extends Response>>() {
                     @Override
                     public SingleSource<? extends Response> apply(Throwable throwable) throws Exception {
@@ -146,21 +234,25 @@ public abstract class BaseApiClient {
         if (!isProcessingServiceInstalled(context)) {
             return Single.error(NO_FPS_EXCEPTION);
         }
-        final ChannelClient deviceMessenger = getMessengerClient(INFO_PROVIDER_SERVICE_COMPONENT);
-        AppMessage appMessage = new AppMessage(DEVICE_INFO_REQUEST, getInternalData());
-        return deviceMessenger
-                .sendMessage(appMessage.toJson())
-                .map(new Function<String, Device>() {
+        return coalesceInfoRequest(INFO_PROVIDER_SERVICE_COMPONENT, DEVICE_INFO_REQUEST, new Callable<Single<List<Device>>>() {
+            @Override
+            public Single<List<Device>> call() throws Exception {
+                AppMessage appMessage = new AppMessage(DEVICE_INFO_REQUEST, getInternalData());
+                return sendMessage(INFO_PROVIDER_SERVICE_COMPONENT, appMessage)
+                        .map(new Function<String, Device>() {
+                            @Override
+                            public Device apply(String json) throws Exception {
+                                return Device.fromJson(json);
+                            }
+                        })
+                        .toList();
+            }
+        })
+                .map(new Function<List<Device>, List<Device>>() {
                     @Override
-                    public Device apply(String json) throws Exception {
-                        return Device.fromJson(json);
-                    }
-                })
-                .toList()
-                .doFinally(new Action() {
-                    @Override
-                    public void run() throws Exception {
-                        deviceMessenger.closeConnection();
+                    public List<Device> apply(List<Device> devices) throws Exception {
+                        // The decoded devices may be shared with other callers, so give each caller its own list
+                        return new ArrayList<>(devices);
                     }
                 })
                 .onErrorResumeNext(new Function<Throwable, SingleSource<? extends List<Device>>>() {
@@ -171,33 +263,255 @@ public abstract class BaseApiClient {
                 });
     }
 
+    /**
+     * Send an information request, sharing the round trip and result with identical requests in flight.
+     *
+     * The request is only coalesced when the returned single is subscribed to, so that each subscription (such as a retry) either joins a
+     * request in flight at that time or sends a new one. See {@link #getInfoRequestCoalescer()}.
+     *
+     * @param componentName The component the request is sent to
+     * @param messageType   The type of request, identifying identical requests together with the component
+     * @param request       Creates the request if there is no result to share
+     * @param <T>           The type of the result
+     * @return Single emitting the (possibly shared) result
+     */
+    protected <T> Single<T> coalesceInfoRequest(ComponentName componentName, String messageType, final Callable<Single<T>> request) {
+        final String key = getChannelKey(componentName) + ":" + messageType;
+        return Single.defer(new Callable<SingleSource<T>>() {
+            @Override
+            public SingleSource<T> call() throws Exception {
+                return INFO_REQUEST_COALESCER.coalesce(key, request);
+            }
+        });
+    }
+
     @NonNull
     public Observable<FlowEvent> subscribeToSystemEvents() {
+        return subscribeToSystemEventStream().toObservable();
+    }
+
+    /**
+     * Subscribe to system events of the given types only.
+     *
+     * The event types are sent to the processing service so that it only sends the matching events. Events of other types are also filtered
+     * out before being deserialised, for processing service versions that do not support filtering.
+     *
+     * @param types The event types to subscribe to
+     * @return A stream that will emit {@link FlowEvent} items of the given types
+     */
+    @NonNull
+    public Observable<FlowEvent> subscribeToSystemEvents(String... types) {
+        return subscribeToSystemEventStream(types).toObservable();
+    }
+
+    /**
+     * Subscribe to system events, with backpressure.
+     *
+     * All subscribers in the process share a single connection to the processing service. See {@link #getSystemEventStream()} for how to
+     * configure buffering and replay of events.
+     *
+     * @return A stream that will emit {@link FlowEvent} items
+     */
+    @NonNull
+    public Flowable<FlowEvent> subscribeToSystemEventStream() {
+        return subscribeToSystemEventStream(new String[0]);
+    }
+
+    /**
+     * Subscribe to system events of the given types only, with backpressure.
+     *
+     * See {@link #subscribeToSystemEvents(String...)} and {@link #subscribeToSystemEventStream()}.
+     *
+     * @param types The event types to subscribe to, or none for all events
+     * @return A stream that will emit {@link FlowEvent} items of the given types
+     */
+    @NonNull
+    public Flowable<FlowEvent> subscribeToSystemEventStream(String... types) {
         if (!isProcessingServiceInstalled(context)) {
-            return Observable.error(NO_FPS_EXCEPTION);
+            return Flowable.error(NO_FPS_EXCEPTION);
         }
-        final ChannelClient deviceMessenger = getMessengerClient(SYSTEM_EVENT_SERVICE_COMPONENT);
-        AppMessage appMessage = new AppMessage(REQUEST_MESSAGE, getInternalData());
-        return deviceMessenger
-                .sendMessage(appMessage.toJson())
-                .map(new Function<String, FlowEvent>() {
-                    @Override
-                    public FlowEvent apply(String json) throws Exception {
-                        return FlowEvent.fromJson(json);
-                    }
-                })
-                .doFinally(new Action() {
+        return SYSTEM_EVENT_STREAM.subscribe(new SystemEventStream.EventSource() {
+            @Override
+            public Flowable<FlowEvent> createEvents(final Set<String> types) {
+                AppMessage appMessage = new AppMessage(REQUEST_MESSAGE, createEventSubscriptionInternalData(types));
+                return sendMessage(SYSTEM_EVENT_SERVICE_COMPONENT, appMessage)
+                        .filter(new Predicate<String>() {
+                            @Override
+                            public boolean test(String json) throws Exception {
+                                return types.isEmpty() || types.contains(FlowEvent.readType(json));
+                            }
+                        })
+                        .map(new Function<String, FlowEvent>() {
+                            @Override
+                            public FlowEvent apply(String json) throws Exception {
+                                return FlowEvent.fromJson(json);
+                            }
+                        })
+                        .onErrorResumeNext(new Function<Throwable, ObservableSource<? extends FlowEvent>>() {
+                            @Override
+                            public ObservableSource<? extends FlowEvent> apply(Throwable throwable) throws Exception {
+                                return Observable.error(createFlowException(throwable));
+                            }
+                        })
+                        .toFlowable(BackpressureStrategy.MISSING);
+            }
+        }, new HashSet<>(Arrays.asList(types)));
+    }
+
+    private InternalData createEventSubscriptionInternalData(Set<String> types) {
+        if (types.isEmpty()) {
+            return getInternalData();
+        }
+        InternalData subscriptionInternalData = new InternalData(internalData.getSenderApiVersion());
+        subscriptionInternalData.setSenderPackageName(internalData.getSenderPackageName());
+        subscriptionInternalData.getAdditionalData().putAll(internalData.getAdditionalData());
+        StringBuilder eventTypes = new StringBuilder();
+        for (String type : types) {
+            if (eventTypes.length() > 0) {
+                eventTypes.append(',');
+            }
+            eventTypes.append(type);
+        }
+        subscriptionInternalData.addAdditionalData(EVENT_TYPES, eventTypes.toString());
+        return subscriptionInternalData;
+    }
+
+    /**
+     * Serialise a model to be sent as message data to the processing service, using the binary codec if supported by it and the channel.
+     *
+     * @param model The model to serialise
+     * @return The serialised model
+     */
+    protected String serializeForProcessingService(Object model) {
+        boolean binary = !useWebsocket && PeerCapabilities.supportsCodec(FLOW_PROCESSING_SERVICE, WireFormat.CODEC_BINARY);
+        return WireFormat.serialize(model, binary);
+    }
+
+    /**
+     * Send a message to the given component over a pooled channel.
+     *
+     * The channel is leased from the {@link ChannelPool} when the returned stream is subscribed to, and handed back to the pool once the stream
+     * has completed if the component has advertised {@link ChannelPool#REUSE_FEATURE}. Otherwise, or if the stream errors or is disposed of
+     * before completing, the channel is closed instead.
+     *
+     * The message is sent in the most compact form the receiving application has previously told us it supports. Messages too large for a
+     * single Binder transaction are split into frames if the receiving application supports it, and frames in the responses are reassembled.
+     *
+     * @param componentName The component to send the message to
+     * @param appMessage    The message to send
+     * @return The stream of responses from the component
+     */
+    protected Observable<String> sendMessage(final ComponentName componentName, final AppMessage appMessage) {
+        return Observable.defer(new Callable<ObservableSource<String>>() {
+            @Override
+            public ObservableSource<String> call() throws Exception {
+                final ChannelPool.Lease lease = CHANNEL_POOL.acquire(getChannelKey(componentName), new ChannelPool.ChannelFactory() {
                     @Override
-                    public void run() throws Exception {
-                        deviceMessenger.closeConnection();
+                    public ChannelClient createChannel() {
+                        return getMessengerClient(componentName);
                     }
-                })
-                .onErrorResumeNext(new Function<Throwable, ObservableSource<? extends FlowEvent>>() {
+                });
+                InternalData peerInternalData = PeerCapabilities.getPeerInternalData(componentName.getPackageName());
+                String message = appMessage.toWire(peerInternalData, !useWebsocket);
+                Observable<String> responses;
+                if (ChunkedTransfer.needsChunking(message) && PeerCapabilities.supportsCodec(peerInternalData, ChunkedTransfer.FEATURE)) {
+                    responses = sendFrames(lease.getChannel(), ChunkedTransfer.split(message));
+                } else {
+                    responses = lease.getChannel().sendMessage(message);
+                }
+                return reassembleFrames(responses)
+                        .doOnComplete(new Action() {
+                            @Override
+                            public void run() throws Exception {
+                                if (PeerCapabilities.supportsCodec(componentName.getPackageName(), ChannelPool.REUSE_FEATURE)) {
+                                    lease.setReusable();
+                                }
+                            }
+                        })
+                        .doFinally(new Action() {
+                            @Override
+                            public void run() throws Exception {
+                                CHANNEL_POOL.release(lease);
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Send a message split into frames, back to back over the same channel.
+     *
+     * Each frame is sent by subscribing to its own send, and the sends are merged so that a failure to send any of the frames errors the
+     * transfer. Responses are taken from whichever send they are delivered to, and the transfer ends as soon as any of them completes.
+     */
+    static Observable<String> sendFrames(final ChannelClient channel, final List<String> frames) {
+        return Observable.defer(new Callable<ObservableSource<String>>() {
+            @Override
+            public ObservableSource<String> call() throws Exception {
+                List<Observable<Notification<String>>> sends = new ArrayList<>(frames.size());
+                for (String frame : frames) {
+                    sends.add(channel.sendMessage(frame).materialize());
+                }
+                return Observable.merge(sends).takeUntil(new Predicate<Notification<String>>() {
                     @Override
-                    public ObservableSource<? extends FlowEvent> apply(Throwable throwable) throws Exception {
-                        return Observable.error(createFlowException(throwable));
+                    public boolean test(Notification<String> notification) throws Exception {
+                        return notification.isOnComplete();
                     }
-                });
+                }).<String>dematerialize();
+            }
+        });
+    }
+
+    private static Observable<String> reassembleFrames(Observable<String> responses) {
+        final ChunkedTransfer.Reassembler reassembler = new ChunkedTransfer.Reassembler();
+        return responses.concatMap(new Function<String, ObservableSource<String>>() {
+            @Override
+            public ObservableSource<String> apply(String response) throws Exception {
+                String complete = reassembler.onMessage(response);
+                return complete != null ? Observable.just(complete) : Observable.<String>empty();
+            }
+        });
+    }
+
+    private String getChannelKey(ComponentName componentName) {
+        return (useWebsocket ? CHANNEL_WEBSOCKET : "messenger") + ":" + componentName.flattenToString();
+    }
+
+    /**
+     * Get the process-wide pool of channels used to communicate with the processing service.
+     *
+     * This can be used to tune how long idle channels are kept connected, and to read the pool hit/miss counters.
+     *
+     * @return The channel pool
+     */
+    @NonNull
+    public static ChannelPool getChannelPool() {
+        return CHANNEL_POOL;
+    }
+
+    /**
+     * Get the process-wide coalescer of information requests, such as for the devices or payment settings.
+     *
+     * This can be used to configure how long results are shared between identical requests, and to read how many duplicate requests were
+     * suppressed.
+     *
+     * @return The information request coalescer
+     */
+    @NonNull
+    public static RequestCoalescer getInfoRequestCoalescer() {
+        return INFO_REQUEST_COALESCER;
+    }
+
+    /**
+     * Get the process-wide stream of system events.
+     *
+     * This can be used to configure the per-subscriber buffering and the replay of recent events to new subscribers.
+     *
+     * @return The system event stream
+     */
+    @NonNull
+    public static SystemEventStream getSystemEventStream() {
+        return SYSTEM_EVENT_STREAM;
     }
 
     protected ChannelClient getMessengerClient(ComponentName componentName) {
@@ -232,19 +546,40 @@ public abstract class BaseApiClient {
         return intent;
     }
 
+    /**
+     * Check whether the processing service is installed.
+     *
+     * The result is cached for the lifetime of the process, and refreshed whenever the processing service package is changed.
+     *
+     * @param context The Android context
+     * @return True if the processing service is installed
+     */
     public static boolean isProcessingServiceInstalled(Context context) {
-        PackageManager packageManager = context.getPackageManager();
-        List<ResolveInfo> resolveInfo = packageManager
-                .queryIntentServices(getIntent(FLOW_PROCESSING_SERVICE_COMPONENT), PackageManager.MATCH_DEFAULT_ONLY);
-        return resolveInfo.size() == 1 && resolveInfo.get(0).serviceInfo != null;
+        return PROCESSING_SERVICE_CACHE.isInstalled(context);
     }
 
+    /**
+     * Get the version of the processing service.
+     *
+     * The result is cached for the lifetime of the process, and refreshed whenever the processing service package is changed.
+     *
+     * @param context The Android context
+     * @return The version name of the processing service, or "0.0.0" if it is not installed
+     */
     @NonNull
     public static String getProcessingServiceVersion(Context context) {
-        try {
-            return context.getPackageManager().getPackageInfo(FLOW_PROCESSING_SERVICE, 0).versionName;
-        } catch (PackageManager.NameNotFoundException e) {
-            return "0.0.0";
-        }
+        return PROCESSING_SERVICE_CACHE.getVersion(context);
+    }
+
+    /**
+     * Get the process-wide cache of the processing service installation status and version.
+     *
+     * This can be used to read the cache hit/miss counters, or to force the values to be looked up again.
+     *
+     * @return The processing service cache
+     */
+    @NonNull
+    public static ProcessingServiceCache getProcessingServiceCache() {
+        return PROCESSING_SERVICE_CACHE;
     }
 }
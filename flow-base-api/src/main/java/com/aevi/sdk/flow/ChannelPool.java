@@ -0,0 +1,263 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.flow;
+
+
+import android.util.Log;
+import com.aevi.android.rxmessenger.ChannelClient;
+import io.reactivex.Completable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide pool of channel connections to the processing service components.
+ *
+ * A channel is leased for the duration of a single message exchange. If the exchange completes normally and the component has advertised
+ * {@link #REUSE_FEATURE}, the channel is returned to the pool and kept bound so that the next call to the same component can re-use it,
+ * instead of binding (or opening a websocket) all over again. Channels to other components are closed once the exchange is done, as they
+ * may not accept further messages after ending a response stream.
+ *
+ * The messaging channels deliver one response stream per connection, so exchanges are never interleaved on the same channel. Concurrent calls
+ * to the same component are instead spread across several pooled channels, each leased exclusively for the message id it is carrying.
+ *
+ * Channels that fail (such as when the processing service is restarted) or that are disposed of mid-stream are closed and dropped, meaning the
+ * next lease will transparently set up a new connection.
+ *
+ * Idle channels are closed once they have not been used for the linger time, see {@link #setLingerTime(long, TimeUnit)}.
+ */
+public final class ChannelPool {
+
+    private static final String TAG = ChannelPool.class.getSimpleName();
+
+    /**
+     * The name of the channel reuse feature, as advertised in the internal data by applications that keep reading messages from a channel
+     * after ending the response stream for a previous message.
+     */
+    public static final String REUSE_FEATURE = "reuse1";
+
+    static final long DEFAULT_LINGER_TIME_MS = 30000;
+    static final int DEFAULT_MAX_IDLE_CHANNELS = 4;
+
+    interface ChannelFactory {
+        ChannelClient createChannel();
+    }
+
+    private final Map<String, Deque<IdleChannel>> idleChannels = new HashMap<>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private long lingerTimeMs = DEFAULT_LINGER_TIME_MS;
+    private int maxIdleChannels = DEFAULT_MAX_IDLE_CHANNELS;
+
+    ChannelPool() {
+    }
+
+    /**
+     * Set how long an idle channel is kept connected before it is closed.
+     *
+     * Setting this to zero disables pooling, meaning channels are closed as soon as the message exchange has finished.
+     *
+     * @param lingerTime The linger time
+     * @param timeUnit   The unit of the linger time
+     */
+    public synchronized void setLingerTime(long lingerTime, TimeUnit timeUnit) {
+        if (lingerTime < 0) {
+            throw new IllegalArgumentException("Linger time must not be negative");
+        }
+        lingerTimeMs = timeUnit.toMillis(lingerTime);
+        if (lingerTimeMs == 0) {
+            closeIdleChannels();
+        }
+    }
+
+    /**
+     * Get the linger time for idle channels, in milliseconds.
+     *
+     * @return The linger time in milliseconds
+     */
+    public synchronized long getLingerTimeMs() {
+        return lingerTimeMs;
+    }
+
+    /**
+     * Set the maximum number of idle channels to keep per component.
+     *
+     * @param maxIdleChannels The maximum number of idle channels per component
+     */
+    public synchronized void setMaxIdleChannels(int maxIdleChannels) {
+        if (maxIdleChannels < 1) {
+            throw new IllegalArgumentException("Max idle channels must be at least one");
+        }
+        this.maxIdleChannels = maxIdleChannels;
+    }
+
+    /**
+     * Get the number of leases that were served by an already connected channel.
+     *
+     * @return The number of pool hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Get the number of leases that required a new channel to be set up.
+     *
+     * @return The number of pool misses
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Get the number of idle channels that have been closed due to the linger time expiring or the channel being disconnected.
+     *
+     * @return The number of evicted channels
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Get the number of channels currently kept idle in the pool.
+     *
+     * @return The number of idle channels
+     */
+    public synchronized int getIdleCount() {
+        int count = 0;
+        for (Deque<IdleChannel> channels : idleChannels.values()) {
+            count += channels.size();
+        }
+        return count;
+    }
+
+    /**
+     * Close all idle channels.
+     *
+     * Channels currently leased are not affected and will be closed when released.
+     */
+    public synchronized void closeIdleChannels() {
+        for (Deque<IdleChannel> channels : idleChannels.values()) {
+            for (IdleChannel idleChannel : channels) {
+                idleChannel.expiry.dispose();
+                closeChannel(idleChannel.channel);
+            }
+        }
+        idleChannels.clear();
+    }
+
+    synchronized Lease acquire(String key, ChannelFactory channelFactory) {
+        Deque<IdleChannel> channels = idleChannels.get(key);
+        while (channels != null && !channels.isEmpty()) {
+            IdleChannel idleChannel = channels.pollLast();
+            idleChannel.expiry.dispose();
+            if (idleChannel.channel.isConnected()) {
+                hitCount.incrementAndGet();
+                return new Lease(key, idleChannel.channel);
+            }
+            // Remote end went away while the channel was idle, such as after a processing service restart
+            evictionCount.incrementAndGet();
+            closeChannel(idleChannel.channel);
+        }
+        missCount.incrementAndGet();
+        return new Lease(key, channelFactory.createChannel());
+    }
+
+    synchronized void release(Lease lease) {
+        if (!lease.reusable || lingerTimeMs == 0) {
+            closeChannel(lease.channel);
+            return;
+        }
+        Deque<IdleChannel> channels = idleChannels.get(lease.key);
+        if (channels == null) {
+            channels = new ArrayDeque<>();
+            idleChannels.put(lease.key, channels);
+        }
+        if (channels.size() >= maxIdleChannels) {
+            closeChannel(lease.channel);
+            return;
+        }
+        final IdleChannel idleChannel = new IdleChannel(lease.channel);
+        idleChannel.expiry = scheduleExpiry(lease.key, idleChannel);
+        channels.addLast(idleChannel);
+    }
+
+    private Disposable scheduleExpiry(final String key, final IdleChannel idleChannel) {
+        return Completable.timer(lingerTimeMs, TimeUnit.MILLISECONDS).subscribe(new Action() {
+            @Override
+            public void run() throws Exception {
+                expire(key, idleChannel);
+            }
+        });
+    }
+
+    private synchronized void expire(String key, IdleChannel idleChannel) {
+        Deque<IdleChannel> channels = idleChannels.get(key);
+        if (channels != null && channels.remove(idleChannel)) {
+            evictionCount.incrementAndGet();
+            closeChannel(idleChannel.channel);
+            if (channels.isEmpty()) {
+                idleChannels.remove(key);
+            }
+        }
+    }
+
+    private static void closeChannel(ChannelClient channel) {
+        try {
+            channel.closeConnection();
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to close channel", e);
+        }
+    }
+
+    private static class IdleChannel {
+
+        final ChannelClient channel;
+        Disposable expiry;
+
+        IdleChannel(ChannelClient channel) {
+            this.channel = channel;
+        }
+    }
+
+    static final class Lease {
+
+        private final String key;
+        private final ChannelClient channel;
+        private volatile boolean reusable;
+
+        Lease(String key, ChannelClient channel) {
+            this.key = key;
+            this.channel = channel;
+        }
+
+        ChannelClient getChannel() {
+            return channel;
+        }
+
+        /**
+         * Mark the channel as safe to return to the pool, which is only the case once the exchange has completed normally and the remote
+         * end has advertised {@link #REUSE_FEATURE}.
+         */
+        void setReusable() {
+            reusable = true;
+        }
+    }
+}
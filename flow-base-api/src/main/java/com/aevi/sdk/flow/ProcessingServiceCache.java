@@ -0,0 +1,212 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.flow;
+
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.os.PatternMatcher;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.aevi.sdk.flow.BaseApiClient.FLOW_PROCESSING_SERVICE;
+import static com.aevi.sdk.flow.BaseApiClient.FLOW_PROCESSING_SERVICE_COMPONENT;
+
+/**
+ * Process-wide cache of whether the processing service is installed, and of its version.
+ *
+ * Looking these up requires calls into the package manager, which are cross-process calls that would otherwise be made at the start of every
+ * API call. The cached values are dropped whenever the processing service package is added, replaced, changed or removed, as reported by the
+ * package broadcasts.
+ *
+ * The hit/miss counters and the time spent on package manager lookups can be used to estimate how much latency the cache is saving.
+ */
+public final class ProcessingServiceCache {
+
+    private static final String TAG = ProcessingServiceCache.class.getSimpleName();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong lookupTimeNanos = new AtomicLong();
+
+    private final BroadcastReceiver packageChangeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Uri data = intent.getData();
+            if (data != null && FLOW_PROCESSING_SERVICE.equals(data.getSchemeSpecificPart())) {
+                Log.d(TAG, "Processing service package changed: " + intent.getAction());
+                invalidate();
+            }
+        }
+    };
+
+    private Context registeredContext;
+    private int generation;
+    private Boolean installed;
+    private String version;
+
+    ProcessingServiceCache() {
+    }
+
+    /**
+     * Check whether the processing service is installed, using the cached value if available.
+     *
+     * @param context The Android context
+     * @return True if the processing service is installed
+     */
+    public boolean isInstalled(Context context) {
+        int lookupGeneration;
+        synchronized (this) {
+            checkRegistered(context);
+            if (installed != null) {
+                hitCount.incrementAndGet();
+                return installed;
+            }
+            lookupGeneration = generation;
+        }
+        missCount.incrementAndGet();
+        long start = System.nanoTime();
+        boolean result = queryInstalled(context);
+        lookupTimeNanos.addAndGet(System.nanoTime() - start);
+        synchronized (this) {
+            // Don't cache a result that may predate a package change received during the lookup
+            if (lookupGeneration == generation) {
+                installed = result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the version of the processing service, using the cached value if available.
+     *
+     * @param context The Android context
+     * @return The version name of the processing service, or "0.0.0" if it is not installed
+     */
+    public String getVersion(Context context) {
+        int lookupGeneration;
+        synchronized (this) {
+            checkRegistered(context);
+            if (version != null) {
+                hitCount.incrementAndGet();
+                return version;
+            }
+            lookupGeneration = generation;
+        }
+        missCount.incrementAndGet();
+        long start = System.nanoTime();
+        String result = queryVersion(context);
+        lookupTimeNanos.addAndGet(System.nanoTime() - start);
+        synchronized (this) {
+            if (lookupGeneration == generation) {
+                version = result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drop the cached values, meaning the next calls will look them up from the package manager again.
+     */
+    public synchronized void invalidate() {
+        generation++;
+        installed = null;
+        version = null;
+    }
+
+    /**
+     * Get the number of lookups that were served from the cache.
+     *
+     * @return The number of cache hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Get the number of lookups that required a call to the package manager.
+     *
+     * @return The number of cache misses
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Get the total time spent in package manager lookups, in nanoseconds.
+     *
+     * @return The total lookup time in nanoseconds
+     */
+    public long getLookupTimeNanos() {
+        return lookupTimeNanos.get();
+    }
+
+    /**
+     * Estimate the time saved by the cache, based on the average time of the package manager lookups that were made.
+     *
+     * @return The estimated time saved in nanoseconds
+     */
+    public long getEstimatedTimeSavedNanos() {
+        long misses = missCount.get();
+        return misses == 0 ? 0 : hitCount.get() * (lookupTimeNanos.get() / misses);
+    }
+
+    private void checkRegistered(Context context) {
+        Context applicationContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        if (applicationContext == registeredContext) {
+            return;
+        }
+        if (registeredContext != null) {
+            try {
+                registeredContext.unregisterReceiver(packageChangeReceiver);
+            } catch (IllegalArgumentException e) {
+                // Not registered
+            }
+        }
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        filter.addDataSchemeSpecificPart(FLOW_PROCESSING_SERVICE, PatternMatcher.PATTERN_LITERAL);
+        applicationContext.registerReceiver(packageChangeReceiver, filter);
+        registeredContext = applicationContext;
+        // Anything cached so far can't be trusted as we were not listening for changes against this context
+        invalidate();
+    }
+
+    private static boolean queryInstalled(Context context) {
+        PackageManager packageManager = context.getPackageManager();
+        List<ResolveInfo> resolveInfo = packageManager
+                .queryIntentServices(BaseApiClient.getIntent(FLOW_PROCESSING_SERVICE_COMPONENT), PackageManager.MATCH_DEFAULT_ONLY);
+        return resolveInfo.size() == 1 && resolveInfo.get(0).serviceInfo != null;
+    }
+
+    private static String queryVersion(Context context) {
+        try {
+            return context.getPackageManager().getPackageInfo(FLOW_PROCESSING_SERVICE, 0).versionName;
+        } catch (PackageManager.NameNotFoundException e) {
+            return "0.0.0";
+        }
+    }
+}
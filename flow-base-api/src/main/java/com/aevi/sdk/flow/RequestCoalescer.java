@@ -0,0 +1,151 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.flow;
+
+
+import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide coalescing of identical information requests to the processing service.
+ *
+ * While a request is in flight, identical requests share its round trip and its decoded result instead of sending a request of their own.
+ * Optionally, the result of a completed request can also be shared for a short time to absorb bursts of requests, see
+ * {@link #setTimeToLive(long, TimeUnit)}. Failed requests are never shared beyond the requests that were waiting for them.
+ */
+public final class RequestCoalescer {
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong suppressedCount = new AtomicLong();
+
+    private long timeToLiveMs;
+
+    private static final class Entry {
+        private Single<?> result;
+        private long completedAt;
+    }
+
+    RequestCoalescer() {
+    }
+
+    /**
+     * Set how long the result of a completed request is shared with subsequent identical requests.
+     *
+     * Defaults to zero, meaning only requests made while an identical request is in flight share its result.
+     *
+     * @param timeToLive The time to live
+     * @param timeUnit   The unit of the time to live
+     */
+    public synchronized void setTimeToLive(long timeToLive, TimeUnit timeUnit) {
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("Time to live must not be negative");
+        }
+        timeToLiveMs = timeUnit.toMillis(timeToLive);
+    }
+
+    /**
+     * Get how long the result of a completed request is shared, in milliseconds.
+     *
+     * @return The time to live in milliseconds
+     */
+    public synchronized long getTimeToLiveMs() {
+        return timeToLiveMs;
+    }
+
+    /**
+     * Get the number of requests that were sent to the processing service.
+     *
+     * @return The number of requests sent
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Get the number of requests that were served by sharing the result of an identical request.
+     *
+     * @return The number of duplicate requests suppressed
+     */
+    public long getSuppressedCount() {
+        return suppressedCount.get();
+    }
+
+    /**
+     * Get the result for the given request, sharing the result of an identical request if one is in flight (or has completed within the
+     * time to live).
+     *
+     * @param key     The key identifying the request
+     * @param request Creates the request if there is no result to share
+     * @param <T>     The type of the result
+     * @return Single emitting the (possibly shared) result
+     */
+    @SuppressWarnings("unchecked")
+    synchronized <T> Single<T> coalesce(final String key, Callable<Single<T>> request) {
+        Entry entry = entries.get(key);
+        if (entry != null && (entry.completedAt == 0 || System.currentTimeMillis() - entry.completedAt <= timeToLiveMs)) {
+            suppressedCount.incrementAndGet();
+            return (Single<T>) entry.result;
+        }
+        Single<T> source;
+        try {
+            source = request.call();
+        } catch (Exception e) {
+            return Single.error(e);
+        }
+        final Entry newEntry = new Entry();
+        Single<T> result = source
+                .doOnSubscribe(new Consumer<Disposable>() {
+                    @Override
+                    public void accept(Disposable disposable) throws Exception {
+                        requestCount.incrementAndGet();
+                    }
+                })
+                .doOnSuccess(new Consumer<T>() {
+                    @Override
+                    public void accept(T value) throws Exception {
+                        onCompleted(key, newEntry, true);
+                    }
+                })
+                .doOnError(new Consumer<Throwable>() {
+                    @Override
+                    public void accept(Throwable throwable) throws Exception {
+                        onCompleted(key, newEntry, false);
+                    }
+                })
+                .cache();
+        newEntry.result = result;
+        entries.put(key, newEntry);
+        return result;
+    }
+
+    private synchronized void onCompleted(String key, Entry entry, boolean success) {
+        if (entries.get(key) != entry) {
+            return;
+        }
+        if (success && timeToLiveMs > 0) {
+            entry.completedAt = System.currentTimeMillis();
+        } else {
+            entries.remove(key);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.flow;
+
+
+import com.aevi.sdk.flow.model.FlowEvent;
+import io.reactivex.BackpressureOverflowStrategy;
+import io.reactivex.Flowable;
+import org.reactivestreams.Publisher;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Process-wide stream of system events from the processing service.
+ *
+ * Subscribers share a single channel to the processing service, and each event is only decoded once before being delivered to every
+ * subscriber. The channel is opened when the first subscriber subscribes, and closed again once there are no subscribers left.
+ *
+ * Each subscriber has its own bounded buffer, so that a slow subscriber neither holds up the other subscribers nor causes events to build up
+ * without limit. What happens once the buffer of a subscriber is full is determined by the overflow strategy, see
+ * {@link #setBackpressure(int, BackpressureOverflowStrategy)}.
+ *
+ * The most recent events are kept in a replay buffer while the stream is connected, so that subscribers that subscribe late can catch up on
+ * recent events, see {@link #setReplaySize(int)}.
+ *
+ * Subscribers that are only interested in some event types share a separate channel per set of event types, so that the processing service
+ * only needs to send the events they are interested in.
+ */
+public final class SystemEventStream {
+
+    static final int DEFAULT_BUFFER_SIZE = 64;
+    static final int DEFAULT_REPLAY_SIZE = 16;
+
+    interface EventSource {
+        Flowable<FlowEvent> createEvents(Set<String> types);
+    }
+
+    private final Map<Set<String>, Flowable<FlowEvent>> sharedEvents = new HashMap<>();
+    private EventSource eventSource;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private BackpressureOverflowStrategy overflowStrategy = BackpressureOverflowStrategy.DROP_OLDEST;
+    private int replaySize = DEFAULT_REPLAY_SIZE;
+
+    SystemEventStream() {
+    }
+
+    /**
+     * Set the size of the buffer kept for each subscriber, and what to do when the buffer is full.
+     *
+     * Use {@link BackpressureOverflowStrategy#DROP_OLDEST} to drop the oldest buffered events in favour of new ones (the default), or
+     * {@link BackpressureOverflowStrategy#ERROR} to signal a {@link io.reactivex.exceptions.MissingBackpressureException} to the subscriber.
+     *
+     * This only applies to subsequent subscribers.
+     *
+     * @param bufferSize       The maximum number of events to buffer per subscriber
+     * @param overflowStrategy The strategy to apply once the buffer is full
+     */
+    public synchronized void setBackpressure(int bufferSize, BackpressureOverflowStrategy overflowStrategy) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be at least one");
+        }
+        this.bufferSize = bufferSize;
+        this.overflowStrategy = overflowStrategy;
+    }
+
+    /**
+     * Set the number of recent events that are replayed to new subscribers while the stream is connected.
+     *
+     * Setting this to zero disables replay. Changing the replay size will open a separate channel for subsequent subscribers.
+     *
+     * @param replaySize The number of events to replay
+     */
+    public synchronized void setReplaySize(int replaySize) {
+        if (replaySize < 0) {
+            throw new IllegalArgumentException("Replay size must not be negative");
+        }
+        if (replaySize != this.replaySize) {
+            this.replaySize = replaySize;
+            sharedEvents.clear();
+        }
+    }
+
+    /**
+     * Get the number of recent events that are replayed to new subscribers.
+     *
+     * @return The replay size
+     */
+    public synchronized int getReplaySize() {
+        return replaySize;
+    }
+
+    /**
+     * Subscribe to the shared events.
+     *
+     * @param source The source to create the events from if the stream is not connected yet
+     * @param types  The event types to subscribe to, or an empty set for all events
+     * @return The stream of events for a single subscriber
+     */
+    synchronized Flowable<FlowEvent> subscribe(EventSource source, Set<String> types) {
+        // Any client can be used to connect, so use the most recent one
+        eventSource = source;
+        Flowable<FlowEvent> shared = sharedEvents.get(types);
+        if (shared == null) {
+            final Set<String> eventTypes = Collections.unmodifiableSet(new HashSet<>(types));
+            Flowable<FlowEvent> events = Flowable.defer(new Callable<Publisher<FlowEvent>>() {
+                @Override
+                public Publisher<FlowEvent> call() throws Exception {
+                    return getEventSource().createEvents(eventTypes);
+                }
+            });
+            shared = replaySize > 0 ? events.replay(replaySize).refCount() : events.publish().refCount();
+            sharedEvents.put(eventTypes, shared);
+        }
+        return shared.onBackpressureBuffer(bufferSize, null, overflowStrategy);
+    }
+
+    private synchronized EventSource getEventSource() {
+        return eventSource;
+    }
+}
@@ -0,0 +1,711 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.flow.codec;
+
+
+import com.aevi.util.json.JsonOption;
+import com.aevi.util.json.JsonPostProcessing;
+import com.google.gson.InstanceCreator;
+import com.google.gson.internal.ConstructorConstructor;
+import com.google.gson.internal.ObjectConstructor;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Reflective binary codec for the flow models.
+ *
+ * Every value is prefixed by a one byte tag, so that data can be skipped without knowing its type. Objects are written as a list of
+ * (field name, value) pairs where the field name acts as the field tag, which means that peers with different versions of a model can still
+ * exchange it - unknown fields are skipped and missing fields keep their default value, as with the JSON representation.
+ *
+ * All strings (field names, map keys, class names and values) are interned per message, so that repeated keys are only written once.
+ * Integers are written as zig-zag varints.
+ *
+ * Class names are only written where the runtime type can not be inferred from the declared type, and only classes from the AppFlow
+ * packages and a small set of JDK types can be read or written. Encoding any other type fails with an {@link IllegalArgumentException}.
+ *
+ * If enabled via {@link #setLazyOptionDecoding(boolean)}, the values of {@link JsonOption} instances (i.e. the additional data entries) are
+ * skipped when decoding, and only decoded on first access. Values that have not been accessed are copied over as is when encoding.
+ */
+final class BinaryCodec {
+
+    static final int FORMAT_VERSION = 1;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_FALSE = 1;
+    private static final int TAG_TRUE = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_DOUBLE = 5;
+    private static final int TAG_FLOAT = 6;
+    private static final int TAG_STRING = 7;
+    private static final int TAG_OBJECT = 8;
+    private static final int TAG_ARRAY = 9;
+    private static final int TAG_MAP = 10;
+    private static final int TAG_TYPED = 11;
+    private static final int TAG_PACKED = 12;
+
+    private static final String ALLOWED_PACKAGE = "com.aevi.";
+    private static final Set<Class<?>> ALLOWED_JDK_TYPES = new HashSet<Class<?>>(Arrays.asList(
+            Object.class, String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class,
+            Double.class, ArrayList.class, LinkedList.class, HashSet.class, LinkedHashSet.class, TreeSet.class, HashMap.class,
+            LinkedHashMap.class, TreeMap.class, ConcurrentHashMap.class, CopyOnWriteArrayList.class, CopyOnWriteArraySet.class));
+
+    private static final Map<Class<?>, ClassInfo> CLASS_INFO = new ConcurrentHashMap<>();
+    // Models are created the same way as when read from JSON, including those without a no-arg constructor
+    private static final ConstructorConstructor CONSTRUCTORS = new ConstructorConstructor(Collections.<Type, InstanceCreator<?>>emptyMap());
+    private static final Map<String, Class<?>> CLASS_NAMES = new ConcurrentHashMap<>();
+
+    private static final String OPTION_VALUE_FIELD = "value";
+    private static final String OPTION_TYPE_FIELD = "type";
+
+    private static volatile boolean lazyOptionDecoding;
+
+    private BinaryCodec() {
+    }
+
+    static boolean setLazyOptionDecoding(boolean lazyOptionDecoding) {
+        Set<String> optionFields = getClassInfo(JsonOption.class).fieldsByName.keySet();
+        if (lazyOptionDecoding && !optionFields.equals(new HashSet<>(Arrays.asList(OPTION_VALUE_FIELD, OPTION_TYPE_FIELD)))) {
+            // Only the fields we know of can be read and written without going via the option class
+            return false;
+        }
+        BinaryCodec.lazyOptionDecoding = lazyOptionDecoding;
+        return true;
+    }
+
+    static byte[] encode(Object value) {
+        BinaryOutput out = new BinaryOutput(512);
+        out.writeByte(FORMAT_VERSION);
+        writeValue(out, value, value.getClass());
+        return out.toByteArray();
+    }
+
+    static <T> T decode(byte[] data, Class<T> type) {
+        BinaryInput in = new BinaryInput(data);
+        int version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported binary format version: " + version);
+        }
+        Object value = readValue(in, type, null);
+        if (!in.isAtEnd()) {
+            throw new IllegalArgumentException("Unexpected data after value");
+        }
+        return type.cast(value);
+    }
+
+    // Encoding
+
+    private static void writeValue(BinaryOutput out, Object value, Type declaredType) {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+            return;
+        }
+        if (value instanceof LazyJsonOption) {
+            writeLazyOption(out, (LazyJsonOption) value);
+            return;
+        }
+        Class<?> valueClass = value instanceof Enum ? ((Enum<?>) value).getDeclaringClass() : value.getClass();
+        if (needsTypeName(valueClass, rawType(declaredType))) {
+            checkAllowed(valueClass);
+            out.writeByte(TAG_TYPED);
+            out.writeString(valueClass.getName());
+            declaredType = valueClass;
+        }
+
+        if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(TAG_INT);
+            out.writeSignedVarLong(((Number) value).longValue());
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            out.writeSignedVarLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeFixedLong(Double.doubleToRawLongBits((Double) value));
+        } else if (value instanceof Float) {
+            out.writeByte(TAG_FLOAT);
+            out.writeVarInt(Float.floatToRawIntBits((Float) value));
+        } else if (value instanceof String) {
+            writeString(out, (String) value);
+        } else if (value instanceof Character) {
+            writeString(out, String.valueOf(value));
+        } else if (value instanceof Enum) {
+            writeString(out, ((Enum<?>) value).name());
+        } else if (valueClass.isArray()) {
+            int length = Array.getLength(value);
+            out.writeByte(TAG_ARRAY);
+            out.writeVarInt(length);
+            Class<?> componentType = valueClass.getComponentType();
+            for (int i = 0; i < length; i++) {
+                writeValue(out, Array.get(value, i), componentType);
+            }
+        } else if (value instanceof Collection) {
+            // Snapshot first, as the size of a concurrent collection may change while iterating
+            Object[] elements = ((Collection<?>) value).toArray();
+            Type elementType = typeArgument(declaredType, 0);
+            out.writeByte(TAG_ARRAY);
+            out.writeVarInt(elements.length);
+            for (Object element : elements) {
+                writeValue(out, element, elementType);
+            }
+        } else if (value instanceof Map) {
+            List<Map.Entry<?, ?>> entries = new ArrayList<Map.Entry<?, ?>>(((Map<?, ?>) value).entrySet());
+            Type keyType = typeArgument(declaredType, 0);
+            Type valueType = typeArgument(declaredType, 1);
+            out.writeByte(TAG_MAP);
+            out.writeVarInt(entries.size());
+            for (Map.Entry<?, ?> entry : entries) {
+                writeValue(out, entry.getKey(), keyType);
+                writeValue(out, entry.getValue(), valueType);
+            }
+        } else {
+            writeObject(out, value, valueClass);
+        }
+    }
+
+    private static void writeString(BinaryOutput out, String value) {
+        if (WireFormat.isBinary(value)) {
+            // Already encoded payload (such as the message data of an app message) - embed the raw bytes rather than the packed text
+            byte[] bytes = WireFormat.unpack(value);
+            out.writeByte(TAG_PACKED);
+            out.writeVarInt(bytes.length);
+            out.writeBytes(bytes);
+        } else {
+            out.writeByte(TAG_STRING);
+            out.writeString(value);
+        }
+    }
+
+    private static void writeObject(BinaryOutput out, Object value, Class<?> valueClass) {
+        checkAllowed(valueClass);
+        FieldInfo[] fields = getClassInfo(valueClass).fields;
+        Object[] values = new Object[fields.length];
+        int count = 0;
+        for (int i = 0; i < fields.length; i++) {
+            values[i] = getField(fields[i].field, value);
+            if (values[i] != null) {
+                count++;
+            }
+        }
+        out.writeByte(TAG_OBJECT);
+        out.writeVarInt(count);
+        for (int i = 0; i < fields.length; i++) {
+            if (values[i] != null) {
+                out.writeString(fields[i].name);
+                writeValue(out, values[i], fields[i].type);
+            }
+        }
+    }
+
+    private static void writeLazyOption(BinaryOutput out, LazyJsonOption option) {
+        String type = option.getType();
+        out.writeByte(TAG_OBJECT);
+        out.writeVarInt(type != null ? 2 : 1);
+        out.writeString(OPTION_VALUE_FIELD);
+        if (!option.copyEncodedValue(out)) {
+            writeValue(out, option.getValue(), Object.class);
+        }
+        if (type != null) {
+            out.writeString(OPTION_TYPE_FIELD);
+            writeString(out, type);
+        }
+    }
+
+    private static boolean needsTypeName(Class<?> valueClass, Class<?> declaredClass) {
+        if (valueClass == declaredClass || valueClass == boxedType(declaredClass)) {
+            return false;
+        }
+        if (declaredClass == Object.class) {
+            // The tag of these types is enough to restore them
+            return !(valueClass == String.class || valueClass == Boolean.class || valueClass == Integer.class || valueClass == Long.class
+                    || valueClass == Double.class || valueClass == Float.class);
+        }
+        // Collections are restored to a default implementation of the declared type, as with JSON
+        boolean isCollectionType = Collection.class.isAssignableFrom(declaredClass) || Map.class.isAssignableFrom(declaredClass);
+        boolean isAbstractType = declaredClass.isInterface() || Modifier.isAbstract(declaredClass.getModifiers());
+        return !(isCollectionType && isAbstractType && declaredClass.isAssignableFrom(valueClass)
+                && valueClass.getName().startsWith("java.util."));
+    }
+
+    // Decoding
+
+    private static Object readValue(BinaryInput in, Type declaredType, Object existing) {
+        Class<?> targetClass = rawType(declaredType);
+        int tag = in.readByte();
+        if (tag == TAG_TYPED) {
+            Class<?> typedClass = resolveClass(in.readString());
+            if (!boxedType(targetClass).isAssignableFrom(typedClass)) {
+                throw new IllegalArgumentException(typedClass.getName() + " is not assignable to " + targetClass.getName());
+            }
+            if (typedClass != targetClass) {
+                declaredType = typedClass;
+                targetClass = typedClass;
+            }
+            tag = in.readByte();
+        }
+
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_INT:
+                return convertNumber((int) in.readSignedVarLong(), targetClass);
+            case TAG_LONG:
+                return convertNumber(in.readSignedVarLong(), targetClass);
+            case TAG_DOUBLE:
+                return convertNumber(Double.longBitsToDouble(in.readFixedLong()), targetClass);
+            case TAG_FLOAT:
+                return convertNumber(Float.intBitsToFloat((int) in.readVarLong()), targetClass);
+            case TAG_STRING:
+                return convertString(in.readString(), targetClass);
+            case TAG_PACKED:
+                return WireFormat.pack(in.readBytes(in.readVarInt()));
+            case TAG_ARRAY:
+                return readArray(in, declaredType, targetClass, existing);
+            case TAG_MAP:
+                return readMap(in, declaredType, targetClass, existing);
+            case TAG_OBJECT:
+                if (lazyOptionDecoding && targetClass == JsonOption.class) {
+                    return readLazyOption(in);
+                }
+                return readObject(in, targetClass);
+            default:
+                throw new IllegalArgumentException("Unknown tag: " + tag);
+        }
+    }
+
+    /**
+     * Decode a value skipped by {@link #readLazyOption(BinaryInput)}.
+     */
+    static Object readOptionValue(BinaryInput in) {
+        return readValue(in, Object.class, null);
+    }
+
+    private static JsonOption readLazyOption(BinaryInput in) {
+        String type = null;
+        int valuePosition = -1;
+        int stringCount = 0;
+        for (int count = in.readVarInt(); count > 0; count--) {
+            String fieldName = in.readString();
+            if (OPTION_TYPE_FIELD.equals(fieldName)) {
+                type = (String) readValue(in, String.class, null);
+            } else if (OPTION_VALUE_FIELD.equals(fieldName)) {
+                valuePosition = in.position();
+                stringCount = in.stringCount();
+                skipValue(in);
+            } else {
+                skipValue(in);
+            }
+        }
+        if (valuePosition < 0) {
+            return new JsonOption(null, type);
+        }
+        return new LazyJsonOption(type, in, valuePosition, stringCount);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object readArray(BinaryInput in, Type declaredType, Class<?> targetClass, Object existing) {
+        int length = in.readVarInt();
+        if (targetClass.isArray()) {
+            Class<?> componentType = targetClass.getComponentType();
+            Object array = Array.newInstance(componentType, length);
+            for (int i = 0; i < length; i++) {
+                Object element = readValue(in, componentType, null);
+                if (element != null || !componentType.isPrimitive()) {
+                    Array.set(array, i, element);
+                }
+            }
+            return array;
+        }
+        Collection<Object> collection = (Collection<Object>) reuseOrCreate(existing, targetClass, Collection.class);
+        Type elementType = typeArgument(declaredType, 0);
+        for (int i = 0; i < length; i++) {
+            collection.add(readValue(in, elementType, null));
+        }
+        return collection;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object readMap(BinaryInput in, Type declaredType, Class<?> targetClass, Object existing) {
+        int size = in.readVarInt();
+        Map<Object, Object> map = (Map<Object, Object>) reuseOrCreate(existing, targetClass, Map.class);
+        Type keyType = typeArgument(declaredType, 0);
+        Type valueType = typeArgument(declaredType, 1);
+        if (!(map instanceof ConcurrentMap)) {
+            for (int i = 0; i < size; i++) {
+                map.put(readValue(in, keyType, null), readValue(in, valueType, null));
+            }
+            return map;
+        }
+        // Concurrent maps don't take nulls, and may be cheaper to fill in one go
+        Map<Object, Object> entries = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            Object key = readValue(in, keyType, null);
+            Object value = readValue(in, valueType, null);
+            if (key != null && value != null) {
+                entries.put(key, value);
+            }
+        }
+        map.putAll(entries);
+        return map;
+    }
+
+    private static Object readObject(BinaryInput in, Class<?> targetClass) {
+        checkAllowed(targetClass);
+        ClassInfo classInfo = getClassInfo(targetClass);
+        Object instance = classInfo.newInstance();
+        int count = in.readVarInt();
+        for (int i = 0; i < count; i++) {
+            FieldInfo fieldInfo = classInfo.fieldsByName.get(in.readString());
+            if (fieldInfo == null) {
+                skipValue(in);
+                continue;
+            }
+            Object value = readValue(in, fieldInfo.type, getField(fieldInfo.field, instance));
+            if (value != null || !fieldInfo.field.getType().isPrimitive()) {
+                setField(fieldInfo.field, instance, value);
+            }
+        }
+        if (instance instanceof JsonPostProcessing) {
+            ((JsonPostProcessing) instance).onJsonDeserialisationCompleted();
+        }
+        return instance;
+    }
+
+    private static void skipValue(BinaryInput in) {
+        int tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+            case TAG_FALSE:
+            case TAG_TRUE:
+                break;
+            case TAG_INT:
+            case TAG_LONG:
+            case TAG_FLOAT:
+                in.readVarLong();
+                break;
+            case TAG_DOUBLE:
+                in.readFixedLong();
+                break;
+            case TAG_STRING:
+                in.readString(); // Must be read rather than skipped to keep the string table in sync
+                break;
+            case TAG_PACKED:
+                in.skip(in.readVarInt());
+                break;
+            case TAG_ARRAY:
+                for (int i = in.readVarInt(); i > 0; i--) {
+                    skipValue(in);
+                }
+                break;
+            case TAG_MAP:
+                for (int i = in.readVarInt(); i > 0; i--) {
+                    skipValue(in);
+                    skipValue(in);
+                }
+                break;
+            case TAG_OBJECT:
+                for (int i = in.readVarInt(); i > 0; i--) {
+                    in.readString();
+                    skipValue(in);
+                }
+                break;
+            case TAG_TYPED:
+                in.readString();
+                skipValue(in);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown tag: " + tag);
+        }
+    }
+
+    /**
+     * Copy a value from the input to the output without decoding it, re-writing the strings against the string table of the output.
+     */
+    static void copyValue(BinaryInput in, BinaryOutput out) {
+        int tag = in.readByte();
+        out.writeByte(tag);
+        switch (tag) {
+            case TAG_NULL:
+            case TAG_FALSE:
+            case TAG_TRUE:
+                break;
+            case TAG_INT:
+            case TAG_LONG:
+            case TAG_FLOAT:
+                out.writeVarLong(in.readVarLong());
+                break;
+            case TAG_DOUBLE:
+                out.writeFixedLong(in.readFixedLong());
+                break;
+            case TAG_STRING:
+                out.writeString(in.readString());
+                break;
+            case TAG_PACKED:
+                int length = in.readVarInt();
+                out.writeVarInt(length);
+                out.writeBytes(in.readBytes(length));
+                break;
+            case TAG_ARRAY:
+                int arrayLength = in.readVarInt();
+                out.writeVarInt(arrayLength);
+                for (int i = arrayLength; i > 0; i--) {
+                    copyValue(in, out);
+                }
+                break;
+            case TAG_MAP:
+                int size = in.readVarInt();
+                out.writeVarInt(size);
+                for (int i = size; i > 0; i--) {
+                    copyValue(in, out);
+                    copyValue(in, out);
+                }
+                break;
+            case TAG_OBJECT:
+                int count = in.readVarInt();
+                out.writeVarInt(count);
+                for (int i = count; i > 0; i--) {
+                    out.writeString(in.readString());
+                    copyValue(in, out);
+                }
+                break;
+            case TAG_TYPED:
+                out.writeString(in.readString());
+                copyValue(in, out);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown tag: " + tag);
+        }
+    }
+
+    private static Object convertNumber(Number number, Class<?> targetClass) {
+        Class<?> boxed = boxedType(targetClass);
+        if (boxed == Integer.class) {
+            return number.intValue();
+        } else if (boxed == Long.class) {
+            return number.longValue();
+        } else if (boxed == Double.class) {
+            return number.doubleValue();
+        } else if (boxed == Float.class) {
+            return number.floatValue();
+        } else if (boxed == Short.class) {
+            return number.shortValue();
+        } else if (boxed == Byte.class) {
+            return number.byteValue();
+        }
+        return number;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object convertString(String value, Class<?> targetClass) {
+        if (targetClass.isEnum()) {
+            return Enum.valueOf((Class<? extends Enum>) targetClass, value);
+        } else if (boxedType(targetClass) == Character.class) {
+            return value.isEmpty() ? null : value.charAt(0);
+        }
+        return value;
+    }
+
+    private static Object reuseOrCreate(Object existing, Class<?> targetClass, Class<?> kind) {
+        if (existing != null && kind.isInstance(existing) && ALLOWED_JDK_TYPES.contains(existing.getClass())) {
+            // Keep the implementation chosen by the model constructor, such as a concurrent map
+            if (existing instanceof Map) {
+                ((Map<?, ?>) existing).clear();
+            } else {
+                ((Collection<?>) existing).clear();
+            }
+            return existing;
+        }
+        if (!targetClass.isInterface() && !Modifier.isAbstract(targetClass.getModifiers())) {
+            checkAllowed(targetClass);
+            if (ALLOWED_JDK_TYPES.contains(targetClass)) {
+                try {
+                    return targetClass.newInstance();
+                } catch (Exception e) {
+                    throw new IllegalArgumentException("Failed to create instance of " + targetClass.getName(), e);
+                }
+            }
+            return getClassInfo(targetClass).newInstance();
+        }
+        if (targetClass.isAssignableFrom(ArrayList.class)) {
+            return new ArrayList<>();
+        } else if (targetClass.isAssignableFrom(LinkedHashSet.class)) {
+            return new LinkedHashSet<>();
+        } else if (targetClass.isAssignableFrom(TreeSet.class)) {
+            return new TreeSet<>();
+        } else if (targetClass.isAssignableFrom(LinkedHashMap.class)) {
+            return new LinkedHashMap<>();
+        } else if (targetClass.isAssignableFrom(ConcurrentHashMap.class)) {
+            return new ConcurrentHashMap<>();
+        } else if (targetClass.isAssignableFrom(TreeMap.class)) {
+            return new TreeMap<>();
+        }
+        throw new IllegalArgumentException("Unsupported collection type: " + targetClass.getName());
+    }
+
+    // Types and reflection
+
+    private static Class<?> resolveClass(String className) {
+        Class<?> type = CLASS_NAMES.get(className);
+        if (type == null) {
+            try {
+                type = Class.forName(className, false, BinaryCodec.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("Unknown type: " + className, e);
+            }
+            checkAllowed(type);
+            CLASS_NAMES.put(className, type);
+        }
+        return type;
+    }
+
+    private static void checkAllowed(Class<?> type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (!type.isPrimitive() && !ALLOWED_JDK_TYPES.contains(type) && !type.getName().startsWith(ALLOWED_PACKAGE)) {
+            throw new IllegalArgumentException("Type not supported by binary codec: " + type.getName());
+        }
+    }
+
+    private static Class<?> rawType(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        } else if (type instanceof GenericArrayType) {
+            return Array.newInstance(rawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        } else if (type instanceof WildcardType) {
+            return rawType(((WildcardType) type).getUpperBounds()[0]);
+        }
+        return Object.class;
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    private static Class<?> boxedType(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        } else if (type == int.class) {
+            return Integer.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == boolean.class) {
+            return Boolean.class;
+        } else if (type == double.class) {
+            return Double.class;
+        } else if (type == float.class) {
+            return Float.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        }
+        return Character.class;
+    }
+
+    private static ClassInfo getClassInfo(Class<?> type) {
+        ClassInfo classInfo = CLASS_INFO.get(type);
+        if (classInfo == null) {
+            classInfo = new ClassInfo(type);
+            CLASS_INFO.put(type, classInfo);
+        }
+        return classInfo;
+    }
+
+    private static Object getField(Field field, Object instance) {
+        try {
+            return field.get(instance);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Failed to read field " + field.getName(), e);
+        }
+    }
+
+    private static void setField(Field field, Object instance, Object value) {
+        try {
+            field.set(instance, value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Failed to set field " + field.getName(), e);
+        }
+    }
+
+    private static final class FieldInfo {
+
+        final Field field;
+        final String name;
+        final Type type;
+
+        FieldInfo(Field field) {
+            this.field = field;
+            this.name = field.getName();
+            this.type = field.getGenericType();
+        }
+    }
+
+    private static final class ClassInfo {
+
+        final Class<?> type;
+        final FieldInfo[] fields;
+        final Map<String, FieldInfo> fieldsByName = new HashMap<>();
+        final ObjectConstructor<?> constructor;
+
+        ClassInfo(Class<?> type) {
+            this.type = type;
+            List<FieldInfo> fieldList = new ArrayList<>();
+            for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()
+                            || fieldsByName.containsKey(field.getName())) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    FieldInfo fieldInfo = new FieldInfo(field);
+                    fieldList.add(fieldInfo);
+                    fieldsByName.put(fieldInfo.name, fieldInfo);
+                }
+            }
+            fields = fieldList.toArray(new FieldInfo[fieldList.size()]);
+            constructor = CONSTRUCTORS.get(TypeToken.get(type));
+        }
+
+        Object newInstance() {
+            try {
+                return constructor.construct();
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Failed to create instance of " + type.getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.flow.codec;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.aevi.sdk.flow.codec.BinaryOutput.UTF_8;
+
+/**
+ * Reader for data written by {@link BinaryOutput}.
+ */
+final class BinaryInput {
+
+    private final List<String> stringTable;
+    private final byte[] buffer;
+    private int pos;
+
+    BinaryInput(byte[] buffer) {
+        this(buffer, 0, new ArrayList<String>());
+    }
+
+    private BinaryInput(byte[] buffer, int pos, List<String> stringTable) {
+        this.buffer = buffer;
+        this.pos = pos;
+        this.stringTable = stringTable;
+    }
+
+    /**
+     * Create an input that reads the same data from the given position, with the string table as it was when at that position.
+     *
+     * This must only be called once this input has been read completely.
+     *
+     * @param position    The position to read from
+     * @param stringCount The number of strings read before the position
+     * @return The new input
+     */
+    BinaryInput fork(int position, int stringCount) {
+        return new BinaryInput(buffer, position, new ArrayList<>(stringTable.subList(0, stringCount)));
+    }
+
+    int position() {
+        return pos;
+    }
+
+    int stringCount() {
+        return stringTable.size();
+    }
+
+    int readByte() {
+        checkAvailable(1);
+        return buffer[pos++] & 0xFF;
+    }
+
+    byte[] readBytes(int length) {
+        checkAvailable(length);
+        byte[] bytes = Arrays.copyOfRange(buffer, pos, pos + length);
+        pos += length;
+        return bytes;
+    }
+
+    void skip(int length) {
+        checkAvailable(length);
+        pos += length;
+    }
+
+    long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    int readVarInt() {
+        long value = readVarLong();
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Varint out of range");
+        }
+        return (int) value;
+    }
+
+    long readSignedVarLong() {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    long readFixedLong() {
+        checkAvailable(8);
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value |= (long) (buffer[pos++] & 0xFF) << (i * 8);
+        }
+        return value;
+    }
+
+    String readString() {
+        int header = readVarInt();
+        if ((header & 1) != 0) {
+            int index = header >>> 1;
+            if (index >= stringTable.size()) {
+                throw new IllegalArgumentException("Invalid string reference");
+            }
+            return stringTable.get(index);
+        }
+        int length = header >>> 1;
+        checkAvailable(length);
+        String value = new String(buffer, pos, length, UTF_8);
+        pos += length;
+        stringTable.add(value);
+        return value;
+    }
+
+    boolean isAtEnd() {
+        return pos == buffer.length;
+    }
+
+    private void checkAvailable(int length) {
+        if (length < 0 || pos + length > buffer.length) {
+            throw new IllegalArgumentException("Unexpected end of data");
+        }
+    }
+}
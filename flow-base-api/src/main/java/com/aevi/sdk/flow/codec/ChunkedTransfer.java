@@ -0,0 +1,233 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.flow.codec;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Internal API for splitting messages that are too large for a single Binder transaction into a sequence of frames.
+ *
+ * Each frame carries a header with the transfer id, the frame index and count, the total message length and a CRC32 checksum of the frame
+ * content. Frames must be delivered in order over the same channel.
+ *
+ * Frames are not acknowledged in either direction. Messages sent over a channel are delivered in the order they were sent, so all frames of
+ * a message are sent back to back and the receiver only responds once the complete message has been reassembled.
+ *
+ * Chunking must only be used towards peers that have advertised {@link #FEATURE} in their internal data.
+ */
+public final class ChunkedTransfer {
+
+    /**
+     * The name of the chunked transfer feature, as advertised in the internal data.
+     */
+    public static final String FEATURE = "chunked1";
+
+    /**
+     * The default maximum frame length in characters. Strings are sent as UTF-16, so this keeps frames well below the Binder limit.
+     */
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 128 * 1024;
+
+    static final char FRAME_MARKER = '\uB001';
+    private static final char HEADER_SEPARATOR = ',';
+    private static final char HEADER_END = ';';
+
+    private static volatile int maxFrameLength = DEFAULT_MAX_FRAME_LENGTH;
+
+    private ChunkedTransfer() {
+    }
+
+    /**
+     * Set the maximum length of a message (in characters) before it is split into frames.
+     *
+     * @param maxFrameLength The maximum frame length
+     */
+    public static void setMaxFrameLength(int maxFrameLength) {
+        if (maxFrameLength < 1024) {
+            throw new IllegalArgumentException("Max frame length must be at least 1024");
+        }
+        ChunkedTransfer.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * Get the maximum length of a message (in characters) before it is split into frames.
+     *
+     * @return The maximum frame length
+     */
+    public static int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    /**
+     * Check whether a message needs to be split into frames.
+     *
+     * @param message The message
+     * @return True if the message is larger than the max frame length
+     */
+    public static boolean needsChunking(String message) {
+        return message.length() > maxFrameLength;
+    }
+
+    /**
+     * Check whether a message is a frame.
+     *
+     * @param message The message
+     * @return True if the message is a frame
+     */
+    public static boolean isFrame(String message) {
+        return message != null && !message.isEmpty() && message.charAt(0) == FRAME_MARKER;
+    }
+
+    /**
+     * Split a message into frames of at most the max frame length of content.
+     *
+     * @param message The message to split
+     * @return The frames, in order
+     */
+    public static List<String> split(String message) {
+        return split(message, maxFrameLength);
+    }
+
+    static List<String> split(String message, int frameLength) {
+        String transferId = UUID.randomUUID().toString();
+        List<int[]> ranges = new ArrayList<>();
+        int start = 0;
+        while (start < message.length()) {
+            int end = Math.min(start + frameLength, message.length());
+            if (end < message.length() && Character.isHighSurrogate(message.charAt(end - 1))) {
+                end--; // Never split a surrogate pair across frames
+            }
+            ranges.add(new int[]{start, end});
+            start = end;
+        }
+
+        List<String> frames = new ArrayList<>(ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            int[] range = ranges.get(i);
+            StringBuilder frame = new StringBuilder(range[1] - range[0] + 96);
+            frame.append(FRAME_MARKER)
+                    .append(transferId).append(HEADER_SEPARATOR)
+                    .append(i).append(HEADER_SEPARATOR)
+                    .append(ranges.size()).append(HEADER_SEPARATOR)
+                    .append(message.length()).append(HEADER_SEPARATOR)
+                    .append(Long.toHexString(checksum(message, range[0], range[1]))).append(HEADER_END)
+                    .append(message, range[0], range[1]);
+            frames.add(frame.toString());
+        }
+        return frames;
+    }
+
+    private static long checksum(CharSequence data, int start, int end) {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[Math.min(8192, (end - start) * 2)];
+        int pos = 0;
+        for (int i = start; i < end; i++) {
+            char c = data.charAt(i);
+            buffer[pos++] = (byte) (c >>> 8);
+            buffer[pos++] = (byte) c;
+            if (pos == buffer.length) {
+                crc.update(buffer, 0, pos);
+                pos = 0;
+            }
+        }
+        crc.update(buffer, 0, pos);
+        return crc.getValue();
+    }
+
+    /**
+     * Reassembles messages from frames as they arrive.
+     *
+     * The content of each frame is appended to a buffer sized for the full message, so that the complete message string is only built once.
+     * Messages that are not frames are passed straight through.
+     */
+    public static final class Reassembler {
+
+        private String transferId;
+        private int nextIndex;
+        private int frameCount;
+        private StringBuilder buffer;
+
+        /**
+         * Handle a received message.
+         *
+         * @param message The received message or frame
+         * @return The complete message, or null if more frames are required
+         * @throws IllegalArgumentException if a frame is corrupt or out of sequence
+         */
+        public String onMessage(String message) {
+            if (!isFrame(message)) {
+                return message;
+            }
+            int headerEnd = message.indexOf(HEADER_END);
+            if (headerEnd < 0) {
+                throw new IllegalArgumentException("Invalid frame header");
+            }
+            String[] header = message.substring(1, headerEnd).split(String.valueOf(HEADER_SEPARATOR));
+            if (header.length != 5) {
+                throw new IllegalArgumentException("Invalid frame header");
+            }
+            int index = Integer.parseInt(header[1]);
+            int count = Integer.parseInt(header[2]);
+            int totalLength = Integer.parseInt(header[3]);
+            long expectedChecksum = Long.parseLong(header[4], 16);
+            if (checksum(message, headerEnd + 1, message.length()) != expectedChecksum) {
+                reset();
+                throw new IllegalArgumentException("Frame checksum mismatch for frame " + index);
+            }
+
+            if (index == 0) {
+                transferId = header[0];
+                frameCount = count;
+                nextIndex = 0;
+                buffer = new StringBuilder(totalLength);
+            }
+            if (buffer == null || !header[0].equals(transferId) || index != nextIndex || count != frameCount) {
+                reset();
+                throw new IllegalArgumentException("Frame " + index + " received out of sequence");
+            }
+            buffer.append(message, headerEnd + 1, message.length());
+            nextIndex++;
+            if (nextIndex < frameCount) {
+                return null;
+            }
+            if (buffer.length() != totalLength) {
+                reset();
+                throw new IllegalArgumentException("Reassembled message length mismatch");
+            }
+            String complete = buffer.toString();
+            reset();
+            return complete;
+        }
+
+        /**
+         * Check whether a transfer is in progress.
+         *
+         * @return True if some, but not all, frames of a message have been received
+         */
+        public boolean isTransferInProgress() {
+            return buffer != null;
+        }
+
+        private void reset() {
+            transferId = null;
+            buffer = null;
+            nextIndex = 0;
+            frameCount = 0;
+        }
+    }
+}
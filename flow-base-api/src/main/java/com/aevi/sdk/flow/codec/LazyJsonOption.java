@@ -0,0 +1,127 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.flow.codec;
+
+
+import com.aevi.util.json.JsonOption;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Additional data entry whose value is kept in its encoded form until first accessed.
+ *
+ * The value is only ever exposed via {@link #getValue()}. Wherever the option leaves the binary form, such as when serialised to JSON or
+ * copied into another model, it is replaced with a plain {@link JsonOption} holding the decoded value, see {@link #toJsonOption()}.
+ */
+@JsonAdapter(LazyJsonOption.JsonAdapterFactory.class)
+final class LazyJsonOption extends JsonOption {
+
+    private transient BinaryInput encoded;
+    private final transient int position;
+    private final transient int stringCount;
+    private transient Object decodedValue;
+
+    LazyJsonOption(String type, BinaryInput encoded, int position, int stringCount) {
+        super(null, type);
+        this.encoded = encoded;
+        this.position = position;
+        this.stringCount = stringCount;
+    }
+
+    @Override
+    public synchronized Object getValue() {
+        if (encoded != null) {
+            decodedValue = BinaryCodec.readOptionValue(encoded.fork(position, stringCount));
+            encoded = null;
+        }
+        return decodedValue;
+    }
+
+    synchronized boolean isDecoded() {
+        return encoded == null;
+    }
+
+    /**
+     * Decode the value, if not done yet, and get it as a plain option.
+     *
+     * @return The option with the decoded value
+     */
+    JsonOption toJsonOption() {
+        return new JsonOption(getValue(), getType());
+    }
+
+    /**
+     * Get an option for another model, which decodes its own instance of the value if it has not been decoded yet.
+     *
+     * @return A copy of this option if the value has not been decoded, or this option otherwise
+     */
+    synchronized JsonOption copyForSharing() {
+        return encoded != null ? new LazyJsonOption(getType(), encoded, position, stringCount) : this;
+    }
+
+    /**
+     * Copy the value to the output in its encoded form, if it has not been decoded.
+     *
+     * @param out The output
+     * @return True if copied, false if the value has been decoded and must be written as any other value
+     */
+    synchronized boolean copyEncodedValue(BinaryOutput out) {
+        if (encoded == null) {
+            return false;
+        }
+        BinaryCodec.copyValue(encoded.fork(position, stringCount), out);
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return toJsonOption().equals(o instanceof LazyJsonOption ? ((LazyJsonOption) o).toJsonOption() : o);
+    }
+
+    @Override
+    public int hashCode() {
+        return toJsonOption().hashCode();
+    }
+
+    /*
+    Serialises the option as the plain option with the decoded value, rather than via the fields of this class
+     */
+    static final class JsonAdapterFactory implements TypeAdapterFactory {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            final TypeAdapter<JsonOption> delegate = gson.getAdapter(JsonOption.class);
+            return (TypeAdapter<T>) new TypeAdapter<LazyJsonOption>() {
+                @Override
+                public void write(JsonWriter out, LazyJsonOption option) throws IOException {
+                    delegate.write(out, option != null ? option.toJsonOption() : null);
+                }
+
+                @Override
+                public LazyJsonOption read(JsonReader in) throws IOException {
+                    throw new UnsupportedOperationException("Lazy options are only created from the binary form");
+                }
+            };
+        }
+    }
+}
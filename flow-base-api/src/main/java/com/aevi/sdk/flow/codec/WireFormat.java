@@ -0,0 +1,212 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.flow.codec;
+
+
+import android.util.Log;
+import com.aevi.sdk.flow.ChannelPool;
+import com.aevi.sdk.flow.model.AppMessage;
+import com.aevi.util.json.JsonConverter;
+import com.aevi.util.json.JsonOption;
+
+/**
+ * Internal API for serialising models for sending to other applications, either as JSON or in the compact binary form.
+ *
+ * As the messaging channels carry strings, binary data is packed into a string with 15 bits per character, using only characters outside
+ * of the surrogate range so that the string survives any UTF-16 or UTF-8 conversion on the way. The packed string starts with a marker
+ * character that can never start a JSON document, which is what allows {@link #deserialize(String, Class)} to accept either form.
+ *
+ * The binary form must only be sent to peers that have advertised {@link #CODEC_BINARY} in the {@link #INTERNAL_DATA_KEY} entry of their
+ * internal data. As the packed characters take three bytes each in UTF-8, the binary form is only smaller than JSON over channels that
+ * carry strings as UTF-16, such as the Binder based messenger channel. Applications using another channel advertise {@link #TEXT_CODECS}
+ * instead.
+ */
+public final class WireFormat {
+
+    private static final String TAG = WireFormat.class.getSimpleName();
+
+    /**
+     * Key in the internal data additional data for the comma separated list of codecs and wire features (such as
+     * {@link ChunkedTransfer#FEATURE}) the sender can read.
+     */
+    public static final String INTERNAL_DATA_KEY = "wireCodecs";
+
+    /**
+     * Name of the binary codec, version 1.
+     */
+    public static final String CODEC_BINARY = "binary1";
+
+    /**
+     * The codecs and wire features supported by this version of the API over channels where the binary form is not worthwhile.
+     */
+    public static final String TEXT_CODECS =
+            ChunkedTransfer.FEATURE + "," + AppMessage.NESTED_ENVELOPE_FEATURE + "," + ChannelPool.REUSE_FEATURE;
+
+    /**
+     * The codecs and wire features supported by this version of the API.
+     */
+    public static final String SUPPORTED_CODECS = CODEC_BINARY + "," + TEXT_CODECS;
+
+    static final char BINARY_MARKER = '\uB000';
+    private static final char PACK_BASE = '\u3000'; // Packed characters are in the range 0x3000 - 0xAFFF
+    private static final int BITS_PER_CHAR = 15;
+    private static final int CHAR_MASK = (1 << BITS_PER_CHAR) - 1;
+
+    private WireFormat() {
+    }
+
+    /**
+     * Serialise a model.
+     *
+     * If the binary form is requested but the model contains types that are not supported by the binary codec, the model is serialised to
+     * JSON instead.
+     *
+     * @param model  The model to serialise
+     * @param binary True to use the binary form, false for JSON
+     * @return The serialised model
+     */
+    public static String serialize(Object model, boolean binary) {
+        if (binary) {
+            try {
+                return pack(BinaryCodec.encode(model));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Falling back to JSON for " + model.getClass().getSimpleName() + ": " + e.getMessage());
+            }
+        }
+        return JsonConverter.serialize(model);
+    }
+
+    /**
+     * Deserialise a model from either JSON or the binary form.
+     *
+     * @param data The serialised model
+     * @param type The model type
+     * @param <T>  The model type
+     * @return The model
+     */
+    public static <T> T deserialize(String data, Class<T> type) {
+        if (isBinary(data)) {
+            return BinaryCodec.decode(unpack(data), type);
+        }
+        return JsonConverter.deserialize(data, type);
+    }
+
+    /**
+     * Set whether the values of additional data entries are decoded on first access, rather than when the model is deserialised.
+     *
+     * This only applies to data in the binary form.
+     *
+     * @param lazyDecoding True to decode values on first access, false to decode all values straight away (the default)
+     */
+    public static void setLazyOptionDecoding(boolean lazyDecoding) {
+        if (!BinaryCodec.setLazyOptionDecoding(lazyDecoding)) {
+            Log.w(TAG, "Lazy decoding is not supported with this version of the JSON library");
+        }
+    }
+
+    /**
+     * Get an additional data option to share with another model.
+     *
+     * Options whose value has not been decoded yet (see {@link #setLazyOptionDecoding(boolean)}) are copied, so that each model decodes
+     * its own instance of the value. Any other option is returned as is.
+     *
+     * @param option The option
+     * @return The option to store in the other model
+     */
+    public static JsonOption shareOption(JsonOption option) {
+        return option instanceof LazyJsonOption ? ((LazyJsonOption) option).copyForSharing() : option;
+    }
+
+    /**
+     * Check whether the data is in the binary form.
+     *
+     * @param data The serialised data
+     * @return True if binary, false if JSON (or anything else)
+     */
+    public static boolean isBinary(String data) {
+        return data != null && !data.isEmpty() && data.charAt(0) == BINARY_MARKER;
+    }
+
+    /**
+     * Check whether a comma separated list of codecs, as advertised by a peer, contains the given codec.
+     *
+     * @param codecs The list of codecs, may be null
+     * @param codec  The codec to look for
+     * @return True if the codec is in the list
+     */
+    public static boolean containsCodec(String codecs, String codec) {
+        if (codecs == null) {
+            return false;
+        }
+        for (String entry : codecs.split(",")) {
+            if (entry.trim().equals(codec)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static String pack(byte[] bytes) {
+        int totalBits = bytes.length * 8;
+        int charCount = (totalBits + BITS_PER_CHAR - 1) / BITS_PER_CHAR;
+        int padding = charCount * BITS_PER_CHAR - totalBits;
+        char[] chars = new char[charCount + 2];
+        chars[0] = BINARY_MARKER;
+        chars[1] = (char) (PACK_BASE + padding);
+        int pos = 2;
+        int buffer = 0;
+        int bufferedBits = 0;
+        for (byte b : bytes) {
+            buffer = (buffer << 8) | (b & 0xFF);
+            bufferedBits += 8;
+            if (bufferedBits >= BITS_PER_CHAR) {
+                bufferedBits -= BITS_PER_CHAR;
+                chars[pos++] = (char) (PACK_BASE + ((buffer >>> bufferedBits) & CHAR_MASK));
+            }
+        }
+        if (bufferedBits > 0) {
+            chars[pos] = (char) (PACK_BASE + ((buffer << (BITS_PER_CHAR - bufferedBits)) & CHAR_MASK));
+        }
+        return new String(chars);
+    }
+
+    static byte[] unpack(String data) {
+        if (data.length() < 2) {
+            throw new IllegalArgumentException("Invalid binary data");
+        }
+        int padding = data.charAt(1) - PACK_BASE;
+        int totalBits = (data.length() - 2) * BITS_PER_CHAR - padding;
+        if (padding < 0 || padding >= BITS_PER_CHAR || totalBits < 0) {
+            throw new IllegalArgumentException("Invalid binary data");
+        }
+        byte[] bytes = new byte[totalBits / 8];
+        int pos = 0;
+        int buffer = 0;
+        int bufferedBits = 0;
+        for (int i = 2; i < data.length() && pos < bytes.length; i++) {
+            int value = data.charAt(i) - PACK_BASE;
+            if (value < 0 || value > CHAR_MASK) {
+                throw new IllegalArgumentException("Invalid binary data");
+            }
+            buffer = (buffer << BITS_PER_CHAR) | value;
+            bufferedBits += BITS_PER_CHAR;
+            while (bufferedBits >= 8 && pos < bytes.length) {
+                bufferedBits -= 8;
+                bytes[pos++] = (byte) (buffer >>> bufferedBits);
+            }
+        }
+        return bytes;
+    }
+}
@@ -36,6 +36,11 @@ public interface ErrorConstants {
      */
     String PROCESSING_SERVICE_BUSY = "busy";
 
+    /**
+     * Sent if a flow service rejects a request because it has too many requests queued
+     */
+    String FLOW_SERVICE_BUSY = "flowServiceBusy";
+
     /**
      * Sent if the processing service fails to cancel a flow
      */
@@ -91,6 +96,11 @@ public interface ErrorConstants {
      */
     String INCOMPATIBLE_API_VERSION = "incompatibleApiVersion";
 
+    /**
+     * Sent if the response to a request has not been received within the expected time
+     */
+    String RESPONSE_TIMEOUT = "responseTimeout";
+
     /**
      * Something unexpected happened
      */
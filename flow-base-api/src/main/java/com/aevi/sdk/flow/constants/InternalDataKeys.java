@@ -20,4 +20,7 @@ package com.aevi.sdk.flow.constants;
 public interface InternalDataKeys {
 
     String FLOW_STAGE = "flowStage";
+    String EVENT_TYPES = "eventTypes";
+    String REQUEST_ID = "requestId";
+    String PERSISTENT_CHANNEL_IDLE_TIMEOUT = "persistentChannelIdleTimeout";
 }
@@ -18,12 +18,19 @@ package com.aevi.sdk.flow.model;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
+import com.aevi.sdk.flow.codec.WireFormat;
 import com.aevi.util.json.JsonConverter;
 import com.aevi.util.json.JsonOption;
 import com.aevi.util.json.Jsonable;
+import com.google.gson.annotations.JsonAdapter;
 
 import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -41,13 +48,32 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class AdditionalData implements Jsonable {
 
-    private final Map<String, JsonOption> data;
+    // Process-wide cache of the classes resolved from the stored type names, including type names that could not be resolved. As the type
+    // names come from received data, the cache is bounded and type names beyond the bound are resolved on every use instead
+    private static final int MAX_RESOLVED_TYPES = 256;
+    private static final Map<String, ResolvedType> RESOLVED_TYPES = new ConcurrentHashMap<>();
+
+    @JsonAdapter(CompactMap.JsonAdapterFactory.class)
+    private final CompactMap<String, JsonOption> data;
+
+    // Index from type name to the keys of the values assignable to that type, built on first use by getDataOfType()
+    private transient Map<String, Set<String>> typeIndex;
+
+    private static final class ResolvedType {
+        private final Class<?> type;
+        private final Set<String> assignableTo;
+
+        private ResolvedType(String typeName, Class<?> type) {
+            this.type = type;
+            this.assignableTo = type != null ? getAssignableTypeNames(type) : Collections.singleton(typeName);
+        }
+    }
 
     /**
      * Create a new instance with an empty collection of data.
      */
     public AdditionalData() {
-        data = new ConcurrentHashMap<>();
+        data = new CompactMap<>();
     }
 
     /**
@@ -56,7 +82,7 @@ public class AdditionalData implements Jsonable {
      * @param data The data to use as a base
      */
     public AdditionalData(Map<String, JsonOption> data) {
-        this.data = new ConcurrentHashMap<>(data);
+        this.data = new CompactMap<>(data);
     }
 
     /**
@@ -65,7 +91,21 @@ public class AdditionalData implements Jsonable {
      * @param copyFrom The data to copy from
      */
     public AdditionalData(AdditionalData copyFrom) {
-        this.data = new ConcurrentHashMap<>(copyFrom.data);
+        this.data = new CompactMap<>(getShareableData(copyFrom));
+    }
+
+    /**
+     * Set whether the values in additional data received from other applications are only decoded when first read.
+     *
+     * This saves decoding values that are never read, such as the parts of a request a flow service is not interested in. Values that
+     * have not been read are also passed on without being decoded and encoded again when sending the data on.
+     *
+     * This applies to all additional data in this process, and only to data received in the binary wire format.
+     *
+     * @param lazyDecoding True to decode values when first read, false to decode all values on receipt (the default)
+     */
+    public static void setLazyDecoding(boolean lazyDecoding) {
+        WireFormat.setLazyOptionDecoding(lazyDecoding);
     }
 
     /**
@@ -94,10 +134,10 @@ public class AdditionalData implements Jsonable {
         if (values != null) {
             if (values.length == 1) {
                 if (values[0] != null) {
-                    data.put(key, new JsonOption(values[0]));
+                    putOption(key, new JsonOption(values[0]));
                 }
             } else {
-                data.put(key, new JsonOption(values));
+                putOption(key, new JsonOption(values));
             }
         }
     }
@@ -114,7 +154,7 @@ public class AdditionalData implements Jsonable {
      */
     public <T> void addDataWithType(String key, T value, Class<?> type) {
         if (value != null && type != null) {
-            data.put(key, new JsonOption(value, type.getName()));
+            putOption(key, new JsonOption(value, type.getName()));
         }
     }
 
@@ -123,13 +163,28 @@ public class AdditionalData implements Jsonable {
      *
      * Depending on the allowOverwrite parameter, existing values may or may not get overwritten.
      *
+     * The value objects are not copied, so they are shared by both models and changes to a mutable value object are seen via both. Values
+     * of the provided model that have not been decoded yet (see {@link #setLazyDecoding(boolean)}) are decoded separately by each model.
+     * Copying into an empty model takes constant time if all values have been decoded, as it then shares the storage of the provided model
+     * as a whole.
+     *
      * @param additionalData The data to copy from.
      * @param allowOverwrite Whether or not to allow overwriting existing values
      */
     public void addData(AdditionalData additionalData, boolean allowOverwrite) {
-        for (String key : additionalData.getKeys()) {
-            if (allowOverwrite || !hasData(key)) {
-                addData(key, additionalData.getValue(key));
+        Map<String, JsonOption> source = getShareableData(additionalData);
+        if (allowOverwrite) {
+            synchronized (this) {
+                data.putAll(source);
+                typeIndex = null;
+            }
+        } else {
+            synchronized (this) {
+                for (Map.Entry<String, JsonOption> entry : source.entrySet()) {
+                    if (data.putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+                        updateTypeIndex(entry.getKey(), null, entry.getValue());
+                    }
+                }
             }
         }
     }
@@ -139,8 +194,11 @@ public class AdditionalData implements Jsonable {
      *
      * @param key The data key
      */
-    public void removeData(String key) {
-        data.remove(key);
+    public synchronized void removeData(String key) {
+        JsonOption removed = data.remove(key);
+        if (removed != null) {
+            updateTypeIndex(key, removed, null);
+        }
     }
 
     /**
@@ -179,7 +237,10 @@ public class AdditionalData implements Jsonable {
      * Clear all data from the collection.
      */
     public void clearData() {
-        data.clear();
+        synchronized (this) {
+            data.clear();
+            typeIndex = null;
+        }
     }
 
     /**
@@ -227,10 +288,9 @@ public class AdditionalData implements Jsonable {
     public Object getValue(String key, Object... defaultValue) {
         JsonOption option = data.get(key);
         if (option != null) {
-            try {
-                return Class.forName(option.getType()).cast(option.getValue());
-            } catch (ClassNotFoundException e) {
-                //... fall thru
+            Class<?> type = resolveType(option.getType());
+            if (type != null) {
+                return type.cast(option.getValue());
             }
         }
         if (defaultValue.length > 0) {
@@ -249,19 +309,20 @@ public class AdditionalData implements Jsonable {
     @NonNull
     public <T> Map<String, T> getDataOfType(Class<T> desiredType) {
         Map<String, T> map = new HashMap<>();
-        for (String key : data.keySet()) {
-            String classType = data.get(key).getType();
-            // First see if we can detect it as an assignable type, meaning we can return subclasses of a super type as well
-            try {
-                Class<?> entryClass = Class.forName(classType);
-                if (desiredType.isAssignableFrom(entryClass)) {
-                    map.put(key, getValueByType(desiredType, data.get(key).getValue()));
-                }
-            } catch (ClassNotFoundException e) {
-                // Fallback to dealing with direct string comparison
-                if (classType.equals(desiredType.getName())) {
-                    map.put(key, getValue(key, desiredType));
-                }
+        String typeName = desiredType.getName();
+        for (String key : getKeysOfType(typeName)) {
+            JsonOption option = data.get(key);
+            ResolvedType resolvedType = option != null ? resolve(option.getType()) : null;
+            // Keys removed via getKeys() are not removed from the index
+            if (resolvedType == null || !resolvedType.assignableTo.contains(typeName)) {
+                continue;
+            }
+            // Values of known types are indexed under all their super types, meaning we can return subclasses of a super type as well
+            if (resolvedType.type != null) {
+                map.put(key, getValueByType(desiredType, option.getValue()));
+            } else {
+                // Values of unknown types are only indexed under their type name
+                map.put(key, getValue(key, desiredType));
             }
         }
         return map;
@@ -302,7 +363,7 @@ public class AdditionalData implements Jsonable {
             }
 
             // Else, let's see if expected is an array of the type stored and return it as array
-            else if (desiredType.isArray() && desiredType.getName().equals("[L" + option.getType() + ";")) {
+            else if (isArrayOf(desiredType, option.getType())) {
                 returnValue = getValueAsArray(desiredType, option);
             }
 
@@ -363,6 +424,164 @@ public class AdditionalData implements Jsonable {
         return getValue(key, Boolean.class, defaultValue);
     }
 
+    /**
+     * Convenience method to retrieve a long based value, without boxing the default value.
+     *
+     * @param key          The data key
+     * @param defaultValue The value to return if there is no long value associated with the key
+     * @return The value associated with the key if it exists, or the default value
+     */
+    public long getLongValue(String key, long defaultValue) {
+        Object value = getValueOfExactType(key, Long.class);
+        return value != null ? (Long) value : defaultValue;
+    }
+
+    /**
+     * Convenience method to retrieve an integer based value, without boxing the default value.
+     *
+     * @param key          The data key
+     * @param defaultValue The value to return if there is no integer value associated with the key
+     * @return The value associated with the key if it exists, or the default value
+     */
+    public int getIntValue(String key, int defaultValue) {
+        Object value = getValueOfExactType(key, Integer.class);
+        return value != null ? (Integer) value : defaultValue;
+    }
+
+    /**
+     * Convenience method to retrieve a boolean based value, without boxing the default value.
+     *
+     * Unlike {@link #getBooleanValue(String, Boolean...)}, the default value is also returned if the value is not a boolean.
+     *
+     * @param key          The data key
+     * @param defaultValue The value to return if there is no boolean value associated with the key
+     * @return The value associated with the key if it exists, or the default value
+     */
+    public boolean getBoolValue(String key, boolean defaultValue) {
+        Object value = getValueOfExactType(key, Boolean.class);
+        return value != null ? (Boolean) value : defaultValue;
+    }
+
+    private Object getValueOfExactType(String key, Class<?> type) {
+        JsonOption option = data.get(key);
+        if (option != null && type.getName().equals(option.getType()) && type.isInstance(option.getValue())) {
+            return option.getValue();
+        }
+        return null;
+    }
+
+    // Options that have not been decoded are copied rather than shared, so that each model decodes its own instance of the value
+    private static Map<String, JsonOption> getShareableData(AdditionalData additionalData) {
+        CompactMap<String, JsonOption> shareable = null;
+        for (Map.Entry<String, JsonOption> entry : additionalData.data.entrySet()) {
+            JsonOption option = WireFormat.shareOption(entry.getValue());
+            if (option != entry.getValue()) {
+                if (shareable == null) {
+                    shareable = new CompactMap<>(additionalData.data);
+                }
+                shareable.put(entry.getKey(), option);
+            }
+        }
+        return shareable != null ? shareable : additionalData.data;
+    }
+
+    private synchronized void putOption(String key, JsonOption option) {
+        JsonOption previous = data.put(key, option);
+        updateTypeIndex(key, previous, option);
+    }
+
+    // Must be called holding the lock of this instance, along with the change to the data, so that the index matches the data
+    private void updateTypeIndex(String key, JsonOption removed, JsonOption added) {
+        if (typeIndex == null) {
+            return;
+        }
+        if (removed != null) {
+            for (String typeName : resolve(removed.getType()).assignableTo) {
+                Set<String> keys = typeIndex.get(typeName);
+                if (keys != null) {
+                    keys.remove(key);
+                    if (keys.isEmpty()) {
+                        typeIndex.remove(typeName);
+                    }
+                }
+            }
+        }
+        if (added != null) {
+            indexOption(key, added);
+        }
+    }
+
+    private void indexOption(String key, JsonOption option) {
+        for (String typeName : resolve(option.getType()).assignableTo) {
+            Set<String> keys = typeIndex.get(typeName);
+            if (keys == null) {
+                keys = new HashSet<>();
+                typeIndex.put(typeName, keys);
+            }
+            keys.add(key);
+        }
+    }
+
+    private synchronized List<String> getKeysOfType(String typeName) {
+        if (typeIndex == null) {
+            typeIndex = new HashMap<>();
+            for (Map.Entry<String, JsonOption> entry : data.entrySet()) {
+                indexOption(entry.getKey(), entry.getValue());
+            }
+        }
+        Set<String> keys = typeIndex.get(typeName);
+        return keys != null ? new ArrayList<>(keys) : Collections.<String>emptyList();
+    }
+
+    private static Set<String> getAssignableTypeNames(Class<?> type) {
+        Set<String> typeNames = new LinkedHashSet<>();
+        addAssignableTypeNames(type, typeNames);
+        typeNames.add(Object.class.getName());
+        return Collections.unmodifiableSet(typeNames);
+    }
+
+    private static void addAssignableTypeNames(Class<?> type, Set<String> typeNames) {
+        if (type == null || !typeNames.add(type.getName())) {
+            return;
+        }
+        // Arrays of reference types are also assignable to arrays of the super types of their component type
+        if (type.isArray() && !type.getComponentType().isPrimitive()) {
+            for (String componentTypeName : getAssignableTypeNames(type.getComponentType())) {
+                typeNames.add(componentTypeName.startsWith("[") ? "[" + componentTypeName : "[L" + componentTypeName + ";");
+            }
+        }
+        addAssignableTypeNames(type.getSuperclass(), typeNames);
+        for (Class<?> interfaceType : type.getInterfaces()) {
+            addAssignableTypeNames(interfaceType, typeNames);
+        }
+    }
+
+    private static Class<?> resolveType(String typeName) {
+        return resolve(typeName).type;
+    }
+
+    private static ResolvedType resolve(String typeName) {
+        ResolvedType resolvedType = RESOLVED_TYPES.get(typeName);
+        if (resolvedType == null) {
+            Class<?> type;
+            try {
+                type = Class.forName(typeName);
+            } catch (ClassNotFoundException e) {
+                type = null;
+            }
+            resolvedType = new ResolvedType(typeName, type);
+            if (RESOLVED_TYPES.size() < MAX_RESOLVED_TYPES) {
+                RESOLVED_TYPES.put(typeName, resolvedType);
+            }
+        }
+        return resolvedType;
+    }
+
+    private static boolean isArrayOf(Class<?> desiredType, String componentTypeName) {
+        Class<?> componentType = desiredType.getComponentType();
+        return componentType != null && !componentType.isPrimitive() && componentType.getName().equals(componentTypeName);
+    }
+
     private <T> T getValueByType(Class<T> desiredType, Object value) {
         try {
             return desiredType.cast(value);
@@ -403,6 +622,9 @@ public class AdditionalData implements Jsonable {
         }
 
         AdditionalData additionalData1 = (AdditionalData) o;
+        // Values that are decoded on first read must be decoded before they can be compared
+        additionalData1.decodeValues();
+        decodeValues();
 
         return data != null ? data.equals(additionalData1.data) : additionalData1.data == null;
 
@@ -413,6 +635,12 @@ public class AdditionalData implements Jsonable {
         return data != null ? data.hashCode() : 0;
     }
 
+    private void decodeValues() {
+        for (JsonOption option : data.values()) {
+            option.getValue();
+        }
+    }
+
     @Override
     public String toString() {
         StringBuilder stringBuilder = new StringBuilder();
@@ -436,6 +664,6 @@ public class AdditionalData implements Jsonable {
     }
 
     public static AdditionalData fromJson(String json) {
-        return JsonConverter.deserialize(json, AdditionalData.class);
+        return WireFormat.deserialize(json, AdditionalData.class);
     }
 }
@@ -17,23 +17,57 @@ package com.aevi.sdk.flow.model;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import com.aevi.sdk.flow.codec.WireFormat;
+import com.aevi.sdk.flow.util.PeerCapabilities;
 import com.aevi.util.json.JsonConverter;
 import com.aevi.util.json.Jsonable;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Map;
 
 import static com.aevi.sdk.flow.constants.ResponseMechanisms.MESSENGER_CONNECTION;
 
 /**
  * Application message data for use between FPS and applications it calls.
+ *
+ * Messages can be serialised in two forms. The legacy form carries the message data and internal data as JSON strings embedded in the
+ * message JSON, which means they are escaped and parsed once more than required. The nested form (see {@link #toJson(boolean)}) writes them
+ * as nested JSON objects instead, and must only be used towards peers known to support it. Peers that support the binary codec are sent
+ * the message in the binary form instead, see {@link WireFormat}. {@link #fromJson(String)} reads all forms.
  */
 public class AppMessage implements Jsonable {
 
     public static final String EMPTY_DATA = "{}";
 
+    /**
+     * Wire feature for reading messages with nested payloads, advertised in the {@link WireFormat#INTERNAL_DATA_KEY} entry of the internal
+     * data.
+     */
+    public static final String NESTED_ENVELOPE_FEATURE = "nested1";
+
+    private static final String FIELD_MESSAGE_TYPE = "messageType";
+    private static final String FIELD_MESSAGE_DATA = "messageData";
+    private static final String FIELD_RESPONSE_MECHANISM = "responseMechanism";
+    private static final String FIELD_INTERNAL_DATA = "internalData";
+    private static final String FIELD_SENDER_API_VERSION = "senderApiVersion";
+    private static final String FIELD_ADDITIONAL_DATA = "additionalData";
+
     private final String messageType; // See AppMessageTypes
     private final String messageData; // The message data in JSON
     private String responseMechanism; // See ResponseMechanisms
     private String internalData; // Data that may be useful for internal use, such as API version, etc
 
+    // Decoded lazily from the internal data JSON, at most once per message
+    private transient InternalData decodedInternalData;
+    private transient Map<String, String> internalDataFields;
+    private transient Map<String, String> additionalInternalDataFields;
+
     public AppMessage(String messageType, String messageData, InternalData internalData) {
         this.messageType = messageType != null ? messageType : "N/A";
         this.messageData = messageData != null ? messageData : EMPTY_DATA;
@@ -53,6 +87,13 @@ public class AppMessage implements Jsonable {
         this(messageType, null, null);
     }
 
+    private AppMessage(String messageType, String messageData, String responseMechanism, String internalData) {
+        this.messageType = messageType != null ? messageType : "N/A";
+        this.messageData = messageData != null ? messageData : EMPTY_DATA;
+        this.responseMechanism = responseMechanism;
+        this.internalData = internalData;
+    }
+
     public void setResponseMechanism(String responseMechanism) {
         this.responseMechanism = responseMechanism;
     }
@@ -83,6 +124,9 @@ public class AppMessage implements Jsonable {
 
     private void setInternalData(InternalData internalData) {
         this.internalData = internalData != null ? internalData.toJson() : null;
+        decodedInternalData = null;
+        internalDataFields = null;
+        additionalInternalDataFields = null;
     }
 
     /**
@@ -97,11 +141,62 @@ public class AppMessage implements Jsonable {
     /**
      * Get the internal data for this message.
      *
+     * The internal data is decoded on first access and the same instance is returned thereafter.
+     *
      * @return Internal data or null
      */
     @Nullable
     public InternalData getInternalData() {
-        return internalData != null ? InternalData.fromJson(internalData) : null;
+        if (decodedInternalData == null && internalData != null) {
+            decodedInternalData = InternalData.fromJson(internalData);
+        }
+        return decodedInternalData;
+    }
+
+    /**
+     * Get the API version of the sender of this message, without decoding the internal data in full.
+     *
+     * @return The sender API version, or null if the message has no internal data
+     */
+    @Nullable
+    public String getSenderApiVersion() {
+        if (decodedInternalData != null) {
+            return decodedInternalData.getSenderApiVersion();
+        }
+        Map<String, String> fields = getInternalDataFields();
+        return fields != null ? fields.get(FIELD_SENDER_API_VERSION) : null;
+    }
+
+    /**
+     * Get a value of the additional internal data of this message, such as the flow stage, without decoding the internal data in full.
+     *
+     * @param key The key of the value, see {@link com.aevi.sdk.flow.constants.InternalDataKeys}
+     * @return The value, or null if not set
+     */
+    @Nullable
+    public String getInternalDataValue(String key) {
+        if (decodedInternalData != null) {
+            Map<String, String> additionalData = decodedInternalData.getAdditionalData();
+            return additionalData != null ? additionalData.get(key) : null;
+        }
+        if (additionalInternalDataFields == null) {
+            Map<String, String> fields = getInternalDataFields();
+            String additionalData = fields != null ? fields.get(FIELD_ADDITIONAL_DATA) : null;
+            additionalInternalDataFields = additionalData != null ? EnvelopeReader.readFields(additionalData) :
+                    Collections.<String, String>emptyMap();
+        }
+        return additionalInternalDataFields.get(key);
+    }
+
+    String getInternalDataJson() {
+        return internalData;
+    }
+
+    private Map<String, String> getInternalDataFields() {
+        if (internalDataFields == null && internalData != null) {
+            internalDataFields = EnvelopeReader.readFields(internalData);
+        }
+        return internalDataFields;
     }
 
     @Override
@@ -109,7 +204,142 @@ public class AppMessage implements Jsonable {
         return JsonConverter.serialize(this);
     }
 
+    /**
+     * Serialise this message, optionally with the message data and internal data written as nested JSON rather than as strings.
+     *
+     * The nested form is written in one pass without re-escaping the payload, but can only be read by peers that have advertised
+     * {@link #NESTED_ENVELOPE_FEATURE}.
+     *
+     * @param nestedPayloads True to write the nested form, false for the legacy form
+     * @return The message JSON
+     */
+    public String toJson(boolean nestedPayloads) {
+        if (!nestedPayloads) {
+            return toJson();
+        }
+        int payloadLength = messageData.length() + (internalData != null ? internalData.length() : 0);
+        StringWriter stringWriter = new StringWriter(payloadLength + 128);
+        try {
+            JsonWriter writer = new JsonWriter(stringWriter);
+            writer.beginObject();
+            writer.name(FIELD_MESSAGE_TYPE).value(messageType);
+            writer.name(FIELD_MESSAGE_DATA);
+            writePayload(writer, messageData);
+            if (responseMechanism != null) {
+                writer.name(FIELD_RESPONSE_MECHANISM).value(responseMechanism);
+            }
+            if (internalData != null) {
+                writer.name(FIELD_INTERNAL_DATA);
+                writePayload(writer, internalData);
+            }
+            writer.endObject();
+            writer.flush();
+        } catch (IOException e) {
+            // Can not happen when writing to a string
+            throw new IllegalStateException("Failed to serialise message", e);
+        }
+        return stringWriter.toString();
+    }
+
+    /**
+     * Serialise this message in the most compact form supported by the receiving peer.
+     *
+     * @param peerInternalData The internal data last received from the peer, or null if unknown
+     * @return The serialised message
+     */
+    public String toWire(InternalData peerInternalData) {
+        return toWire(peerInternalData, true);
+    }
+
+    /**
+     * Serialise this message in the most compact form supported by the receiving peer and suited to the channel it is sent over.
+     *
+     * @param peerInternalData The internal data last received from the peer, or null if unknown
+     * @param binaryChannel    True if the channel carries strings as UTF-16 (i.e. Binder), which the binary form is only used over
+     * @return The serialised message
+     */
+    public String toWire(InternalData peerInternalData, boolean binaryChannel) {
+        if (binaryChannel && PeerCapabilities.supportsCodec(peerInternalData, WireFormat.CODEC_BINARY)) {
+            return WireFormat.serialize(this, true);
+        }
+        return toJson(PeerCapabilities.supportsNestedEnvelope(peerInternalData));
+    }
+
+    private static void writePayload(JsonWriter writer, String payload) throws IOException {
+        if (isJsonStructure(payload)) {
+            writer.jsonValue(payload);
+        } else {
+            writer.value(payload);
+        }
+    }
+
+    /*
+    Only payloads that are a well formed JSON object or array are nested, so that a string payload that merely looks like JSON can not
+    corrupt the envelope. Surrounding whitespace would not survive the round trip, so such payloads are written as strings too
+     */
+    private static boolean isJsonStructure(String data) {
+        if (data.isEmpty()) {
+            return false;
+        }
+        char first = data.charAt(0);
+        char last = data.charAt(data.length() - 1);
+        if (!(first == '{' && last == '}') && !(first == '[' && last == ']')) {
+            return false;
+        }
+        JsonReader reader = new JsonReader(new StringReader(data));
+        try {
+            int depth = 0;
+            do {
+                switch (reader.peek()) {
+                    case BEGIN_OBJECT:
+                        reader.beginObject();
+                        depth++;
+                        break;
+                    case END_OBJECT:
+                        reader.endObject();
+                        depth--;
+                        break;
+                    case BEGIN_ARRAY:
+                        reader.beginArray();
+                        depth++;
+                        break;
+                    case END_ARRAY:
+                        reader.endArray();
+                        depth--;
+                        break;
+                    case NAME:
+                        reader.nextName();
+                        break;
+                    case BOOLEAN:
+                        reader.nextBoolean();
+                        break;
+                    case NULL:
+                        reader.nextNull();
+                        break;
+                    default:
+                        // Reading strings and numbers as strings validates their escapes and syntax
+                        reader.nextString();
+                        break;
+                }
+            } while (depth > 0);
+            return reader.peek() == JsonToken.END_DOCUMENT;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read a message in the legacy, nested or binary form.
+     *
+     * @param json The message JSON
+     * @return The message
+     */
     public static AppMessage fromJson(String json) {
-        return JsonConverter.deserialize(json, AppMessage.class);
+        if (WireFormat.isBinary(json)) {
+            return WireFormat.deserialize(json, AppMessage.class);
+        }
+        Map<String, String> fields = EnvelopeReader.readFields(json);
+        return new AppMessage(fields.get(FIELD_MESSAGE_TYPE), fields.get(FIELD_MESSAGE_DATA),
+                              fields.get(FIELD_RESPONSE_MECHANISM), fields.get(FIELD_INTERNAL_DATA));
     }
 }
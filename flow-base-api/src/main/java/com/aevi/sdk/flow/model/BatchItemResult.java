@@ -0,0 +1,79 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.flow.model;
+
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * The outcome of initiating a single item of a batch, such as a request or payment.
+ *
+ * An item is either accepted by the processing service, or has failed with an error. Note that the final responses to accepted items are
+ * delivered to the response listener services as usual.
+ *
+ * @param <T> The type of the item
+ */
+public class BatchItemResult<T> {
+
+    private final int index;
+    private final T item;
+    private final Throwable error;
+
+    public BatchItemResult(int index, T item, Throwable error) {
+        this.index = index;
+        this.item = item;
+        this.error = error;
+    }
+
+    /**
+     * @return The position of the item in the batch
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return The item
+     */
+    @NonNull
+    public T getItem() {
+        return item;
+    }
+
+    /**
+     * @return True if the item was accepted by the processing service
+     */
+    public boolean isAccepted() {
+        return error == null;
+    }
+
+    /**
+     * @return The reason the item was not accepted, typically a {@link FlowException}, or null if it was accepted
+     */
+    @Nullable
+    public Throwable getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchItemResult{" +
+                "index=" + index +
+                ", item=" + item +
+                ", error=" + error +
+                '}';
+    }
+}
@@ -0,0 +1,784 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.flow.model;
+
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread safe map for the collections of data in the models, that uses as little memory as possible and is cheap to copy.
+ *
+ * The storage is persistent - it is never modified once published, and every change publishes a new version of it that shares all unchanged
+ * parts with the previous version. An empty map holds no storage of its own, up to {@link #MAX_ARRAY_SIZE} entries are kept in a single array
+ * sorted by key, and larger maps in a hash array mapped trie, where a change only copies the path to the changed entry.
+ *
+ * This makes copying a map O(1), as the copy shares the storage of the original, and reads and iteration lock free. Iterators see the
+ * entries as they were when created, and never throw a {@link java.util.ConcurrentModificationException}. As with
+ * {@link java.util.concurrent.ConcurrentHashMap}, null keys and values are not supported.
+ *
+ * Adding all the entries of another map to an empty map builds the storage in one go, rather than publishing a version per entry. Fields
+ * holding a compact map should be annotated with {@code @JsonAdapter(CompactMap.JsonAdapterFactory.class)}, so that maps read from JSON are
+ * built that way too, and null values in the JSON are skipped.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+final class CompactMap<K extends Comparable<K>, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+
+    static final int MAX_ARRAY_SIZE = 8;
+
+    private static final Object[] EMPTY = new Object[0];
+    private static final int BITS_PER_LEVEL = 5;
+    private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+    private static final int MAX_DEPTH = 8; // Seven levels to consume the 32 bit hash, plus a collision node
+
+    // Either an array of alternating keys and values sorted by key, or a trie
+    private volatile Object storage = EMPTY;
+
+    CompactMap() {
+    }
+
+    CompactMap(Map<? extends K, ? extends V> copyFrom) {
+        putAll(copyFrom);
+    }
+
+    @Override
+    public int size() {
+        Object current = storage;
+        return current instanceof Object[] ? ((Object[]) current).length / 2 : ((Trie) current).size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (key == null) {
+            return null;
+        }
+        Object current = storage;
+        if (current instanceof Object[]) {
+            Object[] entries = (Object[]) current;
+            int index = indexOf(entries, key);
+            return index >= 0 ? (V) entries[index + 1] : null;
+        }
+        return (V) ((Trie) current).root.get(0, key.hashCode(), key);
+    }
+
+    @Override
+    public synchronized V put(K key, V value) {
+        checkNotNull(key, value);
+        V previous = get(key);
+        storage = with(storage, key, value);
+        return previous;
+    }
+
+    @Override
+    public synchronized void putAll(Map<? extends K, ? extends V> map) {
+        Object current = storage;
+        if (current == EMPTY && map instanceof CompactMap) {
+            // Share the storage of the other map
+            storage = ((CompactMap<?, ?>) map).storage;
+            return;
+        }
+        if (current == EMPTY) {
+            storage = createStorage(map);
+            return;
+        }
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            checkNotNull(entry.getKey(), entry.getValue());
+            current = with(current, entry.getKey(), entry.getValue());
+        }
+        storage = current;
+    }
+
+    @Override
+    public synchronized V remove(Object key) {
+        V previous = get(key);
+        if (previous != null) {
+            storage = without(storage, key);
+        }
+        return previous;
+    }
+
+    @Override
+    public synchronized void clear() {
+        storage = EMPTY;
+    }
+
+    @Override
+    public synchronized V putIfAbsent(K key, V value) {
+        checkNotNull(key, value);
+        V previous = get(key);
+        if (previous == null) {
+            storage = with(storage, key, value);
+        }
+        return previous;
+    }
+
+    @Override
+    public synchronized boolean remove(Object key, Object value) {
+        V previous = get(key);
+        if (previous != null && previous.equals(value)) {
+            storage = without(storage, key);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized boolean replace(K key, V oldValue, V newValue) {
+        checkNotNull(key, newValue);
+        V previous = get(key);
+        if (previous != null && previous.equals(oldValue)) {
+            storage = with(storage, key, newValue);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized V replace(K key, V value) {
+        checkNotNull(key, value);
+        V previous = get(key);
+        if (previous != null) {
+            storage = with(storage, key, value);
+        }
+        return previous;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new EntrySet();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object createStorage(Map<?, ?> map) {
+        Object[] entries = new Object[map.size() * 2];
+        int count = 0;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            checkNotNull(entry.getKey(), entry.getValue());
+            if (count == entries.length) {
+                entries = Arrays.copyOf(entries, count + 16); // The map was added to while being copied
+            }
+            entries[count++] = entry.getKey();
+            entries[count++] = entry.getValue();
+        }
+        if (count != entries.length) {
+            entries = Arrays.copyOf(entries, count);
+        }
+        if (count == 0) {
+            return EMPTY;
+        }
+        if (count / 2 > MAX_ARRAY_SIZE) {
+            return new Trie(BitmapNode.create(0, entries), count / 2);
+        }
+        // Insertion sort of the few pairs by key
+        for (int i = 2; i < count; i += 2) {
+            Object key = entries[i];
+            Object value = entries[i + 1];
+            int j = i - 2;
+            while (j >= 0 && ((Comparable<Object>) entries[j]).compareTo(key) > 0) {
+                entries[j + 2] = entries[j];
+                entries[j + 3] = entries[j + 1];
+                j -= 2;
+            }
+            entries[j + 2] = key;
+            entries[j + 3] = value;
+        }
+        return entries;
+    }
+
+    private static Object with(Object storage, Object key, Object value) {
+        if (storage instanceof Object[]) {
+            Object[] entries = (Object[]) storage;
+            int index = indexOf(entries, key);
+            if (index >= 0) {
+                if (entries[index + 1] == value) {
+                    return storage;
+                }
+                Object[] updated = entries.clone();
+                updated[index + 1] = value;
+                return updated;
+            }
+            if (entries.length / 2 < MAX_ARRAY_SIZE) {
+                int insertAt = -(index + 1);
+                Object[] updated = new Object[entries.length + 2];
+                System.arraycopy(entries, 0, updated, 0, insertAt);
+                updated[insertAt] = key;
+                updated[insertAt + 1] = value;
+                System.arraycopy(entries, insertAt, updated, insertAt + 2, entries.length - insertAt);
+                return updated;
+            }
+            Trie trie = new Trie(BitmapNode.EMPTY, 0);
+            for (int i = 0; i < entries.length; i += 2) {
+                trie = trie.with(entries[i], entries[i + 1]);
+            }
+            return trie.with(key, value);
+        }
+        return ((Trie) storage).with(key, value);
+    }
+
+    private static Object without(Object storage, Object key) {
+        if (storage instanceof Object[]) {
+            Object[] entries = (Object[]) storage;
+            int index = indexOf(entries, key);
+            if (index < 0) {
+                return storage;
+            }
+            Object[] updated = new Object[entries.length - 2];
+            System.arraycopy(entries, 0, updated, 0, index);
+            System.arraycopy(entries, index + 2, updated, index, entries.length - index - 2);
+            return updated;
+        }
+        Trie trie = ((Trie) storage).without(key);
+        if (trie.size > MAX_ARRAY_SIZE) {
+            return trie;
+        }
+        Object[] keys = new Object[trie.size];
+        int count = 0;
+        for (TrieIterator iterator = new TrieIterator(trie.root); iterator.hasNext(); ) {
+            keys[count++] = iterator.nextKey();
+        }
+        Arrays.sort(keys);
+        Object[] updated = new Object[keys.length * 2];
+        for (int i = 0; i < keys.length; i++) {
+            updated[i * 2] = keys[i];
+            updated[i * 2 + 1] = trie.root.get(0, keys[i].hashCode(), keys[i]);
+        }
+        return updated;
+    }
+
+    /**
+     * Binary search for the key.
+     *
+     * @return The index of the key if found, or (-(insertion index) - 1) if not
+     */
+    @SuppressWarnings("unchecked")
+    private static int indexOf(Object[] entries, Object key) {
+        int low = 0;
+        int high = entries.length / 2 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison;
+            try {
+                comparison = ((Comparable<Object>) entries[mid * 2]).compareTo(key);
+            } catch (ClassCastException e) {
+                return -1;
+            }
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return mid * 2;
+            }
+        }
+        return -(low * 2) - 1;
+    }
+
+    private static void checkNotNull(Object key, Object value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+    }
+
+    private static final class Trie {
+
+        final Node root;
+        final int size;
+
+        Trie(Node root, int size) {
+            this.root = root;
+            this.size = size;
+        }
+
+        Trie with(Object key, Object value) {
+            boolean[] added = new boolean[1];
+            Node updated = root.with(0, key.hashCode(), key, value, added);
+            return updated == root ? this : new Trie(updated, added[0] ? size + 1 : size);
+        }
+
+        Trie without(Object key) {
+            Node updated = root.without(0, key.hashCode(), key);
+            if (updated == root) {
+                return this;
+            }
+            return new Trie(updated != null ? updated : BitmapNode.EMPTY, size - 1);
+        }
+    }
+
+    /**
+     * Trie node, holding an array of alternating keys and values. A null key means the value is a child node.
+     */
+    private abstract static class Node {
+
+        final Object[] array;
+
+        Node(Object[] array) {
+            this.array = array;
+        }
+
+        abstract Object get(int shift, int hash, Object key);
+
+        abstract Node with(int shift, int hash, Object key, Object value, boolean[] added);
+
+        /**
+         * @return The updated node, the same node if the key was not found, or null if the node is now empty
+         */
+        abstract Node without(int shift, int hash, Object key);
+
+        static Object[] replace(Object[] array, int index, Object value) {
+            Object[] updated = array.clone();
+            updated[index] = value;
+            return updated;
+        }
+
+        static Object[] insertPair(Object[] array, int index, Object key, Object value) {
+            Object[] updated = new Object[array.length + 2];
+            System.arraycopy(array, 0, updated, 0, index);
+            updated[index] = key;
+            updated[index + 1] = value;
+            System.arraycopy(array, index, updated, index + 2, array.length - index);
+            return updated;
+        }
+
+        static Object[] removePair(Object[] array, int index) {
+            Object[] updated = new Object[array.length - 2];
+            System.arraycopy(array, 0, updated, 0, index);
+            System.arraycopy(array, index + 2, updated, index, array.length - index - 2);
+            return updated;
+        }
+    }
+
+    private static final class BitmapNode extends Node {
+
+        static final BitmapNode EMPTY = new BitmapNode(0, CompactMap.EMPTY);
+
+        private final int bitmap;
+
+        BitmapNode(int bitmap, Object[] array) {
+            super(array);
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        Object get(int shift, int hash, Object key) {
+            int bit = bit(shift, hash);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int index = index(bit);
+            Object entryKey = array[index];
+            if (entryKey == null) {
+                return ((Node) array[index + 1]).get(shift + BITS_PER_LEVEL, hash, key);
+            }
+            return entryKey.equals(key) ? array[index + 1] : null;
+        }
+
+        @Override
+        Node with(int shift, int hash, Object key, Object value, boolean[] added) {
+            int bit = bit(shift, hash);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, insertPair(array, index, key, value));
+            }
+            Object entryKey = array[index];
+            Object entryValue = array[index + 1];
+            if (entryKey == null) {
+                Node child = (Node) entryValue;
+                Node updated = child.with(shift + BITS_PER_LEVEL, hash, key, value, added);
+                return updated == child ? this : new BitmapNode(bitmap, replace(array, index + 1, updated));
+            }
+            if (entryKey.equals(key)) {
+                return entryValue == value ? this : new BitmapNode(bitmap, replace(array, index + 1, value));
+            }
+            added[0] = true;
+            Node child = createNode(shift + BITS_PER_LEVEL, entryKey, entryValue, hash, key, value);
+            Object[] updated = replace(array, index, null);
+            updated[index + 1] = child;
+            return new BitmapNode(bitmap, updated);
+        }
+
+        @Override
+        Node without(int shift, int hash, Object key) {
+            int bit = bit(shift, hash);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = index(bit);
+            Object entryKey = array[index];
+            if (entryKey == null) {
+                Node child = (Node) array[index + 1];
+                Node updated = child.without(shift + BITS_PER_LEVEL, hash, key);
+                if (updated == child) {
+                    return this;
+                } else if (updated != null) {
+                    return new BitmapNode(bitmap, replace(array, index + 1, updated));
+                }
+            } else if (!entryKey.equals(key)) {
+                return this;
+            }
+            return bitmap == bit ? null : new BitmapNode(bitmap & ~bit, removePair(array, index));
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1)) * 2;
+        }
+
+        private static int bit(int shift, int hash) {
+            return 1 << ((hash >>> shift) & LEVEL_MASK);
+        }
+
+        /**
+         * Create the node for the given alternating keys and values in one go, as repeatedly adding them would copy the path to each.
+         */
+        static BitmapNode create(int shift, Object[] entries) {
+            Object[][] slots = new Object[1 << BITS_PER_LEVEL][];
+            int[] slotSizes = new int[slots.length];
+            int bitmap = 0;
+            for (int i = 0; i < entries.length; i += 2) {
+                int slot = (entries[i].hashCode() >>> shift) & LEVEL_MASK;
+                if (slots[slot] == null) {
+                    slots[slot] = new Object[4];
+                    bitmap |= 1 << slot;
+                } else if (slotSizes[slot] == slots[slot].length) {
+                    slots[slot] = Arrays.copyOf(slots[slot], slotSizes[slot] * 2);
+                }
+                slots[slot][slotSizes[slot]++] = entries[i];
+                slots[slot][slotSizes[slot]++] = entries[i + 1];
+            }
+            Object[] array = new Object[Integer.bitCount(bitmap) * 2];
+            int index = 0;
+            for (int slot = 0; slot < slots.length; slot++) {
+                Object[] slotEntries = slots[slot];
+                if (slotEntries == null) {
+                    continue;
+                }
+                if (slotSizes[slot] == 2) {
+                    array[index] = slotEntries[0];
+                    array[index + 1] = slotEntries[1];
+                } else {
+                    slotEntries = Arrays.copyOf(slotEntries, slotSizes[slot]);
+                    array[index + 1] = haveSameHash(slotEntries) ? new CollisionNode(slotEntries[0].hashCode(), slotEntries)
+                            : create(shift + BITS_PER_LEVEL, slotEntries);
+                }
+                index += 2;
+            }
+            return new BitmapNode(bitmap, array);
+        }
+
+        private static boolean haveSameHash(Object[] entries) {
+            int hash = entries[0].hashCode();
+            for (int i = 2; i < entries.length; i += 2) {
+                if (entries[i].hashCode() != hash) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static Node createNode(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+            int hash1 = key1.hashCode();
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+            }
+            boolean[] added = new boolean[1];
+            return EMPTY.with(shift, hash1, key1, value1, added).with(shift, hash2, key2, value2, added);
+        }
+    }
+
+    /**
+     * Node for keys with the same hash code.
+     */
+    private static final class CollisionNode extends Node {
+
+        private final int hash;
+
+        CollisionNode(int hash, Object[] array) {
+            super(array);
+            this.hash = hash;
+        }
+
+        @Override
+        Object get(int shift, int hash, Object key) {
+            int index = indexOf(key);
+            return index >= 0 ? array[index + 1] : null;
+        }
+
+        @Override
+        Node with(int shift, int hash, Object key, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                // Nest this node in a bitmap node that can tell the hashes apart
+                BitmapNode parent = new BitmapNode(BitmapNode.bit(shift, this.hash), new Object[]{null, this});
+                return parent.with(shift, hash, key, value, added);
+            }
+            int index = indexOf(key);
+            if (index >= 0) {
+                return array[index + 1] == value ? this : new CollisionNode(hash, replace(array, index + 1, value));
+            }
+            added[0] = true;
+            return new CollisionNode(hash, insertPair(array, array.length, key, value));
+        }
+
+        @Override
+        Node without(int shift, int hash, Object key) {
+            int index = indexOf(key);
+            if (index < 0) {
+                return this;
+            }
+            return array.length == 2 ? null : new CollisionNode(this.hash, removePair(array, index));
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<K, V>> {
+
+        @Override
+        public int size() {
+            return CompactMap.this.size();
+        }
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            Object current = storage;
+            if (current instanceof Object[]) {
+                return new EntryIterator(new ArrayIterator((Object[]) current));
+            }
+            return new EntryIterator(new TrieIterator(((Trie) current).root));
+        }
+    }
+
+    /**
+     * Iterator over the keys and values of one version of the storage.
+     */
+    private abstract static class StorageIterator {
+
+        Object key;
+        Object value;
+
+        abstract boolean hasNext();
+
+        /**
+         * Move to the next key and value.
+         *
+         * @return The next key
+         */
+        abstract Object nextKey();
+    }
+
+    private static final class ArrayIterator extends StorageIterator {
+
+        private final Object[] entries;
+        private int index;
+
+        ArrayIterator(Object[] entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        boolean hasNext() {
+            return index < entries.length;
+        }
+
+        @Override
+        Object nextKey() {
+            if (index >= entries.length) {
+                throw new NoSuchElementException();
+            }
+            key = entries[index];
+            value = entries[index + 1];
+            index += 2;
+            return key;
+        }
+    }
+
+    private static final class TrieIterator extends StorageIterator {
+
+        private final Object[][] arrays = new Object[MAX_DEPTH][];
+        private final int[] positions = new int[MAX_DEPTH];
+        private int depth;
+        private Object pendingKey;
+        private Object pendingValue;
+
+        TrieIterator(Node root) {
+            arrays[0] = root.array;
+            findNext();
+        }
+
+        @Override
+        boolean hasNext() {
+            return pendingKey != null;
+        }
+
+        @Override
+        Object nextKey() {
+            if (pendingKey == null) {
+                throw new NoSuchElementException();
+            }
+            key = pendingKey;
+            value = pendingValue;
+            findNext();
+            return key;
+        }
+
+        private void findNext() {
+            while (depth >= 0) {
+                Object[] array = arrays[depth];
+                int position = positions[depth];
+                if (position >= array.length) {
+                    depth--;
+                    continue;
+                }
+                positions[depth] = position + 2;
+                if (array[position] != null) {
+                    pendingKey = array[position];
+                    pendingValue = array[position + 1];
+                    return;
+                }
+                depth++;
+                arrays[depth] = ((Node) array[position + 1]).array;
+                positions[depth] = 0;
+            }
+            pendingKey = null;
+            pendingValue = null;
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+
+        private final StorageIterator iterator;
+        private K lastKey;
+
+        EntryIterator(StorageIterator iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Entry<K, V> next() {
+            lastKey = (K) iterator.nextKey();
+            return new WriteThroughEntry(lastKey, (V) iterator.value);
+        }
+
+        @Override
+        public void remove() {
+            if (lastKey == null) {
+                throw new IllegalStateException();
+            }
+            CompactMap.this.remove(lastKey);
+            lastKey = null;
+        }
+    }
+
+    private final class WriteThroughEntry extends SimpleEntry<K, V> {
+
+        WriteThroughEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            V previous = super.setValue(value);
+            put(getKey(), value);
+            return previous;
+        }
+    }
+
+    /*
+    Reads maps from JSON into a plain map first, so that the compact map is built in one go, skipping the null values that other applications
+    may send. Maps are written as any other map.
+     */
+    static final class JsonAdapterFactory implements TypeAdapterFactory {
+
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            Type keyType = Object.class;
+            Type valueType = Object.class;
+            if (type.getType() instanceof ParameterizedType) {
+                Type[] typeArguments = ((ParameterizedType) type.getType()).getActualTypeArguments();
+                keyType = typeArguments[0];
+                valueType = typeArguments[1];
+            }
+            final TypeAdapter<Map<Object, Object>> mapAdapter =
+                    (TypeAdapter<Map<Object, Object>>) gson.getAdapter(TypeToken.getParameterized(LinkedHashMap.class, keyType, valueType));
+            return (TypeAdapter<T>) new TypeAdapter<CompactMap<?, ?>>() {
+                @Override
+                public void write(JsonWriter out, CompactMap<?, ?> map) throws IOException {
+                    mapAdapter.write(out, (Map<Object, Object>) map);
+                }
+
+                @Override
+                public CompactMap<?, ?> read(JsonReader in) throws IOException {
+                    Map<Object, Object> entries = mapAdapter.read(in);
+                    if (entries == null) {
+                        return null;
+                    }
+                    List<Object> nullValueKeys = new ArrayList<>();
+                    for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+                        if (entry.getKey() == null || entry.getValue() == null) {
+                            nullValueKeys.add(entry.getKey());
+                        }
+                    }
+                    entries.keySet().removeAll(nullValueKeys);
+                    return new CompactMap(entries);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.flow.model;
+
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Single pass reader for the top level fields of a JSON object.
+ *
+ * String values are unescaped, whereas nested objects and arrays are returned as the raw JSON slice of the input without being parsed,
+ * so that they can be handed straight to the model deserialiser. Other values (numbers, booleans) are returned as their literal text and
+ * null values are returned as null.
+ */
+final class EnvelopeReader {
+
+    private final String json;
+    private int pos;
+
+    private EnvelopeReader(String json) {
+        this.json = json;
+    }
+
+    /**
+     * Read the top level fields of the JSON object.
+     *
+     * @param json The JSON object
+     * @return The fields of the object, with values as described in the class documentation
+     * @throws IllegalArgumentException if the input is not a well formed JSON object
+     */
+    static Map<String, String> readFields(String json) {
+        if (json == null) {
+            throw new IllegalArgumentException("Envelope must not be null");
+        }
+        return new EnvelopeReader(json).readObjectFields();
+    }
+
+    private Map<String, String> readObjectFields() {
+        Map<String, String> fields = new HashMap<>();
+        expect('{');
+        if (peek() == '}') {
+            pos++;
+            return fields;
+        }
+        while (true) {
+            expect('"');
+            String name = readString();
+            expect(':');
+            fields.put(name, readValue());
+            char next = next();
+            if (next == '}') {
+                return fields;
+            }
+            if (next != ',') {
+                throw error("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private String readValue() {
+        char c = peek();
+        switch (c) {
+            case '"':
+                pos++;
+                return readString();
+            case '{':
+            case '[':
+                int start = pos;
+                skipStructure();
+                return json.substring(start, pos);
+            default:
+                int literalStart = pos;
+                while (pos < json.length() && ",}] \t\r\n".indexOf(json.charAt(pos)) < 0) {
+                    pos++;
+                }
+                String literal = json.substring(literalStart, pos);
+                if (literal.isEmpty()) {
+                    throw error("Expected value");
+                }
+                return "null".equals(literal) ? null : literal;
+        }
+    }
+
+    private void skipStructure() {
+        int depth = 0;
+        do {
+            char c = json.charAt(pos++);
+            if (c == '"') {
+                skipString();
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+            if (depth > 0 && pos >= json.length()) {
+                throw error("Unterminated structure");
+            }
+        } while (depth > 0);
+    }
+
+    private void skipString() {
+        while (pos < json.length()) {
+            char c = json.charAt(pos++);
+            if (c == '\\') {
+                pos++;
+            } else if (c == '"') {
+                return;
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private String readString() {
+        int start = pos;
+        // Fast path for strings without escapes, which covers the message type and most keys
+        while (pos < json.length()) {
+            char c = json.charAt(pos);
+            if (c == '"') {
+                return json.substring(start, pos++);
+            }
+            if (c == '\\') {
+                break;
+            }
+            pos++;
+        }
+        StringBuilder sb = new StringBuilder(json.length() - start);
+        sb.append(json, start, pos);
+        while (pos < json.length()) {
+            char c = json.charAt(pos++);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= json.length()) {
+                break;
+            }
+            char escaped = json.charAt(pos++);
+            switch (escaped) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > json.length()) {
+                        throw error("Invalid unicode escape");
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    // Covers \" \\ and \/
+                    sb.append(escaped);
+                    break;
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private char peek() {
+        skipWhitespace();
+        if (pos >= json.length()) {
+            throw error("Unexpected end of input");
+        }
+        return json.charAt(pos);
+    }
+
+    private char next() {
+        char c = peek();
+        pos++;
+        return c;
+    }
+
+    private void expect(char expected) {
+        if (next() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + pos);
+    }
+}
@@ -125,4 +125,14 @@ public class FlowEvent implements Jsonable {
     public static FlowEvent fromJson(String json) {
         return JsonConverter.deserialize(json, FlowEvent.class);
     }
+
+    /**
+     * Read the type of a serialised event, without deserialising the event data.
+     *
+     * @param json The serialised event
+     * @return The event type
+     */
+    public static String readType(String json) {
+        return EnvelopeReader.readFields(json).get("type");
+    }
 }
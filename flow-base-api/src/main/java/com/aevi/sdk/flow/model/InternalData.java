@@ -16,11 +16,12 @@ package com.aevi.sdk.flow.model;
 
 
 import android.support.annotation.NonNull;
+import com.aevi.sdk.flow.codec.WireFormat;
 import com.aevi.util.json.JsonConverter;
 import com.aevi.util.json.Jsonable;
+import com.google.gson.annotations.JsonAdapter;
 
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Wrapper for any internal data (as in data not passed to external apps) that may need to be passed.
@@ -29,10 +30,12 @@ public class InternalData implements Jsonable {
 
     private String senderApiVersion;
     private String senderPackageName;
-    private Map<String, String> additionalData = new ConcurrentHashMap<>();
+    @JsonAdapter(CompactMap.JsonAdapterFactory.class)
+    private CompactMap<String, String> additionalData = new CompactMap<>();
 
     public InternalData(String senderApiVersion) {
         this.senderApiVersion = senderApiVersion;
+        additionalData.put(WireFormat.INTERNAL_DATA_KEY, WireFormat.SUPPORTED_CODECS);
     }
 
     @NonNull
@@ -17,6 +17,7 @@ package com.aevi.sdk.flow.model;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import com.aevi.sdk.flow.codec.WireFormat;
 import com.aevi.util.json.JsonConverter;
 
 import java.util.Objects;
@@ -225,7 +226,7 @@ public class Request extends BaseModel {
     }
 
     public static Request fromJson(String json) {
-        return JsonConverter.deserialize(json, Request.class);
+        return WireFormat.deserialize(json, Request.class);
     }
 
     /**
@@ -17,6 +17,7 @@ package com.aevi.sdk.flow.model;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import com.aevi.sdk.flow.codec.WireFormat;
 import com.aevi.util.json.JsonConverter;
 
 import java.util.Objects;
@@ -224,6 +225,6 @@ public class Response extends BaseModel {
     }
 
     public static Response fromJson(String json) {
-        return JsonConverter.deserialize(json, Response.class);
+        return WireFormat.deserialize(json, Response.class);
     }
 }
@@ -7,6 +7,7 @@ import android.support.annotation.NonNull;
 import com.aevi.android.rxmessenger.activity.NoSuchInstanceException;
 import com.aevi.android.rxmessenger.activity.ObservableActivityHelper;
 import com.aevi.sdk.flow.model.FlowException;
+import io.reactivex.functions.Action;
 import io.reactivex.functions.Consumer;
 
 import java.util.UUID;
@@ -27,6 +28,7 @@ public class ActivityHelper {
     private final Intent activityIntent;
     private final Context context;
     private final String request;
+    private final Object requestModel;
     private final Bundle extras;
 
     private final String activityId;
@@ -43,11 +45,31 @@ public class ActivityHelper {
      * @param extras             Extras to add to the intent
      */
     public ActivityHelper(Context context, Intent activityIntent, ClientCommunicator clientCommunicator, String request, Bundle extras) {
+        this(context, activityIntent, clientCommunicator, request, null, extras);
+    }
+
+    /**
+     * Helper to launch an activity with the request passed in, handing over the request model in the binary form if the activity runs in
+     * the same process.
+     *
+     * The request will be passed in the intent as a string extra with the key "request", and the request model via the
+     * {@link ActivityModelRegistry}.
+     *
+     * @param context            The android context
+     * @param activityIntent     The Intent to call for the activity that should handle the request.
+     * @param clientCommunicator The communicator to send/receive client messages
+     * @param request            The request model serialised to JSON
+     * @param requestModel       The request model, or null to only pass the JSON
+     * @param extras             Extras to add to the intent
+     */
+    public ActivityHelper(Context context, Intent activityIntent, ClientCommunicator clientCommunicator, String request,
+                          Object requestModel, Bundle extras) {
         activityId = UUID.randomUUID().toString();
         this.context = context;
         this.activityIntent = activityIntent;
         this.clientCommunicator = clientCommunicator;
         this.request = request;
+        this.requestModel = requestModel;
         this.extras = extras;
     }
 
@@ -68,8 +90,16 @@ public class ActivityHelper {
         if (extras != null) {
             activityIntent.putExtras(extras);
         }
+        if (requestModel != null) {
+            ActivityModelRegistry.register(activityId, requestModel);
+        }
         ObservableActivityHelper<String> helper = ObservableActivityHelper.createInstance(context, activityIntent);
-        helper.startObservableActivity().subscribe(new Consumer<String>() {
+        helper.startObservableActivity().doFinally(new Action() {
+            @Override
+            public void run() {
+                ActivityModelRegistry.unregister(activityId);
+            }
+        }).subscribe(new Consumer<String>() {
             @Override
             public void accept(@NonNull String response) {
                 clientCommunicator.sendResponseAndEnd(response);
@@ -0,0 +1,193 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.flow.service;
+
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.aevi.android.rxmessenger.activity.ObservableActivityHelper;
+import com.aevi.sdk.flow.codec.WireFormat;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the request models handed over from a flow service to the activities it launches, keyed by the activity id.
+ *
+ * When the activity runs in the same process as the service, the stage models read the request from here in the binary form (see
+ * {@link WireFormat}), rather than decoding the request JSON passed in the intent again (including on every configuration change). If the
+ * activity runs in another process, the registry is empty there and the request JSON is decoded as before.
+ *
+ * The model is encoded when the activity is launched, and every read decodes a new copy of it. The activity can therefore change its copy
+ * freely, without affecting the instance held by the service or the copies read on later configuration changes.
+ *
+ * Models are registered when an activity is launched via {@link ActivityHelper#launchActivity()}, and removed once the activity helper for
+ * the activity completes, or once the activity that read its model is destroyed other than for a configuration change, whichever comes
+ * first.
+ */
+public final class ActivityModelRegistry {
+
+    private static final ConcurrentMap<String, EncodedModel> MODELS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, DestroyWatcher> WATCHERS = new ConcurrentHashMap<>();
+
+    private ActivityModelRegistry() {
+    }
+
+    /**
+     * Get a copy of the request model handed over to the activity started with the given intent, if it runs in the same process as the
+     * service.
+     *
+     * @param intent The intent the activity was started with
+     * @param type   The type of the request model
+     * @param <T>    The type of the request model
+     * @return A copy of the request model, or null if it has not been handed over in this process and should be decoded from the intent
+     * instead
+     */
+    @Nullable
+    public static <T> T getModel(@NonNull Intent intent, @NonNull Class<T> type) {
+        return getModel(intent.getStringExtra(ObservableActivityHelper.INTENT_ID), type);
+    }
+
+    /**
+     * Get a copy of the request model handed over to the given activity, if it runs in the same process as the service.
+     *
+     * The model is removed from the registry once the activity is destroyed other than for a configuration change.
+     *
+     * @param activity The activity the model was handed over to
+     * @param type     The type of the request model
+     * @param <T>      The type of the request model
+     * @return A copy of the request model, or null if it has not been handed over in this process and should be decoded from the intent
+     * instead
+     */
+    @Nullable
+    public static <T> T getModel(@NonNull Activity activity, @NonNull Class<T> type) {
+        String activityId = activity.getIntent().getStringExtra(ObservableActivityHelper.INTENT_ID);
+        T model = getModel(activityId, type);
+        if (model != null) {
+            unregisterOnDestroy(activity.getApplication(), activityId);
+        }
+        return model;
+    }
+
+    static <T> T getModel(String activityId, Class<T> type) {
+        EncodedModel model = activityId != null ? MODELS.get(activityId) : null;
+        if (model == null || !type.isAssignableFrom(model.type)) {
+            return null;
+        }
+        return type.cast(WireFormat.deserialize(model.encoded, model.type));
+    }
+
+    static void register(String activityId, Object model) {
+        MODELS.put(activityId, new EncodedModel(model.getClass(), WireFormat.serialize(model, true)));
+    }
+
+    static void unregister(String activityId) {
+        MODELS.remove(activityId);
+        DestroyWatcher watcher = WATCHERS.remove(activityId);
+        if (watcher != null) {
+            watcher.stop();
+        }
+    }
+
+    static int size() {
+        return MODELS.size();
+    }
+
+    static int watcherCount() {
+        return WATCHERS.size();
+    }
+
+    /*
+    The activity helper only completes once the service side of the activity is done with it, which may never happen if the activity is
+    finished without publishing a response, so also drop the model when the activity itself is destroyed (and not just recreated). If the
+    activity is recreated later on anyway, such as after the system destroyed it, the request is decoded from the intent instead.
+     */
+    static void unregisterOnDestroy(Application application, String activityId) {
+        if (application == null || WATCHERS.containsKey(activityId)) {
+            return;
+        }
+        DestroyWatcher watcher = new DestroyWatcher(application, activityId);
+        if (WATCHERS.putIfAbsent(activityId, watcher) == null) {
+            application.registerActivityLifecycleCallbacks(watcher);
+            if (!MODELS.containsKey(activityId)) {
+                // Unregistered in the meantime
+                unregister(activityId);
+            }
+        }
+    }
+
+    private static class EncodedModel {
+
+        private final Class<?> type;
+        private final String encoded;
+
+        EncodedModel(Class<?> type, String encoded) {
+            this.type = type;
+            this.encoded = encoded;
+        }
+    }
+
+    private static class DestroyWatcher implements Application.ActivityLifecycleCallbacks {
+
+        private final Application application;
+        private final String activityId;
+
+        DestroyWatcher(Application application, String activityId) {
+            this.application = application;
+            this.activityId = activityId;
+        }
+
+        void stop() {
+            application.unregisterActivityLifecycleCallbacks(this);
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+            Intent intent = activity.getIntent();
+            if (!activity.isChangingConfigurations() && intent != null
+                    && activityId.equals(intent.getStringExtra(ObservableActivityHelper.INTENT_ID))) {
+                unregister(activityId);
+            }
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+    }
+}
@@ -19,14 +19,20 @@ import android.support.annotation.NonNull;
 import android.util.Log;
 import com.aevi.android.rxmessenger.ChannelServer;
 import com.aevi.android.rxmessenger.service.AbstractChannelService;
+import com.aevi.sdk.flow.codec.ChunkedTransfer;
 import com.aevi.sdk.flow.constants.InternalDataKeys;
 import com.aevi.sdk.flow.model.AppMessage;
 import com.aevi.sdk.flow.model.InternalData;
 import com.aevi.sdk.flow.stage.BaseStageModel;
+import com.aevi.sdk.flow.util.PeerCapabilities;
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
 import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
 
 import static com.aevi.sdk.flow.constants.AppMessageTypes.FORCE_FINISH_MESSAGE;
 import static com.aevi.sdk.flow.constants.AppMessageTypes.REQUEST_MESSAGE;
+import static com.aevi.sdk.flow.constants.ErrorConstants.FLOW_SERVICE_BUSY;
 import static com.aevi.sdk.flow.constants.ErrorConstants.FLOW_SERVICE_ERROR;
 import static com.aevi.sdk.flow.constants.ErrorConstants.INVALID_MESSAGE_TYPE;
 
@@ -40,6 +46,7 @@ public abstract class BaseApiService extends AbstractChannelService {
     private final String TAG = getClass().getSimpleName(); // Use class name of implementing service
 
     protected final InternalData internalData;
+    private RequestDispatcher requestDispatcher = new RequestDispatcher();
 
     protected BaseApiService(String apiVersion) {
         internalData = new InternalData(apiVersion);
@@ -65,31 +72,95 @@ public abstract class BaseApiService extends AbstractChannelService {
         setStopSelfOnEndOfStream(stopServiceOnEndOfStream);
     }
 
+    /**
+     * Set the dispatcher used to decode and process the messages received by this service.
+     *
+     * See {@link RequestDispatcher} for the default behaviour.
+     *
+     * @param requestDispatcher The request dispatcher
+     */
+    public void setRequestDispatcher(@NonNull RequestDispatcher requestDispatcher) {
+        this.requestDispatcher = requestDispatcher;
+    }
+
+    /**
+     * Get the dispatcher used to decode and process the messages received by this service.
+     *
+     * This can be used to configure how messages are dispatched, and to read the dispatch metrics.
+     *
+     * @return The request dispatcher
+     */
+    @NonNull
+    public RequestDispatcher getRequestDispatcher() {
+        return requestDispatcher;
+    }
+
     @Override
     protected void onNewClient(ChannelServer channelServer, String packageName) {
 
         final ClientCommunicator clientCommunicator = new ClientCommunicator(channelServer, internalData);
-        clientCommunicator.subscribeToMessages().subscribe(new Consumer<String>() {
+        final RequestDispatcher dispatcher = requestDispatcher;
+        final RequestDispatcher.ClientQueue clientQueue = dispatcher.createClientQueue();
+        reassembleFrames(clientCommunicator.subscribeToMessages()).subscribe(new Consumer<String>() {
             @Override
-            public void accept(String message) throws Exception {
+            public void accept(final String message) throws Exception {
                 Log.d(TAG, "Received message: " + message);
-                AppMessage appMessage = AppMessage.fromJson(message);
-                String flowStage = null;
-                if (appMessage.getInternalData() != null && appMessage.getInternalData().getAdditionalData() != null) {
-                    flowStage = appMessage.getInternalData().getAdditionalData().get(InternalDataKeys.FLOW_STAGE);
+                final AppMessage appMessage;
+                final String flowStage;
+                try {
+                    appMessage = AppMessage.fromJson(message);
+                    flowStage = getFlowStage(appMessage);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed while parsing message from client", e);
+                    return;
                 }
-                if (flowStage == null) {
-                    flowStage = "UNKNOWN";
+                Runnable task = new Runnable() {
+                    @Override
+                    public void run() {
+                        handleMessage(clientCommunicator, dispatcher, appMessage, flowStage);
+                    }
+                };
+                if (!REQUEST_MESSAGE.equals(appMessage.getMessageType())) {
+                    // Control messages such as force finish must never be held up behind, or rejected in favour of, queued requests
+                    clientQueue.executeControl(task);
+                    return;
                 }
+                clientQueue.execute(task, dispatcher.getStagePriority(flowStage), new Runnable() {
+                    @Override
+                    public void run() {
+                        Log.w(TAG, "Rejecting " + flowStage + " request as too many requests are queued");
+                        clientCommunicator.sendResponseAsErrorAndEnd(FLOW_SERVICE_BUSY, "Too many requests are queued, try again later");
+                    }
+                });
+            }
+        }, new Consumer<Throwable>() {
+            @Override
+            public void accept(Throwable throwable) throws Exception {
+                Log.e(TAG, "Failed while receiving message from client", throwable);
+            }
+        });
+    }
 
-                checkVersions(appMessage, internalData);
+    private static String getFlowStage(AppMessage appMessage) {
+        String stage = appMessage.getInternalDataValue(InternalDataKeys.FLOW_STAGE);
+        return stage != null ? stage : "UNKNOWN";
+    }
+
+    private void handleMessage(final ClientCommunicator clientCommunicator, RequestDispatcher dispatcher, final AppMessage appMessage,
+                               final String flowStage) {
+        InternalData senderInternalData = appMessage.getInternalData();
+        checkVersions(senderInternalData, internalData);
+        clientCommunicator.setPeerInternalData(senderInternalData);
+        dispatcher.deliver(new Runnable() {
+            @Override
+            public void run() {
                 String messageData = appMessage.getMessageData();
                 switch (appMessage.getMessageType()) {
                     case REQUEST_MESSAGE:
                         handleRequestMessage(clientCommunicator, messageData, flowStage);
                         break;
                     case FORCE_FINISH_MESSAGE:
-                        onForceFinish(clientCommunicator);
+                        handleForceFinishMessage(clientCommunicator);
                         break;
                     default:
                         String msg = String.format("Unknown message type: %s", appMessage.getMessageType());
@@ -98,18 +169,27 @@ public abstract class BaseApiService extends AbstractChannelService {
                         break;
                 }
             }
-        }, new Consumer<Throwable>() {
+        });
+    }
+
+    /**
+     * Reassemble any chunked messages from the client.
+     */
+    static Observable<String> reassembleFrames(Observable<String> messages) {
+        final ChunkedTransfer.Reassembler reassembler = new ChunkedTransfer.Reassembler();
+        return messages.concatMap(new Function<String, ObservableSource<String>>() {
             @Override
-            public void accept(Throwable throwable) throws Exception {
-                Log.e(TAG, "Failed while parsing message from client", throwable);
+            public ObservableSource<String> apply(String message) throws Exception {
+                String complete = reassembler.onMessage(message);
+                return complete != null ? Observable.just(complete) : Observable.<String>empty();
             }
         });
     }
 
-    static void checkVersions(AppMessage appMessage, InternalData checkWith) {
-        // All we do for now is log this - at some point we might want to have specific checks or whatevs
-        InternalData senderInternalData = appMessage.getInternalData();
+    static void checkVersions(InternalData senderInternalData, InternalData checkWith) {
+        // Other than remembering what the sender supports, all we do for now is log this
         if (senderInternalData != null) {
+            PeerCapabilities.recordPeer(senderInternalData);
             Log.i(BaseApiService.class.getSimpleName(), String.format("Our API version is: %s. Sender API version is: %s",
                                                                       checkWith.getSenderApiVersion(),
                                                                       senderInternalData.getSenderApiVersion()));
@@ -124,8 +204,17 @@ public abstract class BaseApiService extends AbstractChannelService {
             clientCommunicator.sendAck();
             processRequest(clientCommunicator, messageData, flowStage);
         } catch (Throwable t) {
+            Log.e(TAG, "Flow service failed to process request", t);
+            clientCommunicator.sendResponseAsErrorAndEnd(FLOW_SERVICE_ERROR, String.format("Flow service failed with exception: %s", t.getMessage()));
+        }
+    }
+
+    private void handleForceFinishMessage(ClientCommunicator clientCommunicator) {
+        try {
+            onForceFinish(clientCommunicator);
+        } catch (Throwable t) {
+            Log.e(TAG, "Flow service failed to force finish", t);
             clientCommunicator.sendResponseAsErrorAndEnd(FLOW_SERVICE_ERROR, String.format("Flow service failed with exception: %s", t.getMessage()));
-            throw t;
         }
     }
 
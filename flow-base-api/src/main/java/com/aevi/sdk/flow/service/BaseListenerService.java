@@ -15,27 +15,56 @@ package com.aevi.sdk.flow.service;
 
 import android.content.Context;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
 import com.aevi.android.rxmessenger.ChannelServer;
 import com.aevi.android.rxmessenger.service.AbstractChannelService;
 import com.aevi.sdk.flow.constants.AppMessageTypes;
+import com.aevi.sdk.flow.constants.InternalDataKeys;
 import com.aevi.sdk.flow.model.*;
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.functions.Action;
 import io.reactivex.functions.Consumer;
+import io.reactivex.schedulers.Schedulers;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static com.aevi.sdk.flow.BaseApiClient.FLOW_PROCESSING_SERVICE;
 import static com.aevi.sdk.flow.constants.AppMessageTypes.REQUEST_ACK_MESSAGE;
 import static com.aevi.sdk.flow.constants.ErrorConstants.UNEXPECTED_ERROR;
 import static com.aevi.sdk.flow.service.BaseApiService.checkVersions;
+import static com.aevi.sdk.flow.service.BaseApiService.reassembleFrames;
 
 /**
  * Base service used for notifying clients of the final response for any transaction.
  *
+ * By default, the processing service connects to this service for every response. Services that receive a high volume of responses can opt
+ * in to keeping the channel open for multiple responses via {@link #setPersistentChannel(long, TimeUnit)}.
+ *
  * This class should not be used directly instead choose one of the child classes
  * e.g. for generic responses use {@link BaseResponseListenerService}.
  */
 public abstract class BaseListenerService<RESPONSE extends BaseModel> extends AbstractChannelService {
 
+    private static final String TAG = BaseListenerService.class.getSimpleName();
+    private static final int MAX_RECENT_REQUEST_IDS = 64;
+
     private final Class<RESPONSE> responseClass;
     private final InternalData internalData;
+    private final Set<String> recentRequestIds = Collections.synchronizedSet(Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_RECENT_REQUEST_IDS;
+        }
+    }));
+
+    private long idleTimeoutMs;
+    private Scheduler timeoutScheduler = Schedulers.computation();
 
     protected BaseListenerService(Class<RESPONSE> responseClass, String apiVersion) {
         this.responseClass = responseClass;
@@ -48,51 +77,168 @@ public abstract class BaseListenerService<RESPONSE extends BaseModel> extends Ab
         internalData.setSenderPackageName(getPackageName());
     }
 
+    /**
+     * Keep the channel to the processing service open for multiple responses, rather than it connecting to this service for every response.
+     *
+     * The channel is closed once no message has been received for the given idle timeout. Each message received is acknowledged with the
+     * id of the request it is for, and repeated deliveries of a message for the same request are ignored.
+     *
+     * This should be called from the constructor of a sub-class. Processing services that do not support persistent channels keep connecting
+     * for every response.
+     *
+     * @param idleTimeout The idle timeout, or zero to handle one response per connection (the default)
+     * @param timeUnit    The unit of the idle timeout
+     */
+    public void setPersistentChannel(long idleTimeout, TimeUnit timeUnit) {
+        if (idleTimeout < 0) {
+            throw new IllegalArgumentException("Idle timeout must not be negative");
+        }
+        this.idleTimeoutMs = timeUnit.toMillis(idleTimeout);
+    }
+
+    /**
+     * @return True if the channel is kept open for multiple responses
+     */
+    public boolean isPersistentChannel() {
+        return idleTimeoutMs > 0;
+    }
+
+    void setTimeoutScheduler(Scheduler timeoutScheduler) {
+        this.timeoutScheduler = timeoutScheduler;
+    }
+
     @Override
     protected void onNewClient(final ChannelServer channelServer, final String packageName) {
-        sendAck(channelServer);
-        channelServer.subscribeToMessages().take(1).subscribe(new Consumer<String>() {
+        final boolean persistent = isPersistentChannel();
+        sendAck(channelServer, persistent, null);
+        Observable<String> messages = reassembleFrames(channelServer.subscribeToMessages());
+        if (persistent) {
+            messages = messages.timeout(idleTimeoutMs, TimeUnit.MILLISECONDS, timeoutScheduler, Observable.<String>empty());
+        } else {
+            messages = messages.take(1);
+        }
+        messages.subscribe(new Consumer<String>() {
             @Override
             public void accept(String message) throws Exception {
-                AppMessage appMessage = AppMessage.fromJson(message);
-                checkVersions(appMessage, internalData);
-                channelServer.sendEndStream();
-                if (FLOW_PROCESSING_SERVICE.equals(appMessage.getInternalData().getSenderPackageName())) {
-                    if (AppMessageTypes.RESPONSE_MESSAGE.equals(appMessage.getMessageType())) {
-                        Response response = Response.fromJson(appMessage.getMessageData());
-                        RESPONSE unwrapped = null;
-                        if (responseClass.equals(Response.class)) {
-                            unwrapped = (RESPONSE) response;
-                        } else {
-                            unwrapped = response.getResponseData().getValue(AppMessageTypes.PAYMENT_MESSAGE, responseClass);
-                        }
-
-                        if (unwrapped != null) {
-                            notifyResponse(unwrapped);
-                        }
-                    } else if (AppMessageTypes.FAILURE_MESSAGE.equals(appMessage.getMessageType())) {
-                        FlowException flowException = FlowException.fromJson(appMessage.getMessageData());
-                        notifyError(flowException.getErrorCode(), flowException.getErrorMessage());
+                if (persistent) {
+                    // A message that can not be handled must not end the channel for the responses that follow it
+                    try {
+                        handlePersistentMessage(channelServer, message);
+                    } catch (Exception e) {
+                        reportError(e);
                     }
+                } else {
+                    AppMessage appMessage = AppMessage.fromJson(message);
+                    InternalData senderInternalData = appMessage.getInternalData();
+                    checkVersions(senderInternalData, internalData);
+                    channelServer.sendEndStream();
+                    handleMessage(appMessage, null, senderInternalData);
                 }
             }
         }, new Consumer<Throwable>() {
             @Override
             public void accept(Throwable throwable) throws Exception {
-                if (throwable instanceof FlowException) {
-                    notifyError(((FlowException) throwable).getErrorCode(), ((FlowException) throwable).getErrorMessage());
-                } else {
-                    notifyError(UNEXPECTED_ERROR, throwable.getMessage());
+                if (persistent) {
+                    channelServer.sendEndStream();
+                }
+                reportError(throwable);
+            }
+        }, new Action() {
+            @Override
+            public void run() throws Exception {
+                if (persistent) {
+                    channelServer.sendEndStream();
                 }
             }
         });
     }
 
-    private void sendAck(ChannelServer channelServer) {
-        AppMessage appMessage = new AppMessage(REQUEST_ACK_MESSAGE, internalData);
+    private void handlePersistentMessage(ChannelServer channelServer, String message) {
+        AppMessage appMessage = AppMessage.fromJson(message);
+        InternalData senderInternalData = appMessage.getInternalData();
+        checkVersions(senderInternalData, internalData);
+        String requestId = appMessage.getInternalDataValue(InternalDataKeys.REQUEST_ID);
+        Response response = null;
+        if (requestId == null && AppMessageTypes.RESPONSE_MESSAGE.equals(appMessage.getMessageType())) {
+            response = Response.fromJson(appMessage.getMessageData());
+            Request originatingRequest = response.getOriginatingRequest();
+            requestId = originatingRequest != null ? originatingRequest.getId() : null;
+        }
+        sendAck(channelServer, true, requestId);
+        if (requestId != null && !recentRequestIds.add(requestId)) {
+            Log.d(TAG, "Ignoring repeated message for request: " + requestId);
+            return;
+        }
+        handleMessage(appMessage, response, senderInternalData);
+    }
+
+    private void handleMessage(AppMessage appMessage, Response response, InternalData senderInternalData) {
+        if (senderInternalData != null && FLOW_PROCESSING_SERVICE.equals(senderInternalData.getSenderPackageName())) {
+            if (AppMessageTypes.RESPONSE_MESSAGE.equals(appMessage.getMessageType())) {
+                if (response == null) {
+                    response = Response.fromJson(appMessage.getMessageData());
+                }
+                RESPONSE unwrapped = null;
+                if (responseClass.equals(Response.class)) {
+                    unwrapped = (RESPONSE) response;
+                } else {
+                    unwrapped = response.getResponseData().getValue(AppMessageTypes.PAYMENT_MESSAGE, responseClass);
+                }
+
+                if (unwrapped != null) {
+                    onResponseReceived(unwrapped);
+                    notifyResponse(unwrapped);
+                }
+            } else if (AppMessageTypes.FAILURE_MESSAGE.equals(appMessage.getMessageType())) {
+                FlowException flowException = FlowException.fromJson(appMessage.getMessageData());
+                onFailureReceived(appMessage.getInternalDataValue(InternalDataKeys.REQUEST_ID), flowException);
+                notifyError(flowException.getErrorCode(), flowException.getErrorMessage());
+            }
+        }
+    }
+
+    private void reportError(Throwable throwable) {
+        if (throwable instanceof FlowException) {
+            notifyError(((FlowException) throwable).getErrorCode(), ((FlowException) throwable).getErrorMessage());
+        } else {
+            notifyError(UNEXPECTED_ERROR, throwable.getMessage());
+        }
+    }
+
+    private void sendAck(ChannelServer channelServer, boolean persistent, String requestId) {
+        InternalData ackInternalData = internalData;
+        if (persistent) {
+            ackInternalData = new InternalData(internalData.getSenderApiVersion());
+            ackInternalData.setSenderPackageName(internalData.getSenderPackageName());
+            ackInternalData.getAdditionalData().putAll(internalData.getAdditionalData());
+            ackInternalData.addAdditionalData(InternalDataKeys.PERSISTENT_CHANNEL_IDLE_TIMEOUT, String.valueOf(idleTimeoutMs));
+            if (requestId != null) {
+                ackInternalData.addAdditionalData(InternalDataKeys.REQUEST_ID, requestId);
+            }
+        }
+        AppMessage appMessage = new AppMessage(REQUEST_ACK_MESSAGE, ackInternalData);
         channelServer.send(appMessage.toJson());
     }
 
+    /**
+     * Called for each response received, before it is passed on to {@link #notifyResponse(BaseModel)}.
+     *
+     * @param response The final response sent after completion of a flow
+     */
+    protected void onResponseReceived(@NonNull RESPONSE response) {
+        // Default is to do nothing
+    }
+
+    /**
+     * Called for each failure received, before it is passed on to {@link #notifyError(String, String)}.
+     *
+     * @param requestId     The id of the failed request, if provided by the processing service
+     * @param flowException The failure
+     */
+    protected void onFailureReceived(@Nullable String requestId, @NonNull FlowException flowException) {
+        // Default is to do nothing
+    }
+
     /**
      * This method will be called with the appropriate response for clients that initiated the matching request or flow services that have
      * processed the request in some way and require to be notified of the final response
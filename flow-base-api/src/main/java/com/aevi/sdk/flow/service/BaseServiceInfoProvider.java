@@ -15,13 +15,21 @@
 package com.aevi.sdk.flow.service;
 
 
+import android.content.BroadcastReceiver;
 import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.PatternMatcher;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * ContentProvider base class that should be extended by API service providers in order to give information about the app capabilities.
@@ -29,12 +37,36 @@ import android.os.Bundle;
  * The implementing class will need to provide an implementation of the {@link #getServiceInfo()} method that should return
  * the serialised configuration. If this configuration is dynamic and changes then the implementing class should call
  * {@link #notifyServiceInfoChange()} on any changes so that the new configuration can be obtained by the system.
+ *
+ * The serialised configuration is cached, along with a hash of its content, until a change is notified. Callers can pass in the hash of the
+ * configuration they already have via {@link #SERVICE_INFO_HASH_KEY}, in which case only {@link #NOT_MODIFIED_KEY} is returned if the
+ * configuration has not changed. Changes notified in other processes of the app are picked up via the change broadcast, once it has been
+ * delivered to the process of the provider.
  */
 public abstract class BaseServiceInfoProvider extends ContentProvider {
 
     public static final String SERVICE_INFO_KEY = "serviceInfo";
+    public static final String SERVICE_INFO_HASH_KEY = "serviceInfoHash";
+    public static final String NOT_MODIFIED_KEY = "notModified";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // Incremented on every change notification in this process, including those sent without a provider instance
+    private static final AtomicInteger CHANGE_GENERATION = new AtomicInteger();
 
     private final String serviceInfoChangeBroadcast;
+    private final BroadcastReceiver changeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidate();
+        }
+    };
+
+    private String cachedServiceInfo;
+    private String cachedServiceInfoHash;
+    private int cachedGeneration;
+    private boolean changeReceiverRegistered;
 
     protected BaseServiceInfoProvider(String serviceInfoChangeBroadcast) {
         this.serviceInfoChangeBroadcast = serviceInfoChangeBroadcast;
@@ -66,11 +98,65 @@ public abstract class BaseServiceInfoProvider extends ContentProvider {
 
     @Override
     public final Bundle call(String method, String arg, Bundle extras) {
+        String serviceInfo;
+        String serviceInfoHash;
+        synchronized (this) {
+            registerChangeReceiver();
+            int generation = CHANGE_GENERATION.get();
+            if (cachedServiceInfo == null || cachedGeneration != generation) {
+                cachedServiceInfo = getServiceInfo();
+                cachedServiceInfoHash = hash(cachedServiceInfo);
+                cachedGeneration = generation;
+            }
+            serviceInfo = cachedServiceInfo;
+            serviceInfoHash = cachedServiceInfoHash;
+        }
         Bundle b = new Bundle();
-        b.putString(SERVICE_INFO_KEY, getServiceInfo());
+        String knownHash = extras != null ? extras.getString(SERVICE_INFO_HASH_KEY) : null;
+        if (serviceInfoHash.equals(knownHash)) {
+            b.putBoolean(NOT_MODIFIED_KEY, true);
+        } else {
+            b.putString(SERVICE_INFO_KEY, serviceInfo);
+        }
+        b.putString(SERVICE_INFO_HASH_KEY, serviceInfoHash);
         return b;
     }
 
+    /*
+    The change generation only covers notifications sent from this process, so also listen for the change broadcast, which may be sent from
+    any process of the app
+     */
+    private void registerChangeReceiver() {
+        Context context = getContext();
+        if (changeReceiverRegistered || context == null || serviceInfoChangeBroadcast == null || serviceInfoChangeBroadcast.isEmpty()) {
+            return;
+        }
+        IntentFilter filter = new IntentFilter(serviceInfoChangeBroadcast);
+        filter.addDataScheme("package");
+        filter.addDataSchemeSpecificPart(context.getPackageName(), PatternMatcher.PATTERN_LITERAL);
+        context.registerReceiver(changeReceiver, filter);
+        changeReceiverRegistered = true;
+    }
+
+    private synchronized void invalidate() {
+        cachedServiceInfo = null;
+    }
+
+    private static String hash(String serviceInfo) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(serviceInfo.getBytes(UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
     protected abstract String getServiceInfo();
 
     /**
@@ -83,10 +169,14 @@ public abstract class BaseServiceInfoProvider extends ContentProvider {
     /**
      * Notify the system that the configuration has changed.
      *
+     * This also discards the cached configuration of the providers in this process straight away, and that of providers in other processes
+     * of the app once they receive the broadcast.
+     *
      * @param context               context
      * @param configChangeBroadcast broadcast action
      */
     public static void notifyServiceInfoChange(Context context, String configChangeBroadcast) {
+        CHANGE_GENERATION.incrementAndGet();
         String pkg = "package:" + context.getPackageName();
         Uri pkgUri = Uri.parse(pkg);
         context.sendBroadcast(new Intent(configChangeBroadcast).setData(pkgUri));
@@ -3,9 +3,11 @@ package com.aevi.sdk.flow.service;
 import android.support.annotation.NonNull;
 import android.util.Log;
 import com.aevi.android.rxmessenger.ChannelServer;
+import com.aevi.sdk.flow.codec.ChunkedTransfer;
 import com.aevi.sdk.flow.model.AppMessage;
 import com.aevi.sdk.flow.model.FlowException;
 import com.aevi.sdk.flow.model.InternalData;
+import com.aevi.sdk.flow.util.PeerCapabilities;
 import io.reactivex.Observable;
 
 import java.util.HashSet;
@@ -28,6 +30,7 @@ public class ClientCommunicator {
     private final ChannelServer channelServer;
     private final InternalData internalData;
     private final Set<ActivityHelper> activityHelpers;
+    private volatile InternalData peerInternalData;
 
     ClientCommunicator(ChannelServer channelServer, InternalData internalData) {
         this.channelServer = channelServer;
@@ -35,10 +38,30 @@ public class ClientCommunicator {
         this.activityHelpers = new HashSet<>();
     }
 
+    /**
+     * Set the internal data received from the client, which determines the message forms it can read.
+     *
+     * @param peerInternalData The internal data of the client
+     */
+    void setPeerInternalData(InternalData peerInternalData) {
+        this.peerInternalData = peerInternalData;
+    }
+
+    private void sendToClient(AppMessage appMessage) {
+        String message = appMessage.toWire(peerInternalData);
+        if (ChunkedTransfer.needsChunking(message) && PeerCapabilities.supportsCodec(peerInternalData, ChunkedTransfer.FEATURE)) {
+            for (String frame : ChunkedTransfer.split(message)) {
+                channelServer.send(frame);
+            }
+        } else {
+            channelServer.send(message);
+        }
+    }
+
     void sendAck() {
         Log.d(TAG, "Sending ack");
         AppMessage appMessage = new AppMessage(REQUEST_ACK_MESSAGE, internalData);
-        channelServer.send(appMessage.toJson());
+        sendToClient(appMessage);
     }
 
     /**
@@ -49,7 +72,7 @@ public class ClientCommunicator {
     public void sendResponseAndEnd(@NonNull String response) {
         if (channelServer != null) {
             AppMessage appMessage = new AppMessage(RESPONSE_MESSAGE, response, internalData);
-            channelServer.send(appMessage.toJson());
+            sendToClient(appMessage);
             channelServer.sendEndStream();
         }
     }
@@ -71,7 +94,7 @@ public class ClientCommunicator {
     public void finishWithNoResponse() {
         if (channelServer != null) {
             AppMessage appMessage = new AppMessage(RESPONSE_MESSAGE, EMPTY_DATA, internalData);
-            channelServer.send(appMessage.toJson());
+            sendToClient(appMessage);
             channelServer.sendEndStream();
         }
     }
@@ -90,7 +113,7 @@ public class ClientCommunicator {
             String msg = flowServiceException.toJson();
             Log.d(TAG, "Sending error message: " + msg);
             AppMessage errorMessage = new AppMessage(FAILURE_MESSAGE, msg, internalData);
-            channelServer.send(errorMessage.toJson());
+            sendToClient(errorMessage);
             channelServer.sendEndStream();
         }
     }
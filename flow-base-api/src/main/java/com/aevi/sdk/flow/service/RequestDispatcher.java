@@ -0,0 +1,475 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.flow.service;
+
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import com.aevi.sdk.flow.constants.ErrorConstants;
+import com.aevi.sdk.flow.constants.FlowStages;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatches the messages received by a {@link BaseApiService} off the thread they were received on.
+ *
+ * By default, messages are decoded and processed on a small pool of worker threads shared by all services in the process, so that decoding
+ * large requests does not stall the main thread. The shared pool runs the messages handed to it by all dispatchers in priority order. Messages
+ * from the same client are processed one at a time and in the order they were received, see {@link #setSerialPerClient(boolean)}. Control
+ * messages, such as to force finish, are never queued behind the requests of their client.
+ *
+ * Services that need to process requests on the main thread (such as to interact with views) can opt in via
+ * {@link #setDeliverOnMainThread(boolean)}, in which case messages are still decoded on a worker thread.
+ *
+ * Requests are queued in priority lanes based on their flow stage, so that payment critical stages are dispatched ahead of queued status
+ * updates and post-generic requests, see {@link #setStagePriority(String, Priority)}. No more than the max concurrency of requests are
+ * processed at the same time. Once the max queue size is reached, further requests that are not of high priority are rejected straight away
+ * with a {@link ErrorConstants#FLOW_SERVICE_BUSY} error rather than being left to time out.
+ *
+ * The number of queued messages and the time messages spent waiting to be dispatched can be read for monitoring purposes.
+ */
+public class RequestDispatcher {
+
+    private static final String TAG = RequestDispatcher.class.getSimpleName();
+
+    public static final int DEFAULT_WORKER_THREADS = 2;
+    public static final int DEFAULT_MAX_CONCURRENCY = DEFAULT_WORKER_THREADS;
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 32;
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * The priority classes that requests are queued in.
+     */
+    public enum Priority {
+        HIGH,
+        NORMAL,
+        LOW
+    }
+
+    private static final AtomicLong TASK_SEQUENCE = new AtomicLong(); // Shared so that tasks of different dispatchers can be ordered
+    private static Executor defaultWorkerExecutor;
+
+    private final Executor workerExecutor;
+    private final Map<String, Priority> stagePriorities = new ConcurrentHashMap<>();
+    private final Queue<QueuedTask> readyTasks = new PriorityQueue<>();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong dispatchedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong totalWaitTimeNanos = new AtomicLong();
+    private final AtomicLong maxWaitTimeNanos = new AtomicLong();
+
+    private volatile boolean serialPerClient = true;
+    private volatile boolean deliverOnMainThread;
+    private volatile int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+    private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+    private int runningCount;
+    private Handler mainThreadHandler;
+
+    /**
+     * Create a dispatcher that uses the default worker threads shared by all services in the process.
+     */
+    public RequestDispatcher() {
+        this(getDefaultWorkerExecutor());
+    }
+
+    /**
+     * Create a dispatcher that uses the given executor to decode and process messages.
+     *
+     * @param workerExecutor The executor to run the messages on
+     */
+    public RequestDispatcher(Executor workerExecutor) {
+        this.workerExecutor = workerExecutor;
+        stagePriorities.put(FlowStages.PAYMENT_CARD_READING, Priority.HIGH);
+        stagePriorities.put(FlowStages.TRANSACTION_PROCESSING, Priority.HIGH);
+        stagePriorities.put(FlowStages.STATUS_UPDATE, Priority.LOW);
+        stagePriorities.put(FlowStages.POST_GENERIC, Priority.LOW);
+    }
+
+    private static synchronized Executor getDefaultWorkerExecutor() {
+        if (defaultWorkerExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_WORKER_THREADS, DEFAULT_WORKER_THREADS,
+                                                                 WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                                                 new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger threadCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "AppFlowDispatcher-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            defaultWorkerExecutor = executor;
+        }
+        return defaultWorkerExecutor;
+    }
+
+    /**
+     * Set whether messages from the same client are processed one at a time, in the order they were received.
+     *
+     * This defaults to true. If set to false, messages from the same client may be processed concurrently.
+     *
+     * @param serialPerClient True to process messages from the same client one at a time
+     */
+    public void setSerialPerClient(boolean serialPerClient) {
+        this.serialPerClient = serialPerClient;
+    }
+
+    /**
+     * @return True if messages from the same client are processed one at a time
+     */
+    public boolean isSerialPerClient() {
+        return serialPerClient;
+    }
+
+    /**
+     * Set whether requests are processed on the main thread, after being decoded on a worker thread.
+     *
+     * @param deliverOnMainThread True to process requests on the main thread
+     */
+    public void setDeliverOnMainThread(boolean deliverOnMainThread) {
+        this.deliverOnMainThread = deliverOnMainThread;
+    }
+
+    /**
+     * @return True if requests are processed on the main thread
+     */
+    public boolean isDeliverOnMainThread() {
+        return deliverOnMainThread;
+    }
+
+    /**
+     * Set the priority of requests for the given flow stage.
+     *
+     * By default, the payment card reading and transaction processing stages are of high priority, the status update and post-generic
+     * stages of low priority and all other stages of normal priority.
+     *
+     * @param flowStage The flow stage
+     * @param priority  The priority of requests for the stage
+     */
+    public void setStagePriority(@NonNull String flowStage, @NonNull Priority priority) {
+        stagePriorities.put(flowStage, priority);
+    }
+
+    /**
+     * Get the priority of requests for the given flow stage.
+     *
+     * @param flowStage The flow stage
+     * @return The priority of requests for the stage
+     */
+    @NonNull
+    public Priority getStagePriority(String flowStage) {
+        Priority priority = flowStage != null ? stagePriorities.get(flowStage) : null;
+        return priority != null ? priority : Priority.NORMAL;
+    }
+
+    /**
+     * Set the maximum number of messages that are processed at the same time by this dispatcher.
+     *
+     * Note that the default worker threads are shared by all services in the process, so with those no more than
+     * {@link #DEFAULT_WORKER_THREADS} messages are processed at the same time in total, whatever the max concurrency. Create the dispatcher
+     * with an executor of its own to process more messages concurrently.
+     *
+     * @param maxConcurrency The maximum concurrency
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("Max concurrency must be at least one");
+        }
+        synchronized (readyTasks) {
+            this.maxConcurrency = maxConcurrency;
+        }
+        drain();
+    }
+
+    /**
+     * Set the maximum number of queued messages, beyond which requests that are not of high priority are rejected.
+     *
+     * @param maxQueueSize The maximum queue size
+     */
+    public void setMaxQueueSize(int maxQueueSize) {
+        if (maxQueueSize < 1) {
+            throw new IllegalArgumentException("Max queue size must be at least one");
+        }
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * Get the number of requests that were rejected because the queue was full.
+     *
+     * @return The number of rejected requests
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Get the number of messages waiting to be dispatched.
+     *
+     * @return The number of queued messages
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Get the number of messages that have been dispatched.
+     *
+     * @return The number of dispatched messages
+     */
+    public long getDispatchedCount() {
+        return dispatchedCount.get();
+    }
+
+    /**
+     * Get the average time messages spent waiting to be dispatched, in nanoseconds.
+     *
+     * @return The average wait time in nanoseconds
+     */
+    public long getAverageWaitTimeNanos() {
+        long count = dispatchedCount.get();
+        return count == 0 ? 0 : totalWaitTimeNanos.get() / count;
+    }
+
+    /**
+     * Get the longest time a message spent waiting to be dispatched, in nanoseconds.
+     *
+     * @return The maximum wait time in nanoseconds
+     */
+    public long getMaxWaitTimeNanos() {
+        return maxWaitTimeNanos.get();
+    }
+
+    /**
+     * Create the queue for the messages of a new client.
+     *
+     * @return The client queue
+     */
+    ClientQueue createClientQueue() {
+        return new ClientQueue();
+    }
+
+    /**
+     * Run the processing of a decoded request, on the main thread if so configured or else on the current thread.
+     *
+     * @param processing The processing to run
+     */
+    void deliver(Runnable processing) {
+        if (deliverOnMainThread) {
+            getMainThreadHandler().post(processing);
+        } else {
+            processing.run();
+        }
+    }
+
+    private synchronized Handler getMainThreadHandler() {
+        if (mainThreadHandler == null) {
+            mainThreadHandler = new Handler(Looper.getMainLooper());
+        }
+        return mainThreadHandler;
+    }
+
+    private void submit(QueuedTask task) {
+        synchronized (readyTasks) {
+            readyTasks.add(task);
+        }
+        drain();
+    }
+
+    private void drain() {
+        while (true) {
+            QueuedTask task;
+            synchronized (readyTasks) {
+                if (runningCount >= maxConcurrency || readyTasks.isEmpty()) {
+                    return;
+                }
+                task = readyTasks.poll();
+                runningCount++;
+            }
+            workerExecutor.execute(new WorkerTask(task, true));
+        }
+    }
+
+    private void onDispatched(long queuedAt) {
+        queueDepth.decrementAndGet();
+        dispatchedCount.incrementAndGet();
+        long waitTime = System.nanoTime() - queuedAt;
+        totalWaitTimeNanos.addAndGet(waitTime);
+        long max;
+        do {
+            max = maxWaitTimeNanos.get();
+        } while (waitTime > max && !maxWaitTimeNanos.compareAndSet(max, waitTime));
+    }
+
+    /**
+     * Queue of the messages received from a single client.
+     */
+    final class ClientQueue {
+
+        private final Queue<QueuedTask> pending = new ArrayDeque<>();
+        private boolean running;
+
+        private ClientQueue() {
+        }
+
+        /**
+         * Dispatch a message.
+         *
+         * @param task       The task processing the message
+         * @param priority   The priority of the message
+         * @param onRejected Called instead of the task if the message is rejected because the queue is full
+         * @return True if the message was queued, false if it was rejected
+         */
+        boolean execute(Runnable task, Priority priority, Runnable onRejected) {
+            if (priority != Priority.HIGH && queueDepth.get() >= maxQueueSize) {
+                rejectedCount.incrementAndGet();
+                onRejected.run();
+                return false;
+            }
+            queueDepth.incrementAndGet();
+            QueuedTask queuedTask = new QueuedTask(this, task, priority);
+            if (!serialPerClient) {
+                submit(queuedTask);
+                return true;
+            }
+            synchronized (this) {
+                pending.add(queuedTask);
+                if (running) {
+                    return true;
+                }
+                running = true;
+            }
+            scheduleNext();
+            return true;
+        }
+
+        /**
+         * Dispatch a control message, such as to force finish, straight away.
+         *
+         * Control messages may be meant to abort the message being processed, so they bypass both the queue of this client and the max
+         * concurrency, and are never rejected.
+         *
+         * @param task The task processing the message
+         */
+        void executeControl(Runnable task) {
+            queueDepth.incrementAndGet();
+            workerExecutor.execute(new WorkerTask(new QueuedTask(this, task, Priority.HIGH), false));
+        }
+
+        private void onFinished(QueuedTask task) {
+            if (task.serial) {
+                scheduleNext();
+            }
+        }
+
+        private void scheduleNext() {
+            QueuedTask next;
+            synchronized (this) {
+                next = pending.poll();
+                if (next == null) {
+                    running = false;
+                    return;
+                }
+            }
+            next.serial = true;
+            submit(next);
+        }
+    }
+
+    private final class QueuedTask implements Runnable, Comparable<QueuedTask> {
+
+        private final ClientQueue clientQueue;
+        private final Runnable task;
+        private final Priority priority;
+        private final long sequence;
+        private final long queuedAt = System.nanoTime();
+        private boolean serial;
+
+        private QueuedTask(ClientQueue clientQueue, Runnable task, Priority priority) {
+            this.clientQueue = clientQueue;
+            this.task = task;
+            this.priority = priority;
+            this.sequence = TASK_SEQUENCE.getAndIncrement();
+        }
+
+        @Override
+        public void run() {
+            onDispatched(queuedAt);
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to process message", e);
+            }
+        }
+
+        private void onFinished() {
+            clientQueue.onFinished(this);
+        }
+
+        @Override
+        public int compareTo(QueuedTask other) {
+            if (priority != other.priority) {
+                return priority.compareTo(other.priority);
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Task handed to the worker executor, ordered by priority so that an executor with a priority queue (such as the default worker threads)
+     * runs the tasks of all dispatchers in priority order.
+     */
+    private final class WorkerTask implements Runnable, Comparable<WorkerTask> {
+
+        private final QueuedTask task;
+        private final boolean limited;
+
+        private WorkerTask(QueuedTask task, boolean limited) {
+            this.task = task;
+            this.limited = limited;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                if (limited) {
+                    synchronized (readyTasks) {
+                        runningCount--;
+                    }
+                }
+                task.onFinished();
+                if (limited) {
+                    drain();
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(WorkerTask other) {
+            return task.compareTo(other.task);
+        }
+    }
+}
@@ -25,13 +25,17 @@ import android.support.annotation.Nullable;
 import android.util.Log;
 import com.aevi.android.rxmessenger.activity.NoSuchInstanceException;
 import com.aevi.android.rxmessenger.activity.ObservableActivityHelper;
+import com.aevi.sdk.flow.codec.WireFormat;
 import com.aevi.sdk.flow.constants.ActivityEvents;
 import com.aevi.sdk.flow.service.ActivityHelper;
+import com.aevi.sdk.flow.service.ActivityModelRegistry;
 import com.aevi.sdk.flow.service.ClientCommunicator;
 import io.reactivex.functions.Consumer;
 
 import java.lang.ref.WeakReference;
 
+import static com.aevi.sdk.flow.service.ActivityHelper.ACTIVITY_REQUEST_KEY;
+
 /**
  * Base model for all stage models that provide the stage specific data functions.
  */
@@ -63,6 +67,25 @@ public abstract class BaseStageModel {
         this.clientCommunicator = clientCommunicator;
     }
 
+    /**
+     * Read the request model passed to an activity.
+     *
+     * A copy of the model handed over by a service in the same process is used if there is one (see {@link ActivityModelRegistry}),
+     * otherwise the request is decoded from the intent. Either way, changes made to the returned model do not affect the service's model.
+     *
+     * @param activity The activity started to process the request
+     * @param type     The type of the request model
+     * @param <T>      The type of the request model
+     * @return The request model
+     */
+    protected static <T> T readRequest(@NonNull Activity activity, @NonNull Class<T> type) {
+        T request = ActivityModelRegistry.getModel(activity, type);
+        if (request == null) {
+            request = WireFormat.deserialize(activity.getIntent().getStringExtra(ACTIVITY_REQUEST_KEY), type);
+        }
+        return request;
+    }
+
     /*
     This will register the activity to receive finish requests from the service, typically when the request has timed out.
      */
@@ -115,6 +138,17 @@ public abstract class BaseStageModel {
 
     public abstract String getRequestJson();
 
+    /**
+     * Get the request model, to be handed over (as a copy) to activities running in the same process as the service.
+     *
+     * Models that override {@link #processInActivity(Context, Intent, String)} should return null here.
+     *
+     * @return The request model, or null if only the request JSON should be passed to activities
+     */
+    protected Object getRequestModel() {
+        return null;
+    }
+
     protected Activity getActivity() {
         if (activityReference != null) {
             return activityReference.get();
@@ -125,12 +159,19 @@ public abstract class BaseStageModel {
     /**
      * Send this model and its associated request to be processed by an activity.
      *
+     * If the activity runs in the same process, the request is handed over in the binary form rather than decoded from JSON again, see
+     * {@link ActivityModelRegistry}.
+     *
      * @param context       The Android context
      * @param activityClass The class of the activity to send it to
      * @return An Observable stream of lifecycle events for the activity
      */
     public ObservableActivityHelper<String> processInActivity(Context context, Class<? extends Activity> activityClass) {
-        return processInActivity(context, new Intent(context, activityClass), getRequestJson());
+        Object requestModel = getRequestModel();
+        if (requestModel == null) {
+            return processInActivity(context, new Intent(context, activityClass), getRequestJson());
+        }
+        return launchActivity(context, new Intent(context, activityClass), getRequestJson(), requestModel);
     }
 
     /**
@@ -145,8 +186,12 @@ public abstract class BaseStageModel {
      * @return An Observable stream of lifecycle events for the activity
      */
     public ObservableActivityHelper<String> processInActivity(Context context, Intent activityIntent, String requestJson) {
+        return launchActivity(context, activityIntent, requestJson, null);
+    }
+
+    private ObservableActivityHelper<String> launchActivity(Context context, Intent activityIntent, String requestJson, Object requestModel) {
         ActivityHelper activityHelper =
-                new ActivityHelper(context, activityIntent, clientCommunicator, requestJson, null);
+                new ActivityHelper(context, activityIntent, clientCommunicator, requestJson, requestModel, null);
         if (clientCommunicator != null) {
             clientCommunicator.addActivityHelper(activityHelper);
         }
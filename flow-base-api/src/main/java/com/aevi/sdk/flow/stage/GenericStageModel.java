@@ -20,8 +20,6 @@ import com.aevi.sdk.flow.model.Response;
 import com.aevi.sdk.flow.service.BaseGenericService;
 import com.aevi.sdk.flow.service.ClientCommunicator;
 
-import static com.aevi.sdk.flow.service.ActivityHelper.ACTIVITY_REQUEST_KEY;
-
 /**
  * Model for the generic stage that exposes all the data functions and other utilities required for any app to process this stage.
  *
@@ -44,8 +42,7 @@ public class GenericStageModel extends BaseStageModel {
     }
 
     public static GenericStageModel fromActivity(Activity activity) {
-        String request = activity.getIntent().getStringExtra(ACTIVITY_REQUEST_KEY);
-        return new GenericStageModel(activity, Request.fromJson(request));
+        return new GenericStageModel(activity, readRequest(activity, Request.class));
     }
 
     /**
@@ -83,4 +80,9 @@ public class GenericStageModel extends BaseStageModel {
     public String getRequestJson() {
         return request.toJson();
     }
+
+    @Override
+    protected Object getRequestModel() {
+        return request;
+    }
 }
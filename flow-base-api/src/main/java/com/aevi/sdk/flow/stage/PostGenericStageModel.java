@@ -21,8 +21,6 @@ import com.aevi.sdk.flow.service.BaseApiService;
 import com.aevi.sdk.flow.service.BasePostGenericService;
 import com.aevi.sdk.flow.service.ClientCommunicator;
 
-import static com.aevi.sdk.flow.service.ActivityHelper.ACTIVITY_REQUEST_KEY;
-
 /**
  * Model for the post generic stage that exposes all the data functions and other utilities required for any app to process this stage.
  *
@@ -48,8 +46,7 @@ public class PostGenericStageModel extends BaseStageModel {
     }
 
     public static PostGenericStageModel fromActivity(Activity activity) {
-        String response = activity.getIntent().getStringExtra(ACTIVITY_REQUEST_KEY);
-        return new PostGenericStageModel(activity, Response.fromJson(response));
+        return new PostGenericStageModel(activity, readRequest(activity, Response.class));
     }
 
     /**
@@ -108,4 +105,9 @@ public class PostGenericStageModel extends BaseStageModel {
     public String getRequestJson() {
         return inputResponse.toJson();
     }
+
+    @Override
+    protected Object getRequestModel() {
+        return inputResponse;
+    }
 }
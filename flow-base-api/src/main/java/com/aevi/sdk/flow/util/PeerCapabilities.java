@@ -0,0 +1,99 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.flow.util;
+
+
+import com.aevi.sdk.flow.codec.WireFormat;
+import com.aevi.sdk.flow.model.AppMessage;
+import com.aevi.sdk.flow.model.InternalData;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Internal API registry of what the applications we exchange messages with support, as learnt from the internal data they send us.
+ *
+ * Until a peer has sent us a message, it is assumed to only support the legacy wire formats.
+ */
+public final class PeerCapabilities {
+
+    private static final Map<String, InternalData> PEERS = new ConcurrentHashMap<>();
+
+    private PeerCapabilities() {
+    }
+
+    /**
+     * Record the capabilities of the sender of a message.
+     *
+     * @param senderInternalData The internal data of the received message
+     */
+    public static void recordPeer(InternalData senderInternalData) {
+        if (senderInternalData != null && senderInternalData.getSenderPackageName() != null) {
+            PEERS.put(senderInternalData.getSenderPackageName(), senderInternalData);
+        }
+    }
+
+    /**
+     * Get the internal data last received from a peer.
+     *
+     * @param packageName The package name of the peer
+     * @return The internal data, or null if the peer is unknown
+     */
+    public static InternalData getPeerInternalData(String packageName) {
+        return packageName != null ? PEERS.get(packageName) : null;
+    }
+
+    /**
+     * Check whether the sender of the given internal data can read app messages with nested payloads.
+     *
+     * @param peerInternalData The internal data received from the peer, may be null
+     * @return True if the peer supports nested envelopes
+     */
+    public static boolean supportsNestedEnvelope(InternalData peerInternalData) {
+        return supportsCodec(peerInternalData, AppMessage.NESTED_ENVELOPE_FEATURE);
+    }
+
+    /**
+     * Check whether the given peer can read the given wire codec.
+     *
+     * @param packageName The package name of the peer
+     * @param codec       The codec, such as {@link WireFormat#CODEC_BINARY}
+     * @return True if the peer has advertised support for the codec
+     */
+    public static boolean supportsCodec(String packageName, String codec) {
+        return supportsCodec(getPeerInternalData(packageName), codec);
+    }
+
+    /**
+     * Check whether the sender of the given internal data can read the given wire codec.
+     *
+     * @param peerInternalData The internal data received from the peer, may be null
+     * @param codec            The codec, such as {@link WireFormat#CODEC_BINARY}
+     * @return True if the peer has advertised support for the codec
+     */
+    public static boolean supportsCodec(InternalData peerInternalData, String codec) {
+        if (peerInternalData == null || peerInternalData.getAdditionalData() == null) {
+            return false;
+        }
+        return WireFormat.containsCodec(peerInternalData.getAdditionalData().get(WireFormat.INTERNAL_DATA_KEY), codec);
+    }
+
+    /**
+     * Forget all known peers.
+     */
+    public static void clear() {
+        PEERS.clear();
+    }
+}
@@ -3,26 +3,39 @@ package com.aevi.sdk.flow;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Build;
 import com.aevi.android.rxmessenger.client.ObservableMessengerClient;
+import com.aevi.sdk.flow.codec.WireFormat;
+import com.aevi.sdk.flow.constants.InternalDataKeys;
 import com.aevi.sdk.flow.model.*;
+import com.aevi.sdk.flow.util.PeerCapabilities;
 import io.reactivex.Observable;
+import io.reactivex.Single;
 import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subscribers.TestSubscriber;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowApplication;
 
+import java.util.Arrays;
 import java.util.List;
 
 import static com.aevi.sdk.flow.TestHelper.pretendServiceIsInstalled;
 import static org.assertj.core.api.Java6Assertions.assertThat;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -52,6 +65,7 @@ public class BaseApiClientTest {
     }
 
     private TestApiBase apiBase;
+    private int messengerClientsCreated;
 
     @Mock
     private ObservableMessengerClient messengerClient;
@@ -62,10 +76,24 @@ public class BaseApiClientTest {
         apiBase = new TestApiBase("1.2.3") {
             @Override
             protected ObservableMessengerClient getMessengerClient(ComponentName componentName) {
+                messengerClientsCreated++;
                 return messengerClient;
             }
         };
         when(messengerClient.sendMessage(anyString())).thenReturn(Observable.just("{}"));
+        // The pool is process wide, so make sure no channels from other tests are handed out
+        BaseApiClient.getChannelPool().closeIdleChannels();
+        // Only advertise channel reuse, so that messages are still sent in the legacy form
+        InternalData fpsInternalData = new InternalData("2.0.0");
+        fpsInternalData.setSenderPackageName(BaseApiClient.FLOW_PROCESSING_SERVICE);
+        fpsInternalData.addAdditionalData(WireFormat.INTERNAL_DATA_KEY, ChannelPool.REUSE_FEATURE);
+        PeerCapabilities.recordPeer(fpsInternalData);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BaseApiClient.getChannelPool().closeIdleChannels();
+        PeerCapabilities.clear();
     }
 
     @Test
@@ -92,6 +120,30 @@ public class BaseApiClientTest {
         assertThat(BaseApiClient.isProcessingServiceInstalled(RuntimeEnvironment.application)).isTrue();
     }
 
+    @Test
+    public void callIsProcessingServiceInstalledShouldUseCachedValue() throws Exception {
+        pretendServiceIsInstalled(BaseApiClient.FLOW_PROCESSING_SERVICE_COMPONENT);
+        ProcessingServiceCache cache = BaseApiClient.getProcessingServiceCache();
+        BaseApiClient.isProcessingServiceInstalled(RuntimeEnvironment.application);
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+
+        assertThat(BaseApiClient.isProcessingServiceInstalled(RuntimeEnvironment.application)).isTrue();
+        assertThat(cache.getHitCount()).isEqualTo(hits + 1);
+        assertThat(cache.getMissCount()).isEqualTo(misses);
+    }
+
+    @Test
+    public void callIsProcessingServiceInstalledShouldRefreshWhenPackageChanges() throws Exception {
+        assertThat(BaseApiClient.isProcessingServiceInstalled(RuntimeEnvironment.application)).isFalse();
+        pretendServiceIsInstalled(BaseApiClient.FLOW_PROCESSING_SERVICE_COMPONENT);
+
+        Intent intent = new Intent(Intent.ACTION_PACKAGE_ADDED, Uri.parse("package:" + BaseApiClient.FLOW_PROCESSING_SERVICE));
+        RuntimeEnvironment.application.sendBroadcast(intent);
+
+        assertThat(BaseApiClient.isProcessingServiceInstalled(RuntimeEnvironment.application)).isTrue();
+    }
+
     @Test
     public void getDevicesShouldSendCorrectMessage() throws Exception {
         pretendServiceIsInstalled(BaseApiClient.FLOW_PROCESSING_SERVICE_COMPONENT);
@@ -99,7 +151,86 @@ public class BaseApiClientTest {
 
         AppMessage appMessage = callSendAndCaptureMessage();
         assertThat(appMessage).isNotNull();
-        verify(messengerClient).closeConnection();
+        verify(messengerClient, never()).closeConnection(); // Kept in the channel pool
+    }
+
+    @Test
+    public void getDevicesShouldReuseChannelFromPool() throws Exception {
+        pretendServiceIsInstalled(BaseApiClient.FLOW_PROCESSING_SERVICE_COMPONENT);
+        when(messengerClient.isConnected()).thenReturn(true);
+        long hits = BaseApiClient.getChannelPool().getHitCount();
+
+        apiBase.getDevices().test();
+        apiBase.getDevices().test();
+
+        assertThat(BaseApiClient.getChannelPool().getHitCount()).isGreaterThan(hits);
+        verify(messengerClient, never()).closeConnection();
+    }
+
+    @Test
+    public void shouldReusePooledChannelAfterEndOfStream() throws Exception {
+        pretendServiceIsInstalled(BaseApiClient.FLOW_PROCESSING_SERVICE_COMPONENT);
+        when(messengerClient.isConnected()).thenReturn(true);
+
+        apiBase.initiateRequest(new Request("one", new AdditionalData())).test().assertComplete();
+        apiBase.initiateRequest(new Request("two", new AdditionalData())).test().assertComplete();
+
+        assertThat(messengerClientsCreated).isEqualTo(1);
+        verify(messengerClient, times(2)).sendMessage(anyString());
+        verify(messengerClient, never()).closeConnection();
+    }
+
+    @Test
+    public void shouldCloseChannelAfterEndOfStreamIfReuseNotAdvertised() throws Exception {
+        pretendServiceIsInstalled(BaseApiClient.FLOW_PROCESSING_SERVICE_COMPONENT);
+        when(messengerClient.isConnected()).thenReturn(true);
+        PeerCapabilities.clear();
+
+        apiBase.initiateRequest(new Request("one", new AdditionalData())).test().assertComplete();
+        apiBase.initiateRequest(new Request("two", new AdditionalData())).test().assertComplete();
+
+        assertThat(messengerClientsCreated).isEqualTo(2);
+        verify(messengerClient, times(2)).closeConnection();
+        assertThat(BaseApiClient.getChannelPool().getIdleCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void sendFramesShouldSendAllFramesInOrderAndCompleteWithAnyResponseStream() throws Exception {
+        PublishSubject<String> firstResponses = PublishSubject.create();
+        PublishSubject<String> lastResponses = PublishSubject.create();
+        when(messengerClient.sendMessage("one")).thenReturn(firstResponses);
+        when(messengerClient.sendMessage("two")).thenReturn(PublishSubject.<String>create());
+        when(messengerClient.sendMessage("three")).thenReturn(lastResponses);
+
+        TestObserver<String> testObserver = BaseApiClient.sendFrames(messengerClient, Arrays.asList("one", "two", "three")).test();
+        InOrder inOrder = inOrder(messengerClient);
+        inOrder.verify(messengerClient).sendMessage("one");
+        inOrder.verify(messengerClient).sendMessage("two");
+        inOrder.verify(messengerClient).sendMessage("three");
+        lastResponses.onNext("response");
+        lastResponses.onComplete();
+
+        testObserver.assertValues("response").assertComplete();
+        assertThat(firstResponses.hasObservers()).isFalse();
+    }
+
+    @Test
+    public void sendFramesShouldErrorIfAnyFrameFailsToSend() throws Exception {
+        when(messengerClient.sendMessage("one")).thenReturn(PublishSubject.<String>create());
+        when(messengerClient.sendMessage("two")).thenReturn(Observable.<String>error(new RuntimeException("bad")));
+
+        BaseApiClient.sendFrames(messengerClient, Arrays.asList("one", "two")).test().assertError(RuntimeException.class);
+    }
+
+    @Test
+    public void getDevicesShouldSendNewRequestWhenResubscribed() throws Exception {
+        pretendServiceIsInstalled(BaseApiClient.FLOW_PROCESSING_SERVICE_COMPONENT);
+        Single<List<Device>> devices = apiBase.getDevices();
+
+        devices.test().assertComplete();
+        devices.test().assertComplete();
+
+        verify(messengerClient, times(2)).sendMessage(anyString());
     }
 
     @Test
@@ -121,7 +252,38 @@ public class BaseApiClientTest {
         assertThat(appMessage).isNotNull();
         testObserver.assertValueCount(1);
         assertThat(testObserver.values().get(0)).isEqualTo(flowEvent);
-        verify(messengerClient).closeConnection();
+        verify(messengerClient, never()).closeConnection(); // Kept in the channel pool
+    }
+
+    @Test
+    public void subscribeToSystemEventsWithTypesShouldSendFilterAndFilterEvents() throws Exception {
+        pretendServiceIsInstalled(BaseApiClient.FLOW_PROCESSING_SERVICE_COMPONENT);
+        FlowEvent wanted = new FlowEvent("wanted");
+        FlowEvent other = new FlowEvent("other");
+        when(messengerClient.sendMessage(anyString())).thenReturn(Observable.just(other.toJson(), wanted.toJson()));
+        TestObserver<FlowEvent> testObserver = apiBase.subscribeToSystemEvents("wanted").test();
+
+        AppMessage appMessage = callSendAndCaptureMessage();
+        assertThat(appMessage.getInternalData().getAdditionalData().get(InternalDataKeys.EVENT_TYPES)).isEqualTo("wanted");
+        testObserver.assertValues(wanted);
+    }
+
+    @Test
+    public void initiateRequestsShouldSendAllRequestsAndReportEachOutcome() throws Exception {
+        pretendServiceIsInstalled(BaseApiClient.FLOW_PROCESSING_SERVICE_COMPONENT);
+        when(messengerClient.sendMessage(anyString())).thenReturn(Observable.just("{}"), Observable.<String>error(new RuntimeException("bad")),
+                                                                  Observable.just("{}"));
+        List<Request> requests = Arrays.asList(new Request("one", new AdditionalData()), new Request("two", new AdditionalData()),
+                                               new Request("three", new AdditionalData()));
+
+        TestSubscriber<BatchItemResult<Request>> testSubscriber = apiBase.initiateRequests(requests, 2).test();
+
+        verify(messengerClient, times(3)).sendMessage(anyString());
+        testSubscriber.assertValueCount(3).assertComplete();
+        assertThat(testSubscriber.values().get(0).isAccepted()).isTrue();
+        assertThat(testSubscriber.values().get(1).isAccepted()).isFalse();
+        assertThat(testSubscriber.values().get(1).getItem()).isSameAs(requests.get(1));
+        assertThat(testSubscriber.values().get(2).isAccepted()).isTrue();
     }
 
     @Test
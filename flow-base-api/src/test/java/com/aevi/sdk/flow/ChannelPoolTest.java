@@ -0,0 +1,136 @@
+package com.aevi.sdk.flow;
+
+import com.aevi.android.rxmessenger.ChannelClient;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class ChannelPoolTest {
+
+    private ChannelPool channelPool;
+
+    @Mock
+    private ChannelClient channelClient;
+
+    @Mock
+    private ChannelClient otherChannelClient;
+
+    private int channelsCreated;
+
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+        channelPool = new ChannelPool();
+        when(channelClient.isConnected()).thenReturn(true);
+        when(otherChannelClient.isConnected()).thenReturn(true);
+    }
+
+    @Test
+    public void shouldCreateChannelOnFirstLease() {
+        ChannelPool.Lease lease = channelPool.acquire("fps", factoryFor(channelClient));
+
+        assertThat(lease.getChannel()).isSameAs(channelClient);
+        assertThat(channelPool.getMissCount()).isEqualTo(1);
+        assertThat(channelPool.getHitCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldReuseChannelReleasedAfterCompletedExchange() {
+        ChannelPool.Lease lease = channelPool.acquire("fps", factoryFor(channelClient));
+        lease.setReusable();
+        channelPool.release(lease);
+
+        ChannelPool.Lease secondLease = channelPool.acquire("fps", factoryFor(otherChannelClient));
+
+        assertThat(secondLease.getChannel()).isSameAs(channelClient);
+        assertThat(channelsCreated).isEqualTo(1);
+        assertThat(channelPool.getHitCount()).isEqualTo(1);
+        verify(channelClient, never()).closeConnection();
+    }
+
+    @Test
+    public void shouldCloseChannelReleasedAfterFailedExchange() {
+        ChannelPool.Lease lease = channelPool.acquire("fps", factoryFor(channelClient));
+        channelPool.release(lease);
+
+        verify(channelClient).closeConnection();
+        assertThat(channelPool.getIdleCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldNotShareChannelsBetweenComponents() {
+        ChannelPool.Lease lease = channelPool.acquire("fps", factoryFor(channelClient));
+        lease.setReusable();
+        channelPool.release(lease);
+
+        ChannelPool.Lease otherLease = channelPool.acquire("events", factoryFor(otherChannelClient));
+
+        assertThat(otherLease.getChannel()).isSameAs(otherChannelClient);
+        assertThat(channelPool.getMissCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldReplaceChannelDisconnectedWhileIdle() {
+        ChannelPool.Lease lease = channelPool.acquire("fps", factoryFor(channelClient));
+        lease.setReusable();
+        channelPool.release(lease);
+        when(channelClient.isConnected()).thenReturn(false);
+
+        ChannelPool.Lease secondLease = channelPool.acquire("fps", factoryFor(otherChannelClient));
+
+        assertThat(secondLease.getChannel()).isSameAs(otherChannelClient);
+        assertThat(channelPool.getEvictionCount()).isEqualTo(1);
+        verify(channelClient).closeConnection();
+    }
+
+    @Test
+    public void shouldCloseIdleChannelAfterLingerTime() throws Exception {
+        channelPool.setLingerTime(10, TimeUnit.MILLISECONDS);
+        ChannelPool.Lease lease = channelPool.acquire("fps", factoryFor(channelClient));
+        lease.setReusable();
+        channelPool.release(lease);
+
+        verify(channelClient, timeout(2000)).closeConnection();
+        assertThat(channelPool.getIdleCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldCloseChannelsImmediatelyIfLingerTimeIsZero() {
+        channelPool.setLingerTime(0, TimeUnit.MILLISECONDS);
+        ChannelPool.Lease lease = channelPool.acquire("fps", factoryFor(channelClient));
+        lease.setReusable();
+        channelPool.release(lease);
+
+        verify(channelClient).closeConnection();
+    }
+
+    @Test
+    public void shouldNotKeepMoreThanMaxIdleChannels() {
+        channelPool.setMaxIdleChannels(1);
+        ChannelPool.Lease lease = channelPool.acquire("fps", factoryFor(channelClient));
+        ChannelPool.Lease otherLease = channelPool.acquire("fps", factoryFor(otherChannelClient));
+        lease.setReusable();
+        otherLease.setReusable();
+        channelPool.release(lease);
+        channelPool.release(otherLease);
+
+        assertThat(channelPool.getIdleCount()).isEqualTo(1);
+        verify(otherChannelClient).closeConnection();
+    }
+
+    private ChannelPool.ChannelFactory factoryFor(final ChannelClient channel) {
+        return new ChannelPool.ChannelFactory() {
+            @Override
+            public ChannelClient createChannel() {
+                channelsCreated++;
+                return channel;
+            }
+        };
+    }
+}
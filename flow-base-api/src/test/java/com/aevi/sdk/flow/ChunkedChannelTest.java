@@ -0,0 +1,105 @@
+package com.aevi.sdk.flow;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import com.aevi.sdk.flow.codec.ChunkedTransfer;
+import com.aevi.sdk.flow.constants.AppMessageTypes;
+import com.aevi.sdk.flow.model.AdditionalData;
+import com.aevi.sdk.flow.model.AppMessage;
+import com.aevi.sdk.flow.model.InternalData;
+import com.aevi.sdk.flow.model.Request;
+import com.aevi.sdk.flow.service.BaseApiService;
+import com.aevi.sdk.flow.service.ClientCommunicator;
+import com.aevi.sdk.flow.service.RequestDispatcher;
+import com.aevi.sdk.flow.util.PeerCapabilities;
+import io.reactivex.observers.TestObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.concurrent.Executor;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+@Config(sdk = Build.VERSION_CODES.LOLLIPOP, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class ChunkedChannelTest {
+
+    public static class EchoService extends BaseApiService {
+
+        public EchoService() {
+            super("1.0.0");
+            setRequestDispatcher(new RequestDispatcher(new Executor() {
+                @Override
+                public void execute(Runnable runnable) {
+                    runnable.run();
+                }
+            }));
+        }
+
+        @Override
+        protected void processRequest(@NonNull ClientCommunicator clientCommunicator, @NonNull String request, @NonNull String flowStage) {
+            clientCommunicator.sendResponseAndEnd(request);
+        }
+    }
+
+    private ComponentName serviceComponent;
+    private BaseApiClient apiClient;
+
+    @Before
+    public void setUp() throws Exception {
+        ChunkedTransfer.setMaxFrameLength(1024);
+        serviceComponent = new ComponentName(RuntimeEnvironment.application, EchoService.class);
+        EchoService service = Robolectric.setupService(EchoService.class);
+        ShadowApplication.getInstance()
+                .setComponentNameAndServiceForBindService(serviceComponent, service.onBind(new Intent().setComponent(serviceComponent)));
+
+        InternalData serviceInternalData = new InternalData("1.0.0");
+        serviceInternalData.setSenderPackageName(serviceComponent.getPackageName());
+        PeerCapabilities.recordPeer(serviceInternalData);
+
+        apiClient = new BaseApiClient("1.0.0", RuntimeEnvironment.application) {
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ChunkedTransfer.setMaxFrameLength(ChunkedTransfer.DEFAULT_MAX_FRAME_LENGTH);
+        PeerCapabilities.clear();
+    }
+
+    @Test
+    public void canSendAndReceiveMultiFrameMessages() throws Exception {
+        AdditionalData additionalData = new AdditionalData();
+        additionalData.addData("large", createString(10000));
+        Request request = new Request("echo", additionalData);
+        AppMessage appMessage = new AppMessage(AppMessageTypes.REQUEST_MESSAGE, request.toJson(), apiClient.getInternalData());
+        assertThat(ChunkedTransfer.needsChunking(appMessage.toWire(PeerCapabilities.getPeerInternalData(serviceComponent.getPackageName()))))
+                .isTrue();
+
+        TestObserver<String> testObserver = apiClient.sendMessage(serviceComponent, appMessage).test();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        testObserver.assertNoErrors().assertComplete();
+        AppMessage response = AppMessage.fromJson(testObserver.values().get(testObserver.valueCount() - 1));
+        assertThat(response.getMessageType()).isEqualTo(AppMessageTypes.RESPONSE_MESSAGE);
+        assertThat(Request.fromJson(response.getMessageData())).isEqualTo(request);
+    }
+
+    private static String createString(int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,136 @@
+package com.aevi.sdk.flow;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import com.aevi.android.rxmessenger.ChannelServer;
+import com.aevi.sdk.flow.codec.ChunkedTransfer;
+import com.aevi.sdk.flow.codec.WireFormat;
+import com.aevi.sdk.flow.constants.AppMessageTypes;
+import com.aevi.sdk.flow.model.AdditionalData;
+import com.aevi.sdk.flow.model.AppMessage;
+import com.aevi.sdk.flow.model.InternalData;
+import com.aevi.sdk.flow.model.Request;
+import com.aevi.sdk.flow.service.BaseApiService;
+import com.aevi.sdk.flow.service.ClientCommunicator;
+import com.aevi.sdk.flow.service.RequestDispatcher;
+import com.aevi.sdk.flow.util.PeerCapabilities;
+import io.reactivex.observers.TestObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.concurrent.Executor;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+@Config(sdk = Build.VERSION_CODES.LOLLIPOP, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class PooledChannelTest {
+
+    public static class EchoService extends BaseApiService {
+
+        static int clientCount;
+
+        public EchoService() {
+            super("1.0.0");
+            setRequestDispatcher(new RequestDispatcher(new Executor() {
+                @Override
+                public void execute(Runnable runnable) {
+                    runnable.run();
+                }
+            }));
+        }
+
+        @Override
+        protected void onNewClient(ChannelServer channelServer, String packageName) {
+            clientCount++;
+            super.onNewClient(channelServer, packageName);
+        }
+
+        @Override
+        protected void processRequest(@NonNull ClientCommunicator clientCommunicator, @NonNull String request, @NonNull String flowStage) {
+            clientCommunicator.sendResponseAndEnd(request);
+        }
+    }
+
+    private ComponentName serviceComponent;
+    private BaseApiClient apiClient;
+    private ChannelPool channelPool;
+
+    @Before
+    public void setUp() throws Exception {
+        EchoService.clientCount = 0;
+        serviceComponent = new ComponentName(RuntimeEnvironment.application, EchoService.class);
+        EchoService service = Robolectric.setupService(EchoService.class);
+        ShadowApplication.getInstance()
+                .setComponentNameAndServiceForBindService(serviceComponent, service.onBind(new Intent().setComponent(serviceComponent)));
+
+        channelPool = BaseApiClient.getChannelPool();
+        channelPool.closeIdleChannels();
+        apiClient = new BaseApiClient("1.0.0", RuntimeEnvironment.application) {
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        channelPool.closeIdleChannels();
+        PeerCapabilities.clear();
+    }
+
+    @Test
+    public void shouldReuseChannelAfterEndOfStreamIfPeerAdvertisesReuse() throws Exception {
+        recordServicePeer(WireFormat.SUPPORTED_CODECS);
+        long hits = channelPool.getHitCount();
+
+        Request first = new Request("first", new AdditionalData());
+        Request second = new Request("second", new AdditionalData());
+        assertEchoed(first);
+        assertEchoed(second);
+
+        assertThat(channelPool.getHitCount()).isEqualTo(hits + 1);
+        assertThat(channelPool.getIdleCount()).isEqualTo(1);
+        assertThat(EchoService.clientCount).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotReuseChannelIfPeerDoesNotAdvertiseReuse() throws Exception {
+        recordServicePeer(ChunkedTransfer.FEATURE + "," + AppMessage.NESTED_ENVELOPE_FEATURE);
+        long hits = channelPool.getHitCount();
+        long misses = channelPool.getMissCount();
+
+        assertEchoed(new Request("first", new AdditionalData()));
+        assertEchoed(new Request("second", new AdditionalData()));
+
+        assertThat(channelPool.getHitCount()).isEqualTo(hits);
+        assertThat(channelPool.getMissCount()).isEqualTo(misses + 2);
+        assertThat(channelPool.getIdleCount()).isEqualTo(0);
+    }
+
+    private void recordServicePeer(String codecs) {
+        InternalData serviceInternalData = new InternalData("1.0.0");
+        serviceInternalData.setSenderPackageName(serviceComponent.getPackageName());
+        serviceInternalData.addAdditionalData(WireFormat.INTERNAL_DATA_KEY, codecs);
+        PeerCapabilities.recordPeer(serviceInternalData);
+    }
+
+    private void assertEchoed(Request request) {
+        AppMessage appMessage = new AppMessage(AppMessageTypes.REQUEST_MESSAGE, request.toJson(), apiClient.getInternalData());
+
+        TestObserver<String> testObserver = apiClient.sendMessage(serviceComponent, appMessage).test();
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        testObserver.assertNoErrors().assertComplete();
+        AppMessage response = AppMessage.fromJson(testObserver.values().get(testObserver.valueCount() - 1));
+        assertThat(response.getMessageType()).isEqualTo(AppMessageTypes.RESPONSE_MESSAGE);
+        assertThat(Request.fromJson(response.getMessageData())).isEqualTo(request);
+    }
+}
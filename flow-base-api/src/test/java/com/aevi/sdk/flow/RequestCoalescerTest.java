@@ -0,0 +1,90 @@
+package com.aevi.sdk.flow;
+
+import io.reactivex.Single;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.SingleSubject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class RequestCoalescerTest {
+
+    private RequestCoalescer coalescer;
+    private SingleSubject<String> response;
+    private int requestsCreated;
+
+    private final Callable<Single<String>> request = new Callable<Single<String>>() {
+        @Override
+        public Single<String> call() throws Exception {
+            requestsCreated++;
+            response = SingleSubject.create();
+            return response;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        coalescer = new RequestCoalescer();
+    }
+
+    @Test
+    public void shouldShareInFlightRequest() {
+        TestObserver<String> first = coalescer.coalesce("devices", request).test();
+        TestObserver<String> second = coalescer.coalesce("devices", request).test();
+
+        response.onSuccess("result");
+
+        assertThat(requestsCreated).isEqualTo(1);
+        first.assertValue("result");
+        second.assertValue("result");
+        assertThat(coalescer.getRequestCount()).isEqualTo(1);
+        assertThat(coalescer.getSuppressedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotShareBetweenDifferentKeys() {
+        coalescer.coalesce("devices", request).test();
+        coalescer.coalesce("settings", request).test();
+
+        assertThat(requestsCreated).isEqualTo(2);
+        assertThat(coalescer.getSuppressedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldSendNewRequestOnceCompletedWithoutTimeToLive() {
+        coalescer.coalesce("devices", request).test();
+        response.onSuccess("result");
+
+        coalescer.coalesce("devices", request).test();
+
+        assertThat(requestsCreated).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldShareCompletedResultWithinTimeToLive() {
+        coalescer.setTimeToLive(1, TimeUnit.MINUTES);
+        coalescer.coalesce("devices", request).test();
+        response.onSuccess("result");
+
+        TestObserver<String> later = coalescer.coalesce("devices", request).test();
+
+        assertThat(requestsCreated).isEqualTo(1);
+        later.assertValue("result");
+    }
+
+    @Test
+    public void shouldNotShareFailedResult() {
+        coalescer.setTimeToLive(1, TimeUnit.MINUTES);
+        TestObserver<String> first = coalescer.coalesce("devices", request).test();
+        response.onError(new RuntimeException("failed"));
+
+        coalescer.coalesce("devices", request).test();
+
+        first.assertError(RuntimeException.class);
+        assertThat(requestsCreated).isEqualTo(2);
+    }
+}
@@ -0,0 +1,131 @@
+package com.aevi.sdk.flow;
+
+import com.aevi.sdk.flow.model.AdditionalData;
+import com.aevi.sdk.flow.model.FlowEvent;
+import io.reactivex.BackpressureOverflowStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.exceptions.MissingBackpressureException;
+import io.reactivex.processors.PublishProcessor;
+import io.reactivex.subscribers.TestSubscriber;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class SystemEventStreamTest {
+
+    private static final Set<String> ALL_EVENTS = Collections.emptySet();
+
+    private SystemEventStream eventStream;
+    private PublishProcessor<FlowEvent> upstream;
+    private int connectCount;
+    private Set<String> requestedTypes;
+
+    private final SystemEventStream.EventSource eventSource = new SystemEventStream.EventSource() {
+        @Override
+        public Flowable<FlowEvent> createEvents(Set<String> types) {
+            connectCount++;
+            requestedTypes = types;
+            return upstream;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        eventStream = new SystemEventStream();
+        upstream = PublishProcessor.create();
+    }
+
+    @Test
+    public void shouldShareUpstreamBetweenSubscribers() {
+        TestSubscriber<FlowEvent> first = eventStream.subscribe(eventSource, ALL_EVENTS).test();
+        TestSubscriber<FlowEvent> second = eventStream.subscribe(eventSource, ALL_EVENTS).test();
+
+        FlowEvent event = createEvent(1);
+        upstream.onNext(event);
+
+        assertThat(connectCount).isEqualTo(1);
+        first.assertValue(event);
+        second.assertValue(event);
+        assertThat(second.values().get(0)).isSameAs(first.values().get(0));
+    }
+
+    @Test
+    public void shouldReplayRecentEventsToLateSubscribers() {
+        eventStream.setReplaySize(2);
+        TestSubscriber<FlowEvent> first = eventStream.subscribe(eventSource, ALL_EVENTS).test();
+        for (int i = 0; i < 5; i++) {
+            upstream.onNext(createEvent(i));
+        }
+
+        TestSubscriber<FlowEvent> late = eventStream.subscribe(eventSource, ALL_EVENTS).test();
+
+        first.assertValueCount(5);
+        late.assertValues(createEvent(3), createEvent(4));
+    }
+
+    @Test
+    public void shouldDropOldestEventsForSlowSubscriber() {
+        eventStream.setBackpressure(3, BackpressureOverflowStrategy.DROP_OLDEST);
+        TestSubscriber<FlowEvent> slow = eventStream.subscribe(eventSource, ALL_EVENTS).test(0);
+        TestSubscriber<FlowEvent> fast = eventStream.subscribe(eventSource, ALL_EVENTS).test();
+        for (int i = 0; i < 10; i++) {
+            upstream.onNext(createEvent(i));
+        }
+
+        slow.request(10);
+
+        fast.assertValueCount(10);
+        slow.assertValues(createEvent(7), createEvent(8), createEvent(9));
+        slow.assertNoErrors();
+    }
+
+    @Test
+    public void shouldErrorIfBoundedBufferOverflows() {
+        eventStream.setBackpressure(3, BackpressureOverflowStrategy.ERROR);
+        TestSubscriber<FlowEvent> slow = eventStream.subscribe(eventSource, ALL_EVENTS).test(0);
+        for (int i = 0; i < 5; i++) {
+            upstream.onNext(createEvent(i));
+        }
+
+        slow.assertError(MissingBackpressureException.class);
+    }
+
+    @Test
+    public void shouldReconnectOnceAllSubscribersHaveGone() {
+        eventStream.subscribe(eventSource, ALL_EVENTS).test().dispose();
+        assertThat(upstream.hasSubscribers()).isFalse();
+
+        eventStream.subscribe(eventSource, ALL_EVENTS).test();
+
+        assertThat(connectCount).isEqualTo(2);
+        assertThat(upstream.hasSubscribers()).isTrue();
+    }
+
+    @Test
+    public void shouldShareUpstreamPerSetOfEventTypes() {
+        Set<String> types = new HashSet<>(Arrays.asList("one", "two"));
+        eventStream.subscribe(eventSource, types).test();
+        assertThat(requestedTypes).containsOnly("one", "two");
+
+        eventStream.subscribe(eventSource, new HashSet<>(Arrays.asList("two", "one"))).test();
+        assertThat(connectCount).isEqualTo(1);
+
+        eventStream.subscribe(eventSource, ALL_EVENTS).test();
+        assertThat(connectCount).isEqualTo(2);
+        assertThat(requestedTypes).isEmpty();
+    }
+
+    @Test
+    public void canReadTypeWithoutDeserialisingEvent() {
+        assertThat(FlowEvent.readType(createEvent(1).toJson())).isEqualTo("type");
+    }
+
+    private static FlowEvent createEvent(int index) {
+        AdditionalData data = new AdditionalData();
+        data.addData("index", index);
+        return new FlowEvent("type", data, "trigger");
+    }
+}
@@ -0,0 +1,95 @@
+package com.aevi.sdk.flow.codec;
+
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChunkedTransferTest {
+
+    @Test
+    public void canSplitAndReassembleLargeMessage() {
+        String message = createMessage(3 * 1024 * 1024);
+
+        List<String> frames = ChunkedTransfer.split(message, ChunkedTransfer.DEFAULT_MAX_FRAME_LENGTH);
+        String result = reassemble(new ChunkedTransfer.Reassembler(), frames);
+
+        assertThat(frames).hasSize(24);
+        for (String frame : frames) {
+            assertThat(frame.length()).isLessThan(ChunkedTransfer.DEFAULT_MAX_FRAME_LENGTH + 100);
+        }
+        assertThat(result).isEqualTo(message);
+    }
+
+    @Test
+    public void willPassThroughMessagesThatAreNotFrames() {
+        ChunkedTransfer.Reassembler reassembler = new ChunkedTransfer.Reassembler();
+
+        assertThat(reassembler.onMessage("{}")).isEqualTo("{}");
+    }
+
+    @Test
+    public void canReassembleConsecutiveTransfers() {
+        ChunkedTransfer.Reassembler reassembler = new ChunkedTransfer.Reassembler();
+        String first = createMessage(5000);
+        String second = createMessage(7000);
+
+        assertThat(reassemble(reassembler, ChunkedTransfer.split(first, 1024))).isEqualTo(first);
+        assertThat(reassemble(reassembler, ChunkedTransfer.split(second, 1024))).isEqualTo(second);
+        assertThat(reassembler.isTransferInProgress()).isFalse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void willRejectCorruptFrame() {
+        List<String> frames = ChunkedTransfer.split(createMessage(5000), 1024);
+        String corrupt = frames.get(1).substring(0, frames.get(1).length() - 1) + "#";
+        ChunkedTransfer.Reassembler reassembler = new ChunkedTransfer.Reassembler();
+
+        reassembler.onMessage(frames.get(0));
+        reassembler.onMessage(corrupt);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void willRejectFramesOutOfSequence() {
+        List<String> frames = ChunkedTransfer.split(createMessage(5000), 1024);
+        ChunkedTransfer.Reassembler reassembler = new ChunkedTransfer.Reassembler();
+
+        reassembler.onMessage(frames.get(0));
+        reassembler.onMessage(frames.get(2));
+    }
+
+    @Test
+    public void willNotSplitSurrogatePairs() {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            message.append("a\uD83D\uDE00");
+        }
+
+        List<String> frames = ChunkedTransfer.split(message.toString(), 1024);
+
+        for (String frame : frames) {
+            assertThat(Character.isHighSurrogate(frame.charAt(frame.length() - 1))).isFalse();
+        }
+        assertThat(reassemble(new ChunkedTransfer.Reassembler(), frames)).isEqualTo(message.toString());
+    }
+
+    private static String reassemble(ChunkedTransfer.Reassembler reassembler, List<String> frames) {
+        String result = null;
+        for (String frame : frames) {
+            assertThat(result).isNull();
+            result = reassembler.onMessage(frame);
+        }
+        return result;
+    }
+
+    private static String createMessage(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            sb.append("{\"label\":\"item ").append(sb.length()).append("\"},");
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,216 @@
+package com.aevi.sdk.flow.codec;
+
+
+import com.aevi.sdk.flow.model.*;
+import com.aevi.util.json.JsonOption;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WireFormatTest {
+
+    private Request request;
+
+    @Before
+    public void setUp() throws Exception {
+        AdditionalData data = new AdditionalData();
+        data.addData("string", "value with \" quotes and ünicode");
+        data.addData("int", 42);
+        data.addData("long", -123456789012L);
+        data.addData("boolean", true);
+        data.addData("double", 1.5d);
+        data.addData("strings", "one", "two", "three");
+        data.addData("audience", DeviceAudience.CUSTOMER);
+        data.addData("token", new Token("1234", "card", "sha256"));
+        Customer customer = new Customer("cust-1");
+        customer.setFullName("Mr Test");
+        data.addData("customer", customer);
+        request = new Request("test", data);
+        request.setDeviceId("device-1");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        WireFormat.setLazyOptionDecoding(false);
+    }
+
+    @Test
+    public void canPackAndUnpackAnyLength() {
+        Random random = new Random(1);
+        for (int length = 0; length < 64; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+
+            String packed = WireFormat.pack(bytes);
+
+            assertThat(WireFormat.isBinary(packed)).isTrue();
+            assertThat(WireFormat.unpack(packed)).isEqualTo(bytes);
+        }
+    }
+
+    @Test
+    public void canRoundTripRequestInBinaryForm() {
+        String binary = WireFormat.serialize(request, true);
+
+        Request result = Request.fromJson(binary);
+
+        assertThat(WireFormat.isBinary(binary)).isTrue();
+        assertThat(result).isEqualTo(request);
+        AdditionalData data = result.getRequestData();
+        assertThat(data.getValue("int", Integer.class)).isEqualTo(42);
+        assertThat(data.getValue("long", Long.class)).isEqualTo(-123456789012L);
+        assertThat(data.getValue("double", Double.class)).isEqualTo(1.5d);
+        assertThat(data.getValue("strings", String[].class)).containsExactly("one", "two", "three");
+        assertThat(data.getValue("audience", DeviceAudience.class)).isEqualTo(DeviceAudience.CUSTOMER);
+        assertThat(data.getValue("token", Token.class)).isEqualTo(new Token("1234", "card", "sha256"));
+        assertThat(data.getValue("customer", Customer.class).getFullName()).isEqualTo("Mr Test");
+    }
+
+    @Test
+    public void binaryFormIsSmallerThanJson() {
+        assertThat(WireFormat.serialize(request, true).length()).isLessThan(request.toJson().length());
+    }
+
+    @Test
+    public void canReadJsonForm() {
+        Request result = WireFormat.deserialize(WireFormat.serialize(request, false), Request.class);
+
+        assertThat(result).isEqualTo(request);
+    }
+
+    @Test
+    public void willFallBackToJsonForUnsupportedTypes() {
+        request.getRequestData().addData("decimal", new BigDecimal("1.25"));
+
+        String serialized = WireFormat.serialize(request, true);
+
+        assertThat(WireFormat.isBinary(serialized)).isFalse();
+        assertThat(Request.fromJson(serialized).getRequestData().getValue("decimal", BigDecimal.class)).isEqualTo(new BigDecimal("1.25"));
+    }
+
+    @Test
+    public void canEmbedBinaryPayloadInBinaryAppMessage() {
+        AppMessage appMessage = new AppMessage("request", WireFormat.serialize(request, true), new InternalData("2.1.0"));
+
+        String binary = WireFormat.serialize(appMessage, true);
+        AppMessage result = AppMessage.fromJson(binary);
+
+        assertThat(binary.length()).isLessThan(appMessage.getMessageData().length() + appMessage.toJson().length() / 2);
+        assertThat(result.getMessageType()).isEqualTo("request");
+        assertThat(result.getInternalData().getSenderApiVersion()).isEqualTo("2.1.0");
+        assertThat(Request.fromJson(result.getMessageData())).isEqualTo(request);
+    }
+
+    @Test
+    public void onlySendsBinaryToPeersAdvertisingCodec() {
+        AppMessage appMessage = new AppMessage("request", request.toJson(), new InternalData("2.1.0"));
+        InternalData newPeer = new InternalData("2.1.0");
+        InternalData oldPeer = new InternalData("2.0.0");
+        oldPeer.getAdditionalData().remove(WireFormat.INTERNAL_DATA_KEY);
+
+        assertThat(WireFormat.isBinary(appMessage.toWire(newPeer))).isTrue();
+        assertThat(WireFormat.isBinary(appMessage.toWire(oldPeer))).isFalse();
+        assertThat(WireFormat.isBinary(appMessage.toWire(null))).isFalse();
+    }
+
+    @Test
+    public void canRoundTripRequestWithLazyDecoding() {
+        WireFormat.setLazyOptionDecoding(true);
+        String binary = WireFormat.serialize(request, true);
+
+        Request result = Request.fromJson(binary);
+
+        AdditionalData data = result.getRequestData();
+        assertThat(data.getValue("customer", Customer.class).getFullName()).isEqualTo("Mr Test");
+        assertThat(data.getValue("strings", String[].class)).containsExactly("one", "two", "three");
+        assertThat(data.getValue("long", Long.class)).isEqualTo(-123456789012L);
+        assertThat(result).isEqualTo(request);
+    }
+
+    @Test
+    public void shouldOnlyDecodeValuesWhenRead() {
+        WireFormat.setLazyOptionDecoding(true);
+        OptionHolder holder = new OptionHolder();
+        holder.options.put("first", new JsonOption("value"));
+        holder.options.put("second", new JsonOption(new Token("value", "card", "value")));
+
+        OptionHolder result = BinaryCodec.decode(BinaryCodec.encode(holder), OptionHolder.class);
+
+        LazyJsonOption second = (LazyJsonOption) result.options.get("second");
+        assertThat(second.isDecoded()).isFalse();
+        assertThat(second.getType()).isEqualTo(Token.class.getName());
+        assertThat(second.getValue()).isEqualTo(new Token("value", "card", "value"));
+        assertThat(second.isDecoded()).isTrue();
+        assertThat(((LazyJsonOption) result.options.get("first")).isDecoded()).isFalse();
+    }
+
+    @Test
+    public void shouldCopyUndecodedValuesWhenEncoding() {
+        WireFormat.setLazyOptionDecoding(true);
+        Request lazy = Request.fromJson(WireFormat.serialize(request, true));
+        lazy.getRequestData().getValue("token");
+
+        String binary = WireFormat.serialize(lazy, true);
+        WireFormat.setLazyOptionDecoding(false);
+        Request result = Request.fromJson(binary);
+
+        assertThat(result).isEqualTo(request);
+        assertThat(result.getRequestData().getValue("customer", Customer.class).getFullName()).isEqualTo("Mr Test");
+    }
+
+    @Test
+    public void canRoundTripLazilyDecodedRequestToJson() {
+        WireFormat.setLazyOptionDecoding(true);
+        Request lazy = Request.fromJson(WireFormat.serialize(request, true));
+        lazy.getRequestData().getValue("token");
+
+        String json = lazy.toJson();
+        WireFormat.setLazyOptionDecoding(false);
+        Request result = Request.fromJson(json);
+
+        assertThat(WireFormat.isBinary(json)).isFalse();
+        assertThat(result).isEqualTo(request);
+        assertThat(result.getRequestData().getValue("customer", Customer.class).getFullName()).isEqualTo("Mr Test");
+        assertThat(result.getRequestData().getValue("strings", String[].class)).containsExactly("one", "two", "three");
+    }
+
+    @Test
+    public void shouldCopyUndecodedValuesIntoOtherData() {
+        WireFormat.setLazyOptionDecoding(true);
+        AdditionalData lazy = Request.fromJson(WireFormat.serialize(request, true)).getRequestData();
+        AdditionalData copy = new AdditionalData();
+
+        copy.addData(lazy, true);
+        Customer copied = copy.getValue("customer", Customer.class);
+
+        assertThat(copied.getFullName()).isEqualTo("Mr Test");
+        assertThat(new AdditionalData(lazy).getValue("customer", Customer.class)).isNotSameAs(copied);
+        assertThat(lazy.getValue("customer", Customer.class)).isNotSameAs(copied).isEqualTo(copied);
+    }
+
+    @Test
+    public void canDecodeModelsWithoutNoArgConstructor() {
+        ConstructorHolder result = BinaryCodec.decode(BinaryCodec.encode(new ConstructorHolder("value")), ConstructorHolder.class);
+
+        assertThat(result.name).isEqualTo("value");
+    }
+
+    static class ConstructorHolder {
+        final String name;
+
+        ConstructorHolder(String name) {
+            this.name = name;
+        }
+    }
+
+    static class OptionHolder {
+        Map<String, JsonOption> options = new HashMap<>();
+    }
+}
@@ -1,10 +1,12 @@
 package com.aevi.sdk.flow.model;
 
 
+import com.aevi.util.json.JsonOption;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -47,6 +49,14 @@ public class AdditionalDataTest {
         assertThat(additionalData.getValue("myLong")).isEqualTo(7736663L);
     }
 
+    @Test
+    public void canReadJsonWithNullValues() {
+        AdditionalData fromJson = AdditionalData.fromJson("{\"data\":{\"x\":null,\"myExtra\":{\"value\":\"ext\",\"type\":\"java.lang.String\"}}}");
+
+        assertThat(fromJson.getKeys()).containsOnly("myExtra");
+        assertThat(fromJson.getStringValue("myExtra")).isEqualTo("ext");
+    }
+
     @Test
     public void canRemoveOption() {
         additionalData.addData("Trump", "Donald");
@@ -153,6 +163,35 @@ public class AdditionalDataTest {
         assertThat(dataOfType).hasSize(2).containsValues(1, 2);
     }
 
+    @Test
+    public void shouldKeepValuesOfTypeConsistentWithConcurrentWrites() throws Exception {
+        additionalData.getDataOfType(Integer.class);
+        Thread[] writers = new Thread[4];
+        for (int i = 0; i < writers.length; i++) {
+            final boolean writeIntegers = i % 2 == 0;
+            writers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        if (writeIntegers) {
+                            additionalData.addData("key", j);
+                        } else {
+                            additionalData.addData("key", "value");
+                        }
+                    }
+                }
+            });
+            writers[i].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        boolean isInteger = additionalData.getValue("key") instanceof Integer;
+        assertThat(additionalData.getDataOfType(Integer.class).containsKey("key")).isEqualTo(isInteger);
+        assertThat(additionalData.getDataOfType(String.class).containsKey("key")).isEqualTo(!isInteger);
+    }
+
     @Test
     public void canGetValuesOfSuperType() throws Exception {
         additionalData.addData("int", 1);
@@ -163,4 +202,126 @@ public class AdditionalDataTest {
         Map<String, Number> dataOfType = additionalData.getDataOfType(Number.class);
         assertThat(dataOfType).hasSize(4).containsKeys("int", "long", "double", "float");
     }
+
+    @Test
+    public void canGetPrimitiveValues() throws Exception {
+        additionalData.addData("long", 123456789012L);
+        additionalData.addData("int", 42);
+        additionalData.addData("boolean", true);
+
+        assertThat(additionalData.getLongValue("long", 0)).isEqualTo(123456789012L);
+        assertThat(additionalData.getIntValue("int", 0)).isEqualTo(42);
+        assertThat(additionalData.getBoolValue("boolean", false)).isTrue();
+    }
+
+    @Test
+    public void shouldReturnDefaultPrimitiveValueIfMissingOrOfOtherType() throws Exception {
+        additionalData.addData("int", 42);
+
+        assertThat(additionalData.getLongValue("int", 7)).isEqualTo(7);
+        assertThat(additionalData.getIntValue("missing", 3)).isEqualTo(3);
+        assertThat(additionalData.getBoolValue("int", true)).isTrue();
+    }
+
+    @Test
+    public void canGetPrimitiveValuesAfterSerialisation() throws Exception {
+        additionalData.addData("long", 123456789012L);
+        additionalData.addData("int", 42);
+
+        AdditionalData result = AdditionalData.fromJson(additionalData.toJson());
+
+        assertThat(result.getLongValue("long", 0)).isEqualTo(123456789012L);
+        assertThat(result.getIntValue("int", 0)).isEqualTo(42);
+    }
+
+    @Test
+    public void shouldFallBackToTypeNameForUnknownTypes() throws Exception {
+        Map<String, JsonOption> data = new HashMap<>();
+        data.put("unknown", new JsonOption("value", "com.unknown.Type"));
+        AdditionalData unknownData = new AdditionalData(data);
+
+        assertThat(unknownData.getValue("unknown")).isNull();
+        assertThat(unknownData.getValue("unknown")).isNull();
+        assertThat(unknownData.getDataOfType(String.class)).isEmpty();
+    }
+
+    @Test
+    public void canGetValuesOfTypeAfterChanges() throws Exception {
+        additionalData.addData("one", "value");
+        additionalData.addData("two", 2);
+        assertThat(additionalData.getDataOfType(String.class)).containsOnlyKeys("one");
+
+        additionalData.addData("two", "value");
+        additionalData.addData("three", "value");
+        additionalData.removeData("one");
+
+        assertThat(additionalData.getDataOfType(String.class)).containsOnlyKeys("two", "three");
+        assertThat(additionalData.getDataOfType(Integer.class)).isEmpty();
+
+        additionalData.clearData();
+        additionalData.addData("four", 4);
+
+        assertThat(additionalData.getDataOfType(String.class)).isEmpty();
+        assertThat(additionalData.getDataOfType(Number.class)).containsOnlyKeys("four");
+    }
+
+    @Test
+    public void canGetValuesOfInterfaceAndArrayTypes() throws Exception {
+        additionalData.addData("string", "value");
+        additionalData.addData("strings", "one", "two");
+        additionalData.addData("int", 5);
+
+        assertThat(additionalData.getDataOfType(CharSequence.class)).containsOnlyKeys("string");
+        assertThat(additionalData.getDataOfType(Comparable.class)).containsOnlyKeys("string", "int");
+        assertThat(additionalData.getDataOfType(Object[].class)).containsOnlyKeys("strings");
+        assertThat(additionalData.getDataOfType(Object.class)).containsOnlyKeys("string", "strings", "int");
+    }
+
+    @Test
+    public void canGetValuesOfTypeAfterSerialisation() throws Exception {
+        additionalData.addData("one", "value");
+        additionalData.addData("two", 2);
+
+        AdditionalData result = AdditionalData.fromJson(additionalData.toJson());
+
+        assertThat(result.getDataOfType(String.class)).containsOnlyKeys("one");
+        assertThat(result.getDataOfType(Integer.class)).containsOnlyKeys("two");
+    }
+
+    @Test
+    public void canCopyDataFromOtherModel() throws Exception {
+        additionalData.addData("one", "value");
+        additionalData.addData("two", 2);
+        AdditionalData copy = new AdditionalData();
+        copy.addData("two", 3);
+        copy.addData("three", 3L);
+
+        copy.addData(additionalData, false);
+
+        assertThat(copy.getValue("one", String.class)).isEqualTo("value");
+        assertThat(copy.getValue("two", Integer.class)).isEqualTo(3);
+        assertThat(copy.getDataOfType(Integer.class)).containsOnlyKeys("two");
+
+        copy.addData(additionalData, true);
+
+        assertThat(copy.getValue("two", Integer.class)).isEqualTo(2);
+        assertThat(copy.getDataOfType(Number.class)).containsOnlyKeys("two", "three");
+    }
+
+    @Test
+    public void copiedDataShouldNotAffectOriginal() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            additionalData.addData("key" + i, i);
+        }
+        AdditionalData copy = new AdditionalData();
+        copy.addData(additionalData, true);
+
+        copy.addData("key0", "changed");
+        copy.removeData("key1");
+
+        assertThat(additionalData.getValue("key0", Integer.class)).isEqualTo(0);
+        assertThat(additionalData.hasData("key1")).isTrue();
+        assertThat(copy.getValue("key0", String.class)).isEqualTo("changed");
+        assertThat(copy.getKeys()).hasSize(19);
+    }
 }
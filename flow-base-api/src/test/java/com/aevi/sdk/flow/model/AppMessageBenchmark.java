@@ -0,0 +1,67 @@
+package com.aevi.sdk.flow.model;
+
+
+import com.aevi.sdk.flow.constants.InternalDataKeys;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the per-message allocations of reading the internal data of a received message, decoding it on every access as done previously
+ * versus decoding it once and reading the flow stage straight from the envelope.
+ *
+ * Only run when the "runBenchmarks" system property is set, as in <code>./gradlew :flow-base-api:test -DrunBenchmarks=true</code>
+ */
+public class AppMessageBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 5000;
+    private static final int ITERATIONS = 50000;
+
+    @Test
+    public void compareInternalDataAllocations() {
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarks"));
+        InternalData internalData = new InternalData("2.1.0");
+        internalData.setSenderPackageName("com.aevi.sdk.fps");
+        internalData.addAdditionalData(InternalDataKeys.FLOW_STAGE, "TRANSACTION_PROCESSING");
+        String message = new AppMessage("request", "{}", internalData).toJson(true);
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            readDecodingEachTime(message);
+            readDecodingOnce(message);
+        }
+        long before = measureAllocatedBytes(message, true);
+        long after = measureAllocatedBytes(message, false);
+        assertThat(after).as("Internal data decoded per access: %d bytes/message, decoded once: %d bytes/message", before, after)
+                .isLessThan(before);
+    }
+
+    private static long measureAllocatedBytes(String message, boolean decodeEachTime) {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long start = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (decodeEachTime) {
+                readDecodingEachTime(message);
+            } else {
+                readDecodingOnce(message);
+            }
+        }
+        return (threadMXBean.getThreadAllocatedBytes(threadId) - start) / ITERATIONS;
+    }
+
+    // As per the service receiving a message previously - once for the flow stage, once to check versions
+    private static Object readDecodingEachTime(String message) {
+        AppMessage appMessage = AppMessage.fromJson(message);
+        InternalData.fromJson(appMessage.getInternalDataJson()).getAdditionalData().get(InternalDataKeys.FLOW_STAGE);
+        return InternalData.fromJson(appMessage.getInternalDataJson());
+    }
+
+    private static Object readDecodingOnce(String message) {
+        AppMessage appMessage = AppMessage.fromJson(message);
+        appMessage.getInternalDataValue(InternalDataKeys.FLOW_STAGE);
+        return appMessage.getInternalData();
+    }
+}
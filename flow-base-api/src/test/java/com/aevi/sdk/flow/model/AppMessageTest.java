@@ -0,0 +1,178 @@
+package com.aevi.sdk.flow.model;
+
+
+import com.aevi.sdk.flow.codec.WireFormat;
+import com.aevi.sdk.flow.util.PeerCapabilities;
+import com.aevi.util.json.JsonConverter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.aevi.sdk.flow.constants.ResponseMechanisms.RESPONSE_SERVICE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AppMessageTest {
+
+    private InternalData internalData;
+    private AdditionalData requestData;
+
+    @Before
+    public void setUp() throws Exception {
+        internalData = new InternalData("2.1.0");
+        internalData.setSenderPackageName("com.test");
+        internalData.addAdditionalData("flowStage", "PRE_FLOW");
+        requestData = new AdditionalData();
+        requestData.addData("note", "quotes \" and \\ slashes\n and é");
+        requestData.addData("amount", 1000L);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        PeerCapabilities.clear();
+    }
+
+    @Test
+    public void canReadLegacyForm() {
+        AppMessage appMessage = createMessage();
+
+        AppMessage read = AppMessage.fromJson(appMessage.toJson());
+
+        assertMessageMatches(read, appMessage);
+    }
+
+    @Test
+    public void canReadNestedForm() {
+        AppMessage appMessage = createMessage();
+
+        AppMessage read = AppMessage.fromJson(appMessage.toJson(true));
+
+        assertMessageMatches(read, appMessage);
+    }
+
+    @Test
+    public void nestedFormDoesNotEmbedPayloadAsString() {
+        AppMessage appMessage = createMessage();
+
+        String json = appMessage.toJson(true);
+
+        assertThat(json).contains("\"messageData\":{");
+        assertThat(json).contains("\"internalData\":{");
+        assertThat(json.length()).isLessThan(appMessage.toJson().length());
+    }
+
+    @Test
+    public void nestedFormKeepsNonJsonDataAsString() {
+        AppMessage appMessage = new AppMessage("response", "plain text", internalData);
+
+        AppMessage read = AppMessage.fromJson(appMessage.toJson(true));
+
+        assertThat(read.getMessageData()).isEqualTo("plain text");
+    }
+
+    @Test
+    public void nestedFormKeepsDataThatOnlyLooksLikeJsonAsString() {
+        String[] notJson = {"{not json}", "[1, 2", "{\"a\": 1} {\"b\": 2}", "{\"a\": \"\\x\"}", " {\"a\": 1}"};
+        for (String data : notJson) {
+            AppMessage appMessage = new AppMessage("response", data, internalData);
+
+            String json = appMessage.toJson(true);
+
+            assertThat(json).contains("\"messageData\":\"");
+            assertThat(AppMessage.fromJson(json).getMessageData()).isEqualTo(data);
+        }
+    }
+
+    @Test
+    public void canReadMessageWithoutInternalData() {
+        AppMessage appMessage = new AppMessage("ack");
+
+        AppMessage read = AppMessage.fromJson(appMessage.toJson(true));
+
+        assertThat(read.getMessageType()).isEqualTo("ack");
+        assertThat(read.getMessageData()).isEqualTo(AppMessage.EMPTY_DATA);
+        assertThat(read.getInternalData()).isNull();
+    }
+
+    @Test
+    public void legacyFormIsUnchanged() {
+        AppMessage appMessage = createMessage();
+
+        assertThat(appMessage.toJson(false)).isEqualTo(JsonConverter.serialize(appMessage));
+    }
+
+    @Test
+    public void nestedEnvelopeOnlyUsedForPeersAdvertisingFeature() {
+        InternalData oldPeer = new InternalData("2.0.5");
+        oldPeer.setSenderPackageName("com.old");
+        oldPeer.getAdditionalData().remove(WireFormat.INTERNAL_DATA_KEY);
+        PeerCapabilities.recordPeer(oldPeer);
+        PeerCapabilities.recordPeer(internalData);
+
+        assertThat(PeerCapabilities.supportsNestedEnvelope(PeerCapabilities.getPeerInternalData("com.old"))).isFalse();
+        assertThat(PeerCapabilities.supportsNestedEnvelope(PeerCapabilities.getPeerInternalData("com.test"))).isTrue();
+        assertThat(PeerCapabilities.supportsNestedEnvelope(PeerCapabilities.getPeerInternalData("com.unknown"))).isFalse();
+    }
+
+    @Test
+    public void binaryFormOnlyUsedOverBinaryChannels() {
+        AppMessage appMessage = createMessage();
+
+        assertThat(WireFormat.isBinary(appMessage.toWire(internalData))).isTrue();
+        assertThat(WireFormat.isBinary(appMessage.toWire(internalData, false))).isFalse();
+        assertMessageMatches(AppMessage.fromJson(appMessage.toWire(internalData, false)), appMessage);
+    }
+
+    @Test
+    public void shouldDecodeInternalDataOnce() {
+        AppMessage read = AppMessage.fromJson(createMessage().toJson(true));
+
+        assertThat(read.getInternalData()).isSameAs(read.getInternalData());
+    }
+
+    @Test
+    public void canReadInternalDataValuesWithoutDecoding() {
+        AppMessage read = AppMessage.fromJson(createMessage().toJson());
+
+        assertThat(read.getInternalDataValue("flowStage")).isEqualTo("PRE_FLOW");
+        assertThat(read.getInternalDataValue("unknown")).isNull();
+        assertThat(read.getSenderApiVersion()).isEqualTo("2.1.0");
+    }
+
+    @Test
+    public void shouldReadInternalDataValuesOfUpdatedInternalData() {
+        AppMessage appMessage = createMessage();
+        appMessage.getInternalDataValue("flowStage");
+        internalData.addAdditionalData("flowStage", "POST_FLOW");
+
+        appMessage.updateInternalData(internalData);
+
+        assertThat(appMessage.getInternalDataValue("flowStage")).isEqualTo("POST_FLOW");
+        assertThat(appMessage.getInternalData().getAdditionalData().get("flowStage")).isEqualTo("POST_FLOW");
+    }
+
+    @Test
+    public void internalDataValuesAreNullWithoutInternalData() {
+        AppMessage read = AppMessage.fromJson(new AppMessage("ack").toJson());
+
+        assertThat(read.getInternalDataValue("flowStage")).isNull();
+        assertThat(read.getSenderApiVersion()).isNull();
+    }
+
+    private AppMessage createMessage() {
+        Request request = new Request("test", requestData);
+        AppMessage appMessage = new AppMessage("request", request.toJson(), internalData);
+        appMessage.setResponseMechanism(RESPONSE_SERVICE);
+        return appMessage;
+    }
+
+    private static void assertMessageMatches(AppMessage read, AppMessage expected) {
+        assertThat(read.getMessageType()).isEqualTo(expected.getMessageType());
+        assertThat(read.getResponseMechanism()).isEqualTo(expected.getResponseMechanism());
+        assertThat(read.getInternalData().getSenderPackageName()).isEqualTo("com.test");
+        assertThat(read.getInternalData().getAdditionalData().get("flowStage")).isEqualTo("PRE_FLOW");
+        Request request = Request.fromJson(read.getMessageData());
+        assertThat(request.getRequestType()).isEqualTo("test");
+        assertThat(request.getRequestData().getValue("note", String.class)).isEqualTo("quotes \" and \\ slashes\n and é");
+        assertThat(request.getRequestData().getValue("amount", Long.class)).isEqualTo(1000L);
+    }
+}
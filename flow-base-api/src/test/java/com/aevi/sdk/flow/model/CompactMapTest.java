@@ -0,0 +1,210 @@
+package com.aevi.sdk.flow.model;
+
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class CompactMapTest {
+
+    private CompactMap<String, String> map;
+
+    @Before
+    public void setUp() throws Exception {
+        map = new CompactMap<>();
+    }
+
+    @Test
+    public void canPutGetAndRemove() {
+        assertThat(map.put("b", "two")).isNull();
+        assertThat(map.put("a", "one")).isNull();
+        assertThat(map.put("b", "second")).isEqualTo("two");
+
+        assertThat(map.get("a")).isEqualTo("one");
+        assertThat(map.get("b")).isEqualTo("second");
+        assertThat(map.get("c")).isNull();
+        assertThat(map).hasSize(2);
+
+        assertThat(map.remove("a")).isEqualTo("one");
+        assertThat(map.remove("a")).isNull();
+        assertThat(map).containsOnlyKeys("b");
+    }
+
+    @Test
+    public void shouldSwitchBetweenArrayAndTrieStorage() {
+        Map<String, String> expected = new HashMap<>();
+        for (int i = 0; i < CompactMap.MAX_ARRAY_SIZE * 2; i++) {
+            map.put("key" + i, "value" + i);
+            expected.put("key" + i, "value" + i);
+            assertThat(map).isEqualTo(expected);
+        }
+        for (int i = 0; i < CompactMap.MAX_ARRAY_SIZE * 2; i++) {
+            map.remove("key" + i);
+            expected.remove("key" + i);
+            assertThat(map).isEqualTo(expected);
+        }
+        assertThat(map.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void shouldIterateOverSnapshot() {
+        map.put("a", "one");
+        map.put("b", "two");
+        Iterator<Map.Entry<String, String>> iterator = map.entrySet().iterator();
+
+        map.put("c", "three");
+        map.remove("a");
+
+        assertThat(iterator.next().getKey()).isEqualTo("a");
+        assertThat(iterator.next().getKey()).isEqualTo("b");
+        assertThat(iterator.hasNext()).isFalse();
+    }
+
+    @Test
+    public void canRemoveAndSetViaIterator() {
+        map.put("a", "one");
+        map.put("b", "two");
+
+        Iterator<Map.Entry<String, String>> iterator = map.entrySet().iterator();
+        iterator.next().setValue("first");
+        iterator.next();
+        iterator.remove();
+
+        assertThat(map).containsOnlyKeys("a");
+        assertThat(map.get("a")).isEqualTo("first");
+        map.keySet().remove("a");
+        assertThat(map.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void copiesShouldNotAffectEachOther() {
+        map.put("a", "one");
+        CompactMap<String, String> copy = new CompactMap<>(map);
+
+        copy.put("b", "two");
+        map.clear();
+
+        assertThat(copy).containsOnlyKeys("a", "b");
+        assertThat(map.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void shouldMatchHashMapForLargeMaps() {
+        Map<String, String> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            String key = "key" + random.nextInt(1000);
+            if (random.nextInt(3) == 0) {
+                assertThat(map.remove(key)).isEqualTo(expected.remove(key));
+            } else {
+                assertThat(map.put(key, "value" + i)).isEqualTo(expected.put(key, "value" + i));
+            }
+        }
+        assertThat(map).isEqualTo(expected);
+        assertThat(map.entrySet()).hasSize(expected.size());
+    }
+
+    @Test
+    public void shouldHandleKeysWithSameHashCode() {
+        String[] collidingKeys = {"AaAa", "AaBB", "BBAa", "BBBB"};
+        for (int i = 0; i < CompactMap.MAX_ARRAY_SIZE; i++) {
+            map.put("key" + i, "value" + i);
+        }
+        for (String key : collidingKeys) {
+            map.put(key, key);
+        }
+
+        assertThat(map).hasSize(CompactMap.MAX_ARRAY_SIZE + collidingKeys.length);
+        for (String key : collidingKeys) {
+            assertThat(map.get(key)).isEqualTo(key);
+        }
+        map.remove("AaBB");
+        assertThat(map.get("AaBB")).isNull();
+        assertThat(map.get("BBAa")).isEqualTo("BBAa");
+        assertThat(map).containsKeys("AaAa", "BBAa", "BBBB");
+    }
+
+    @Test
+    public void shouldBuildSortedArrayWhenSmallMapFilledInOneGo() {
+        Map<String, String> entries = new HashMap<>();
+        entries.put("c", "three");
+        entries.put("a", "one");
+        entries.put("b", "two");
+
+        map.putAll(entries);
+
+        assertThat(map.keySet()).containsExactly("a", "b", "c");
+        assertThat(map.get("b")).isEqualTo("two");
+    }
+
+    @Test
+    public void shouldBuildSameMapWhenLargeMapFilledInOneGo() {
+        Map<String, String> expected = new HashMap<>();
+        for (String key : new String[]{"AaAa", "AaBB", "BBAa", "BBBB"}) {
+            expected.put(key, key);
+        }
+        for (int i = 0; i < 1000; i++) {
+            expected.put("key" + i, "value" + i);
+        }
+
+        CompactMap<String, String> built = new CompactMap<>(expected);
+
+        assertThat(built).isEqualTo(expected).hasSize(expected.size());
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            assertThat(built.get(entry.getKey())).isEqualTo(entry.getValue());
+        }
+        built.remove("AaBB");
+        built.put("key0", "changed");
+        assertThat(built.get("AaBB")).isNull();
+        assertThat(built.get("BBAa")).isEqualTo("BBAa");
+        assertThat(built.get("key0")).isEqualTo("changed");
+        assertThat(built).hasSize(expected.size() - 1);
+    }
+
+    @Test
+    public void largeCopiesShouldNotAffectEachOther() {
+        for (int i = 0; i < 100; i++) {
+            map.put("key" + i, "value" + i);
+        }
+        CompactMap<String, String> copy = new CompactMap<>(map);
+        Iterator<Map.Entry<String, String>> iterator = map.entrySet().iterator();
+
+        copy.put("key0", "changed");
+        copy.remove("key1");
+        map.put("extra", "value");
+
+        assertThat(map.get("key0")).isEqualTo("value0");
+        assertThat(map.get("key1")).isEqualTo("value1");
+        assertThat(copy.get("key0")).isEqualTo("changed");
+        assertThat(copy).hasSize(99).doesNotContainKey("extra");
+        int iterated = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            iterated++;
+        }
+        assertThat(iterated).isEqualTo(100);
+    }
+
+    @Test
+    public void shouldSupportConditionalOperations() {
+        assertThat(map.putIfAbsent("a", "one")).isNull();
+        assertThat(map.putIfAbsent("a", "two")).isEqualTo("one");
+        assertThat(map.replace("a", "two", "three")).isFalse();
+        assertThat(map.replace("a", "one", "three")).isTrue();
+        assertThat(map.remove("a", "one")).isFalse();
+        assertThat(map.remove("a", "three")).isTrue();
+        assertThat(map.replace("a", "four")).isNull();
+        assertThat(map.isEmpty()).isTrue();
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void shouldNotAcceptNullValues() {
+        map.put("a", null);
+    }
+}
@@ -0,0 +1,118 @@
+package com.aevi.sdk.flow.service;
+
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Intent;
+import com.aevi.android.rxmessenger.activity.ObservableActivityHelper;
+import com.aevi.sdk.flow.model.AdditionalData;
+import com.aevi.sdk.flow.model.Request;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class ActivityModelRegistryTest {
+
+    private final Request request = new Request("test", new AdditionalData());
+
+    @After
+    public void tearDown() throws Exception {
+        ActivityModelRegistry.unregister("activity-1");
+    }
+
+    @Test
+    public void shouldHandOverCopy() {
+        ActivityModelRegistry.register("activity-1", request);
+
+        Request copy = ActivityModelRegistry.getModel("activity-1", Request.class);
+
+        assertThat(copy).isEqualTo(request).isNotSameAs(request);
+        assertThat(ActivityModelRegistry.getModel("activity-1", Request.class)).isNotSameAs(copy);
+    }
+
+    @Test
+    public void shouldNotMutateServiceModelWhenActivityChangesCopy() {
+        request.addAdditionalData("amount", 100L);
+        ActivityModelRegistry.register("activity-1", request);
+
+        Request copy = ActivityModelRegistry.getModel("activity-1", Request.class);
+        copy.addAdditionalData("amount", 200L);
+        copy.getRequestData().addData("extra", "value");
+        copy.setFlowName("otherFlow");
+
+        assertThat(request.getRequestData().getValue("amount", Long.class)).isEqualTo(100L);
+        assertThat(request.getRequestData().hasData("extra")).isFalse();
+        assertThat(request.getFlowName()).isNull();
+        assertThat(ActivityModelRegistry.getModel("activity-1", Request.class)).isEqualTo(request);
+    }
+
+    @Test
+    public void shouldReturnNullForUnknownActivity() {
+        assertThat(ActivityModelRegistry.getModel("activity-2", Request.class)).isNull();
+        assertThat(ActivityModelRegistry.getModel((String) null, Request.class)).isNull();
+    }
+
+    @Test
+    public void shouldReturnNullForOtherType() {
+        ActivityModelRegistry.register("activity-1", request);
+
+        assertThat(ActivityModelRegistry.getModel("activity-1", String.class)).isNull();
+    }
+
+    @Test
+    public void shouldRemoveModelOnUnregister() {
+        int size = ActivityModelRegistry.size();
+        ActivityModelRegistry.register("activity-1", request);
+
+        ActivityModelRegistry.unregister("activity-1");
+
+        assertThat(ActivityModelRegistry.getModel("activity-1", Request.class)).isNull();
+        assertThat(ActivityModelRegistry.size()).isEqualTo(size);
+    }
+
+    @Test
+    public void shouldRemoveModelWhenActivityDestroyed() {
+        Application application = mock(Application.class);
+        ActivityModelRegistry.register("activity-1", request);
+        ActivityModelRegistry.unregisterOnDestroy(application, "activity-1");
+        ActivityModelRegistry.unregisterOnDestroy(application, "activity-1");
+        ArgumentCaptor<Application.ActivityLifecycleCallbacks> captor = ArgumentCaptor.forClass(Application.ActivityLifecycleCallbacks.class);
+        verify(application).registerActivityLifecycleCallbacks(captor.capture());
+
+        captor.getValue().onActivityDestroyed(mockActivity("activity-1", true));
+        assertThat(ActivityModelRegistry.getModel("activity-1", Request.class)).isEqualTo(request);
+        captor.getValue().onActivityDestroyed(mockActivity("activity-2", false));
+        assertThat(ActivityModelRegistry.getModel("activity-1", Request.class)).isEqualTo(request);
+        captor.getValue().onActivityDestroyed(mockActivity("activity-1", false));
+
+        assertThat(ActivityModelRegistry.getModel("activity-1", Request.class)).isNull();
+        assertThat(ActivityModelRegistry.watcherCount()).isEqualTo(0);
+        verify(application).unregisterActivityLifecycleCallbacks(captor.getValue());
+    }
+
+    @Test
+    public void shouldStopWatchingActivityWhenModelUnregistered() {
+        Application application = mock(Application.class);
+        ActivityModelRegistry.register("activity-1", request);
+        ActivityModelRegistry.unregisterOnDestroy(application, "activity-1");
+        ArgumentCaptor<Application.ActivityLifecycleCallbacks> captor = ArgumentCaptor.forClass(Application.ActivityLifecycleCallbacks.class);
+        verify(application).registerActivityLifecycleCallbacks(captor.capture());
+
+        ActivityModelRegistry.unregister("activity-1");
+
+        assertThat(ActivityModelRegistry.watcherCount()).isEqualTo(0);
+        verify(application).unregisterActivityLifecycleCallbacks(captor.getValue());
+    }
+
+    private Activity mockActivity(String activityId, boolean changingConfigurations) {
+        Intent intent = mock(Intent.class);
+        when(intent.getStringExtra(ObservableActivityHelper.INTENT_ID)).thenReturn(activityId);
+        Activity activity = mock(Activity.class);
+        when(activity.getIntent()).thenReturn(intent);
+        when(activity.isChangingConfigurations()).thenReturn(changingConfigurations);
+        return activity;
+    }
+}
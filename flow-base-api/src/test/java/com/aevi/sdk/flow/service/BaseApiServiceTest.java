@@ -13,7 +13,9 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import static com.aevi.sdk.flow.constants.ErrorConstants.FLOW_SERVICE_ERROR;
 import static org.assertj.core.api.Java6Assertions.assertThat;
@@ -35,6 +37,12 @@ public class BaseApiServiceTest {
     public void setUp() throws Exception {
         initMocks(this);
         apiService = new TestApiService(channelServer);
+        apiService.setRequestDispatcher(new RequestDispatcher(new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        }));
         request = new Request("pigeon");
         incomingAppMessage = new AppMessage(AppMessageTypes.REQUEST_MESSAGE, request.toJson());
 
@@ -80,6 +88,40 @@ public class BaseApiServiceTest {
         verifyCommsEnded(false);
     }
 
+    @Test
+    public void shouldSendErrorMessageIfForceFinishThrowsException() throws Exception {
+        apiService.throwExceptionInForceFinish = true;
+        fakeIncomingMessage(new AppMessage(AppMessageTypes.FORCE_FINISH_MESSAGE));
+
+        FlowException expected = new FlowException(FLOW_SERVICE_ERROR, "Flow service failed with exception: Skimaroo");
+
+        verifyMessageSent(AppMessageTypes.FAILURE_MESSAGE, expected.toJson());
+        verifyCommsEnded(true);
+    }
+
+    @Test
+    public void shouldProcessMessagesOnDispatcherExecutor() throws Exception {
+        final List<Runnable> queued = new ArrayList<>();
+        apiService.setRequestDispatcher(new RequestDispatcher(new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                queued.add(runnable);
+            }
+        }));
+        incomingMessagePublisher = BehaviorSubject.create();
+        when(channelServer.subscribeToMessages()).thenReturn(incomingMessagePublisher);
+        apiService.onNewClient(channelServer, "com.test");
+
+        fakeIncomingMessage(incomingAppMessage);
+
+        assertThat(apiService.requestReceived).isNull();
+        assertThat(apiService.getRequestDispatcher().getQueueDepth()).isEqualTo(1);
+        queued.get(0).run();
+        assertThat(apiService.requestReceived).isEqualTo(request);
+        assertThat(apiService.getRequestDispatcher().getQueueDepth()).isEqualTo(0);
+        assertThat(apiService.getRequestDispatcher().getDispatchedCount()).isEqualTo(1);
+    }
+
     private void verifyCommsEnded(boolean ended) {
         if (ended) {
             verify(channelServer).sendEndStream();
@@ -105,6 +147,7 @@ public class BaseApiServiceTest {
     class TestApiService extends BaseApiService {
 
         boolean throwExceptionInProcessRequest;
+        boolean throwExceptionInForceFinish;
         Request requestReceived;
         boolean finishRequestReceived;
 
@@ -126,6 +169,9 @@ public class BaseApiServiceTest {
         protected void onForceFinish(ClientCommunicator clientCommunicator) {
             super.onForceFinish(clientCommunicator);
             finishRequestReceived = true;
+            if (throwExceptionInForceFinish) {
+                throw new IllegalStateException("Skimaroo");
+            }
         }
     }
 }
@@ -2,8 +2,10 @@ package com.aevi.sdk.flow.service;
 
 import com.aevi.android.rxmessenger.ChannelServer;
 import com.aevi.sdk.flow.constants.AppMessageTypes;
+import com.aevi.sdk.flow.constants.InternalDataKeys;
 import com.aevi.sdk.flow.model.*;
 import com.aevi.sdk.pos.flow.PaymentFlowServiceApi;
+import io.reactivex.schedulers.TestScheduler;
 import io.reactivex.subjects.BehaviorSubject;
 import org.junit.Before;
 import org.junit.Test;
@@ -11,6 +13,7 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static com.aevi.sdk.flow.BaseApiClient.FLOW_PROCESSING_SERVICE;
 import static org.assertj.core.api.Java6Assertions.assertThat;
@@ -106,6 +109,93 @@ public class BaseListenerServiceTest {
         assertThat(listenerService.errorMessage).isEqualTo("blarp");
     }
 
+    @Test
+    public void shouldPassOnRequestIdOfFailure() throws Exception {
+        InternalData internalData = new InternalData(PaymentFlowServiceApi.getApiVersion());
+        internalData.setSenderPackageName(FLOW_PROCESSING_SERVICE);
+        internalData.addAdditionalData(InternalDataKeys.REQUEST_ID, "request-1");
+        AppMessage errorMessage = new AppMessage(AppMessageTypes.FAILURE_MESSAGE, new FlowException("beep", "blarp").toJson(), internalData);
+        fakeIncomingMessage(errorMessage);
+        setupNewFPSClient();
+
+        assertThat(listenerService.failedRequestId).isEqualTo("request-1");
+        assertThat(listenerService.errorCode).isEqualTo("beep");
+    }
+
+    @Test
+    public void canKeepChannelOpenForMultipleResponses() {
+        listenerService.setPersistentChannel(30, TimeUnit.SECONDS);
+        setupNewFPSClient();
+
+        fakeIncomingMessage(incomingAppMessage);
+        Response second = new Response(new Request("apple"), true, "Again");
+        fakeIncomingMessage(new AppMessage(AppMessageTypes.RESPONSE_MESSAGE, second.toJson(), incomingAppMessage.getInternalData()));
+
+        assertThat(listenerService.responseCount).isEqualTo(2);
+        assertThat(listenerService.responseReceived).isEqualTo(second);
+        assertThat(getLastAck().getAdditionalData()).containsEntry(InternalDataKeys.REQUEST_ID, second.getOriginatingRequest().getId());
+        verifyCommsEnded(false);
+    }
+
+    @Test
+    public void shouldAdvertisePersistentChannelInAck() {
+        listenerService.setPersistentChannel(30, TimeUnit.SECONDS);
+        setupNewFPSClient();
+
+        assertThat(getLastAck().getAdditionalData()).containsEntry(InternalDataKeys.PERSISTENT_CHANNEL_IDLE_TIMEOUT, "30000");
+    }
+
+    @Test
+    public void shouldIgnoreRepeatedResponseOnPersistentChannel() {
+        listenerService.setPersistentChannel(30, TimeUnit.SECONDS);
+        setupNewFPSClient();
+
+        fakeIncomingMessage(incomingAppMessage);
+        fakeIncomingMessage(incomingAppMessage);
+
+        assertThat(listenerService.responseCount).isEqualTo(1);
+        verify(channelServer, times(3)).send(anyString());
+    }
+
+    @Test
+    public void shouldKeepPersistentChannelOpenAfterInvalidMessage() {
+        listenerService.setPersistentChannel(30, TimeUnit.SECONDS);
+        setupNewFPSClient();
+
+        incomingMessagePublisher.onNext("not a message");
+        fakeIncomingMessage(incomingAppMessage);
+
+        assertThat(listenerService.errorCode).isNotNull();
+        assertThat(listenerService.responseCount).isEqualTo(1);
+        verifyCommsEnded(false);
+    }
+
+    @Test
+    public void shouldEndPersistentChannelWhenIdle() {
+        TestScheduler scheduler = new TestScheduler();
+        listenerService.setTimeoutScheduler(scheduler);
+        listenerService.setPersistentChannel(30, TimeUnit.SECONDS);
+        setupNewFPSClient();
+
+        scheduler.advanceTimeBy(20, TimeUnit.SECONDS);
+        fakeIncomingMessage(incomingAppMessage);
+        scheduler.advanceTimeBy(20, TimeUnit.SECONDS);
+        verifyCommsEnded(false);
+
+        scheduler.advanceTimeBy(20, TimeUnit.SECONDS);
+        verifyCommsEnded(true);
+        assertThat(listenerService.responseCount).isEqualTo(1);
+    }
+
+    private InternalData getLastAck() {
+        ArgumentCaptor<String> msgCaptor = ArgumentCaptor.forClass(String.class);
+        verify(channelServer, atLeastOnce()).send(msgCaptor.capture());
+        List<String> msgs = msgCaptor.getAllValues();
+        AppMessage ack = AppMessage.fromJson(msgs.get(msgs.size() - 1));
+        assertThat(ack.getMessageType()).isEqualTo(AppMessageTypes.REQUEST_ACK_MESSAGE);
+        return ack.getInternalData();
+    }
+
     private void fakeIncomingMessage(AppMessage appMessage) {
         lastMessage = appMessage.toJson();
         incomingMessagePublisher.onNext(appMessage.toJson());
@@ -133,8 +223,10 @@ public class BaseListenerServiceTest {
 
         Response responseReceived;
         boolean responseCalled;
+        int responseCount;
         String errorCode;
         String errorMessage;
+        String failedRequestId;
 
         protected TestListenerService(ChannelServer channelServer) {
             super(Response.class, "1.0.0");
@@ -144,9 +236,15 @@ public class BaseListenerServiceTest {
         @Override
         protected void notifyResponse(Response response) {
             responseCalled = true;
+            responseCount++;
             responseReceived = response;
         }
 
+        @Override
+        protected void onFailureReceived(String requestId, FlowException flowException) {
+            failedRequestId = requestId;
+        }
+
         @Override
         protected void notifyError(String errorCode, String errorMessage) {
             this.errorCode = errorCode;
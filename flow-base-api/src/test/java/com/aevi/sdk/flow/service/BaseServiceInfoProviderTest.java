@@ -1,8 +1,10 @@
 package com.aevi.sdk.flow.service;
 
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.Build;
 import android.os.Bundle;
 import org.junit.Test;
@@ -29,6 +31,63 @@ public class BaseServiceInfoProviderTest {
         assertThat(bundle.getString(BaseServiceInfoProvider.SERVICE_INFO_KEY)).isEqualTo(SERVICE_INFO_STRING);
     }
 
+    @Test
+    public void shouldCacheServiceInfoUntilChangeNotified() throws Exception {
+        TestServiceInfoProvider serviceInfoProvider = new TestServiceInfoProvider("my.broadcast");
+
+        serviceInfoProvider.call("", "", null);
+        serviceInfoProvider.call("", "", null);
+        assertThat(serviceInfoProvider.serviceInfoCount).isEqualTo(1);
+
+        serviceInfoProvider.notifyServiceInfoChange();
+        serviceInfoProvider.call("", "", null);
+        assertThat(serviceInfoProvider.serviceInfoCount).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldDiscardCachedServiceInfoOnChangeBroadcast() throws Exception {
+        TestServiceInfoProvider serviceInfoProvider = new TestServiceInfoProvider("my.broadcast");
+        serviceInfoProvider.call("", "", null);
+
+        ArgumentCaptor<BroadcastReceiver> receiverCaptor = ArgumentCaptor.forClass(BroadcastReceiver.class);
+        ArgumentCaptor<IntentFilter> filterCaptor = ArgumentCaptor.forClass(IntentFilter.class);
+        verify(context).registerReceiver(receiverCaptor.capture(), filterCaptor.capture());
+        assertThat(filterCaptor.getValue().hasAction("my.broadcast")).isTrue();
+
+        receiverCaptor.getValue().onReceive(context, new Intent("my.broadcast"));
+        serviceInfoProvider.call("", "", null);
+        serviceInfoProvider.call("", "", null);
+
+        assertThat(serviceInfoProvider.serviceInfoCount).isEqualTo(2);
+        verify(context).registerReceiver(any(BroadcastReceiver.class), any(IntentFilter.class));
+    }
+
+    @Test
+    public void shouldReturnNotModifiedIfHashMatches() throws Exception {
+        TestServiceInfoProvider serviceInfoProvider = new TestServiceInfoProvider("");
+        String hash = serviceInfoProvider.call("", "", null).getString(BaseServiceInfoProvider.SERVICE_INFO_HASH_KEY);
+
+        Bundle extras = new Bundle();
+        extras.putString(BaseServiceInfoProvider.SERVICE_INFO_HASH_KEY, hash);
+        Bundle bundle = serviceInfoProvider.call("", "", extras);
+
+        assertThat(bundle.getBoolean(BaseServiceInfoProvider.NOT_MODIFIED_KEY)).isTrue();
+        assertThat(bundle.getString(BaseServiceInfoProvider.SERVICE_INFO_KEY)).isNull();
+        assertThat(bundle.getString(BaseServiceInfoProvider.SERVICE_INFO_HASH_KEY)).isEqualTo(hash);
+    }
+
+    @Test
+    public void shouldReturnServiceInfoIfHashDiffers() throws Exception {
+        TestServiceInfoProvider serviceInfoProvider = new TestServiceInfoProvider("");
+        Bundle extras = new Bundle();
+        extras.putString(BaseServiceInfoProvider.SERVICE_INFO_HASH_KEY, "outdated");
+
+        Bundle bundle = serviceInfoProvider.call("", "", extras);
+
+        assertThat(bundle.getBoolean(BaseServiceInfoProvider.NOT_MODIFIED_KEY)).isFalse();
+        assertThat(bundle.getString(BaseServiceInfoProvider.SERVICE_INFO_KEY)).isEqualTo(SERVICE_INFO_STRING);
+    }
+
     @Test
     public void shouldSendCorrectBroadcastForServiceInfoChange() throws Exception {
         TestServiceInfoProvider serviceInfoProvider = new TestServiceInfoProvider("my.broadcast");
@@ -44,19 +103,24 @@ public class BaseServiceInfoProviderTest {
 
     class TestServiceInfoProvider extends BaseServiceInfoProvider {
 
+        int serviceInfoCount;
+
         TestServiceInfoProvider(String serviceInfoChangeBroadcast) {
             super(serviceInfoChangeBroadcast);
         }
 
         @Override
         protected String getServiceInfo() {
+            serviceInfoCount++;
             return SERVICE_INFO_STRING;
         }
 
         @Override
         public Context getContext() {
-            context = mock(Context.class);
-            when(context.getPackageName()).thenReturn("com.test");
+            if (context == null) {
+                context = mock(Context.class);
+                when(context.getPackageName()).thenReturn("com.test");
+            }
             return context;
         }
     }
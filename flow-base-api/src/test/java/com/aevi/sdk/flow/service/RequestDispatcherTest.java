@@ -0,0 +1,203 @@
+package com.aevi.sdk.flow.service;
+
+
+import com.aevi.sdk.flow.constants.FlowStages;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+import static com.aevi.sdk.flow.service.RequestDispatcher.Priority.*;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class RequestDispatcherTest {
+
+    private final List<Runnable> executorQueue = new ArrayList<>();
+    private final List<String> processed = new ArrayList<>();
+    private RequestDispatcher dispatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        dispatcher = new RequestDispatcher(new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                executorQueue.add(runnable);
+            }
+        });
+    }
+
+    @Test
+    public void shouldProcessMessagesFromSameClientOneAtATime() {
+        RequestDispatcher.ClientQueue clientQueue = dispatcher.createClientQueue();
+
+        clientQueue.execute(process("one"), NORMAL, reject("one"));
+        clientQueue.execute(process("two"), NORMAL, reject("two"));
+
+        assertThat(executorQueue).hasSize(1);
+        assertThat(dispatcher.getQueueDepth()).isEqualTo(2);
+        runNext();
+        assertThat(processed).containsExactly("one");
+        assertThat(executorQueue).hasSize(1);
+        runNext();
+        assertThat(processed).containsExactly("one", "two");
+        assertThat(dispatcher.getQueueDepth()).isEqualTo(0);
+        assertThat(dispatcher.getDispatchedCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldProcessMessagesFromDifferentClientsConcurrently() {
+        dispatcher.createClientQueue().execute(process("one"), NORMAL, reject("one"));
+        dispatcher.createClientQueue().execute(process("two"), NORMAL, reject("two"));
+
+        assertThat(executorQueue).hasSize(2);
+    }
+
+    @Test
+    public void canProcessMessagesFromSameClientConcurrently() {
+        dispatcher.setSerialPerClient(false);
+        RequestDispatcher.ClientQueue clientQueue = dispatcher.createClientQueue();
+
+        clientQueue.execute(process("one"), NORMAL, reject("one"));
+        clientQueue.execute(process("two"), NORMAL, reject("two"));
+
+        assertThat(executorQueue).hasSize(2);
+    }
+
+    @Test
+    public void shouldContinueWithNextMessageIfProcessingFails() {
+        RequestDispatcher.ClientQueue clientQueue = dispatcher.createClientQueue();
+        clientQueue.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("failed");
+            }
+        }, NORMAL, reject("one"));
+        clientQueue.execute(process("two"), NORMAL, reject("two"));
+
+        runNext();
+        runNext();
+
+        assertThat(processed).containsExactly("two");
+    }
+
+    @Test
+    public void shouldRecordWaitTime() throws Exception {
+        dispatcher.createClientQueue().execute(process("one"), NORMAL, reject("one"));
+        Thread.sleep(5);
+
+        runNext();
+
+        assertThat(dispatcher.getMaxWaitTimeNanos()).isGreaterThanOrEqualTo(5000000L);
+        assertThat(dispatcher.getAverageWaitTimeNanos()).isEqualTo(dispatcher.getMaxWaitTimeNanos());
+    }
+
+    @Test
+    public void shouldDispatchHigherPriorityMessagesFirst() {
+        dispatcher.setMaxConcurrency(1);
+        dispatcher.createClientQueue().execute(process("one"), NORMAL, reject("one"));
+        dispatcher.createClientQueue().execute(process("status"), LOW, reject("status"));
+        dispatcher.createClientQueue().execute(process("generic"), NORMAL, reject("generic"));
+        dispatcher.createClientQueue().execute(process("payment"), HIGH, reject("payment"));
+
+        runNext();
+        runNext();
+        runNext();
+        runNext();
+
+        assertThat(processed).containsExactly("one", "payment", "generic", "status");
+    }
+
+    @Test
+    public void shouldLimitConcurrency() {
+        dispatcher.setMaxConcurrency(1);
+        dispatcher.createClientQueue().execute(process("one"), NORMAL, reject("one"));
+        dispatcher.createClientQueue().execute(process("two"), NORMAL, reject("two"));
+
+        assertThat(executorQueue).hasSize(1);
+        runNext();
+        assertThat(executorQueue).hasSize(1);
+    }
+
+    @Test
+    public void shouldRejectWhenQueueIsFull() {
+        dispatcher.setMaxQueueSize(1);
+        RequestDispatcher.ClientQueue clientQueue = dispatcher.createClientQueue();
+
+        assertThat(clientQueue.execute(process("one"), NORMAL, reject("one"))).isTrue();
+        assertThat(clientQueue.execute(process("two"), LOW, reject("two"))).isFalse();
+        assertThat(clientQueue.execute(process("three"), HIGH, reject("three"))).isTrue();
+
+        runNext();
+        runNext();
+        assertThat(processed).containsExactly("rejected two", "one", "three");
+        assertThat(dispatcher.getRejectedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldDispatchControlMessagesWithoutWaitingForClientQueue() {
+        dispatcher.setMaxConcurrency(1);
+        RequestDispatcher.ClientQueue clientQueue = dispatcher.createClientQueue();
+        clientQueue.execute(process("one"), NORMAL, reject("one"));
+        clientQueue.execute(process("two"), NORMAL, reject("two"));
+
+        clientQueue.executeControl(process("finish"));
+
+        assertThat(executorQueue).hasSize(2);
+        executorQueue.remove(1).run();
+        assertThat(processed).containsExactly("finish");
+        runNext();
+        runNext();
+        assertThat(processed).containsExactly("finish", "one", "two");
+    }
+
+    @Test
+    public void shouldOrderTasksOfAllDispatchersByPriority() {
+        final PriorityQueue<Runnable> sharedQueue = new PriorityQueue<>();
+        Executor sharedExecutor = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                sharedQueue.add(runnable);
+            }
+        };
+        new RequestDispatcher(sharedExecutor).createClientQueue().execute(process("status"), LOW, reject("status"));
+        new RequestDispatcher(sharedExecutor).createClientQueue().execute(process("generic"), NORMAL, reject("generic"));
+        new RequestDispatcher(sharedExecutor).createClientQueue().execute(process("payment"), HIGH, reject("payment"));
+
+        while (!sharedQueue.isEmpty()) {
+            sharedQueue.poll().run();
+        }
+
+        assertThat(processed).containsExactly("payment", "generic", "status");
+    }
+
+    @Test
+    public void shouldMapStagesToPriorities() {
+        assertThat(dispatcher.getStagePriority(FlowStages.TRANSACTION_PROCESSING)).isEqualTo(HIGH);
+        assertThat(dispatcher.getStagePriority(FlowStages.STATUS_UPDATE)).isEqualTo(LOW);
+        assertThat(dispatcher.getStagePriority(FlowStages.PRE_FLOW)).isEqualTo(NORMAL);
+
+        dispatcher.setStagePriority(FlowStages.PRE_FLOW, HIGH);
+
+        assertThat(dispatcher.getStagePriority(FlowStages.PRE_FLOW)).isEqualTo(HIGH);
+    }
+
+    private void runNext() {
+        executorQueue.remove(0).run();
+    }
+
+    private Runnable process(final String message) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                processed.add(message);
+            }
+        };
+    }
+
+    private Runnable reject(final String message) {
+        return process("rejected " + message);
+    }
+}
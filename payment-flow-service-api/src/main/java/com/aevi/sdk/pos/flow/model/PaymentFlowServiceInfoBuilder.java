@@ -303,6 +303,37 @@ public class PaymentFlowServiceInfoBuilder {
         return this;
     }
 
+    /**
+     * Helper for adding the stages implemented by a {@link BasePaymentFlowService} to additional info, so that the processing service does
+     * not call the service for other stages.
+     *
+     * @param serviceClass The service class
+     * @return This builder
+     */
+    @NonNull
+    public PaymentFlowServiceInfoBuilder withImplementedStages(Class<? extends BasePaymentFlowService> serviceClass) {
+        Set<String> stages = BasePaymentFlowService.getImplementedStages(serviceClass);
+        additionalInfo.addData(PaymentFlowServiceInfo.IMPLEMENTED_STAGES_KEY, stages.toArray(new String[stages.size()]));
+        return this;
+    }
+
+    /**
+     * Helper for adding stage filters to additional info, declaring the requests the service should be called for in a stage.
+     *
+     * This allows the processing service to skip calls that would be a no-op, such as when the currency or amount of a request is not
+     * supported. If multiple filters are added for the same stage, the service is called if any of them matches.
+     *
+     * See {@link StageFilterBuilder} for how to create a filter.
+     *
+     * @param stageFilters The stage filters
+     * @return This builder
+     */
+    @NonNull
+    public PaymentFlowServiceInfoBuilder withStageFilters(StageFilter... stageFilters) {
+        additionalInfo.addData(PaymentFlowServiceInfo.STAGE_FILTERS_KEY, stageFilters);
+        return this;
+    }
+
     /**
      * Build the {@link PaymentFlowServiceInfo}.
      *
@@ -0,0 +1,132 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.pos.flow.model;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.aevi.sdk.flow.util.Preconditions.checkArgument;
+import static com.aevi.sdk.flow.util.Preconditions.checkNotEmpty;
+
+/**
+ * Builder class for {@link StageFilter}.
+ */
+public class StageFilterBuilder {
+
+    private final String stage;
+    private long minAmount;
+    private long maxAmount = Long.MAX_VALUE;
+    private Set<String> currencies = new HashSet<>();
+    private Set<String> flowTypes = new HashSet<>();
+    private boolean basketRequired;
+    private boolean customerRequired;
+    private Set<String> requiredDataKeys = new HashSet<>();
+
+    /**
+     * Create a builder for a filter for the given stage.
+     *
+     * @param stage The flow stage, see {@link com.aevi.sdk.flow.constants.FlowStages}
+     */
+    public StageFilterBuilder(String stage) {
+        checkNotEmpty(stage, "Stage must be set");
+        this.stage = stage;
+    }
+
+    /**
+     * Only call the service for requests with a total amount value within the given range, inclusive.
+     *
+     * @param minAmount The minimum amount value
+     * @param maxAmount The maximum amount value
+     * @return This builder
+     */
+    @NonNull
+    public StageFilterBuilder withAmountRange(long minAmount, long maxAmount) {
+        checkArgument(minAmount >= 0 && minAmount <= maxAmount, "Amount range is invalid");
+        this.minAmount = minAmount;
+        this.maxAmount = maxAmount;
+        return this;
+    }
+
+    /**
+     * Only call the service for requests in one of the given currencies.
+     *
+     * @param currencies The 3-letter ISO 4217 currency codes
+     * @return This builder
+     */
+    @NonNull
+    public StageFilterBuilder withCurrencies(String... currencies) {
+        this.currencies = new HashSet<>(Arrays.asList(currencies));
+        return this;
+    }
+
+    /**
+     * Only call the service for requests of one of the given flow types.
+     *
+     * @param flowTypes The flow types
+     * @return This builder
+     */
+    @NonNull
+    public StageFilterBuilder withFlowTypes(String... flowTypes) {
+        this.flowTypes = new HashSet<>(Arrays.asList(flowTypes));
+        return this;
+    }
+
+    /**
+     * Only call the service for requests that have a basket.
+     *
+     * @return This builder
+     */
+    @NonNull
+    public StageFilterBuilder withBasketRequired() {
+        this.basketRequired = true;
+        return this;
+    }
+
+    /**
+     * Only call the service for requests that have a customer.
+     *
+     * @return This builder
+     */
+    @NonNull
+    public StageFilterBuilder withCustomerRequired() {
+        this.customerRequired = true;
+        return this;
+    }
+
+    /**
+     * Only call the service for requests with all the given keys in their additional data.
+     *
+     * @param dataKeys The additional data keys
+     * @return This builder
+     */
+    @NonNull
+    public StageFilterBuilder withRequiredDataKeys(String... dataKeys) {
+        this.requiredDataKeys = new HashSet<>(Arrays.asList(dataKeys));
+        return this;
+    }
+
+    /**
+     * Build the {@link StageFilter}.
+     *
+     * @return A new StageFilter instance
+     */
+    @NonNull
+    public StageFilter build() {
+        return new StageFilter(stage, minAmount, maxAmount, currencies, flowTypes, basketRequired, customerRequired, requiredDataKeys);
+    }
+}
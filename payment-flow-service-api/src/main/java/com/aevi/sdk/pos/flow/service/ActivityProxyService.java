@@ -16,7 +16,6 @@ package com.aevi.sdk.pos.flow.service;
 
 import android.content.ComponentName;
 import android.content.Intent;
-import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.support.annotation.NonNull;
 import android.util.Log;
@@ -26,23 +25,71 @@ import com.aevi.sdk.flow.service.BaseApiService;
 import com.aevi.sdk.flow.service.ClientCommunicator;
 import com.aevi.sdk.pos.flow.PaymentFlowServiceApi;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static com.aevi.sdk.flow.constants.IntentActions.*;
 
 /**
  * This service allows an application to proxy a request for any stage to an activity of their choice, without having to implement a custom service.
  *
+ * The activities for the stages are resolved when the service is created and cached for the lifetime of the process, unless the app package
+ * is replaced or changed.
+ *
  * @see <a href="https://github.com/AEVI-AppFlow/pos-android-sdk/wiki/implementing-flow-services" target="_blank">Implementing Flow Services</a>
  */
 public class ActivityProxyService extends BaseApiService {
 
     private static final String TAG = ActivityProxyService.class.getSimpleName();
 
+    private static final List<String> ACTIVITY_STAGES = Arrays.asList(
+            FlowStages.PRE_FLOW, FlowStages.SPLIT, FlowStages.PRE_TRANSACTION, FlowStages.PAYMENT_CARD_READING, FlowStages.POST_CARD_READING,
+            FlowStages.TRANSACTION_PROCESSING, FlowStages.POST_TRANSACTION, FlowStages.POST_FLOW, FlowStages.GENERIC, FlowStages.POST_GENERIC);
+
+    static final StageActivityCache STAGE_ACTIVITY_CACHE = new StageActivityCache();
+
+    private final Set<String> requiredStages = new HashSet<>();
+
+    private final StageActivityCache.Resolver activityResolver = new StageActivityCache.Resolver() {
+        @Override
+        public ComponentName resolve(String flowStage) {
+            List<ResolveInfo> resolveInfos = getPackageManager().queryIntentActivities(getActivityIntent(flowStage), 0);
+            if (resolveInfos.isEmpty()) {
+                return null;
+            }
+            return new ComponentName(resolveInfos.get(0).activityInfo.packageName, resolveInfos.get(0).activityInfo.name);
+        }
+    };
+
     public ActivityProxyService() {
         super(PaymentFlowServiceApi.getApiVersion());
     }
 
+    /**
+     * Require an activity to be defined for each of the given flow stages.
+     *
+     * This should be called from the constructor of a sub-class. The activities are checked for when the service is created, which fails with
+     * an {@link IllegalStateException} if any are missing rather than finishing the affected stages with no response at runtime.
+     *
+     * @param flowStages The flow stages that must have an activity defined
+     */
+    protected void requireActivitiesForStages(String... flowStages) {
+        requiredStages.addAll(Arrays.asList(flowStages));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        STAGE_ACTIVITY_CACHE.registerForPackageChanges(this);
+        List<String> missingStages = STAGE_ACTIVITY_CACHE.warm(ACTIVITY_STAGES, activityResolver);
+        missingStages.retainAll(requiredStages);
+        if (!missingStages.isEmpty()) {
+            throw new IllegalStateException("No activity defined to handle stages: " + missingStages + " in app: " + getPackageName());
+        }
+    }
+
     @Override
     protected void processRequest(@NonNull ClientCommunicator clientCommunicator, @NonNull String request, @NonNull String flowStage) {
         if (flowStage.equals(FlowStages.STATUS_UPDATE)) {
@@ -51,12 +98,14 @@ public class ActivityProxyService extends BaseApiService {
             return;
         }
         Intent activityIntent = getActivityIntent(flowStage);
-        if (!isActivityDefined(activityIntent)) {
+        ComponentName activityComponent = STAGE_ACTIVITY_CACHE.get(flowStage, activityResolver);
+        if (activityComponent == null) {
             Log.e(TAG,
                   "No activity defined to handle: " + activityIntent.getAction() + " in app: " + getPackageName() + "! Finishing with no response");
             clientCommunicator.finishWithNoResponse();
             return;
         }
+        activityIntent.setComponent(activityComponent);
         ActivityHelper activityHelper = new ActivityHelper(getBaseContext(), activityIntent, clientCommunicator, request, null);
         clientCommunicator.addActivityHelper(activityHelper);
         activityHelper.launchActivity();
@@ -68,15 +117,4 @@ public class ActivityProxyService extends BaseApiService {
         intent.setPackage(this.getPackageName());
         return intent;
     }
-
-    private boolean isActivityDefined(Intent intent) {
-        PackageManager packageManager = getPackageManager();
-        List<ResolveInfo> resolveInfos = packageManager.queryIntentActivities(intent, 0);
-        if (resolveInfos.isEmpty()) {
-            return false;
-        }
-        intent.setComponent(new ComponentName(resolveInfos.get(0).activityInfo.packageName, resolveInfos.get(0).activityInfo.name));
-        return true;
-    }
-
 }
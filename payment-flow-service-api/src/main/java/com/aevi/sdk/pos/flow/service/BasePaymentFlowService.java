@@ -13,6 +13,10 @@ import com.aevi.sdk.pos.flow.PaymentFlowServiceApi;
 import com.aevi.sdk.pos.flow.model.*;
 import com.aevi.sdk.pos.flow.stage.*;
 
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
 import static com.aevi.sdk.flow.constants.ErrorConstants.STAGE_NOT_SUPPORTED;
 import static com.aevi.sdk.flow.constants.FlowStages.*;
 
@@ -21,12 +25,104 @@ import static com.aevi.sdk.flow.constants.FlowStages.*;
  *
  * This class will map the flow stage to one of its callback methods that clients can override to handle the relevant stage.
  *
+ * The stages a service implements are determined once per service class from the callback methods it overrides. Requests for other stages
+ * are rejected without being decoded, and the implemented stages can be published to the processing service via
+ * {@link PaymentFlowServiceInfoBuilder#withImplementedStages(Class)}.
+ *
  * @see <a href="https://github.com/AEVI-AppFlow/pos-android-sdk/wiki/implementing-flow-services" target="_blank">Implementing Flow Services</a>
  */
 public abstract class BasePaymentFlowService extends BaseApiService {
 
+    private static final Map<String, StageCallback> STAGE_CALLBACKS = new HashMap<>();
+    private static final Map<Class<?>, Set<String>> IMPLEMENTED_STAGES = new ConcurrentHashMap<>();
+
+    static {
+        STAGE_CALLBACKS.put(PRE_FLOW, new StageCallback("onPreFlow", PreFlowModel.class));
+        STAGE_CALLBACKS.put(SPLIT, new StageCallback("onSplit", SplitModel.class));
+        STAGE_CALLBACKS.put(PRE_TRANSACTION, new StageCallback("onPreTransaction", PreTransactionModel.class));
+        STAGE_CALLBACKS.put(PAYMENT_CARD_READING, new StageCallback("onPaymentCardReading", CardReadingModel.class));
+        STAGE_CALLBACKS.put(POST_CARD_READING, new StageCallback("onPostCardReading", PreTransactionModel.class));
+        STAGE_CALLBACKS.put(TRANSACTION_PROCESSING, new StageCallback("onTransactionProcessing", TransactionProcessingModel.class));
+        STAGE_CALLBACKS.put(POST_TRANSACTION, new StageCallback("onPostTransaction", PostTransactionModel.class));
+        STAGE_CALLBACKS.put(POST_FLOW, new StageCallback("onPostFlow", PostFlowModel.class));
+        STAGE_CALLBACKS.put(GENERIC, new StageCallback("onGeneric", GenericStageModel.class));
+        STAGE_CALLBACKS.put(POST_GENERIC, new StageCallback("onPostGeneric", PostGenericStageModel.class));
+        STAGE_CALLBACKS.put(STATUS_UPDATE, new StageCallback("onStatusUpdate", StatusUpdateModel.class));
+    }
+
+    private static final class StageCallback {
+
+        final Method method;
+
+        /*
+        The callback is resolved from this class rather than matched by name in the services, so that the stages are still found if the
+        callbacks are renamed by code shrinking, as overrides are renamed along with the methods they override.
+         */
+        StageCallback(String methodName, Class<?> modelClass) {
+            Method method;
+            try {
+                method = BasePaymentFlowService.class.getDeclaredMethod(methodName, modelClass);
+            } catch (NoSuchMethodException e) {
+                Log.w(BasePaymentFlowService.class.getSimpleName(), "Failed to resolve stage callback: " + methodName);
+                method = null;
+            }
+            this.method = method;
+        }
+
+        boolean isOverriddenIn(Class<?> serviceClass) {
+            try {
+                serviceClass.getDeclaredMethod(method.getName(), method.getParameterTypes());
+                return true;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    }
+
+    private final Set<String> implementedStages;
+
     public BasePaymentFlowService() {
         super(PaymentFlowServiceApi.getApiVersion());
+        implementedStages = getImplementedStages(getClass());
+    }
+
+    /**
+     * Get the stages implemented by the given service class, as determined by the stage callback methods it overrides.
+     *
+     * If no overridden callback can be found, all stages are assumed to be implemented.
+     *
+     * @param serviceClass The service class
+     * @return The stages implemented by the service, see {@link com.aevi.sdk.flow.constants.FlowStages}
+     */
+    @NonNull
+    public static Set<String> getImplementedStages(@NonNull Class<? extends BasePaymentFlowService> serviceClass) {
+        Set<String> stages = IMPLEMENTED_STAGES.get(serviceClass);
+        if (stages == null) {
+            stages = Collections.unmodifiableSet(findImplementedStages(serviceClass));
+            IMPLEMENTED_STAGES.put(serviceClass, stages);
+        }
+        return stages;
+    }
+
+    /*
+    If the callbacks can not be resolved, or no overridden callback is found (as can happen if the service has been optimised by code
+    shrinking), all stages are assumed to be implemented so that requests are never wrongly rejected.
+     */
+    private static Set<String> findImplementedStages(Class<?> serviceClass) {
+        Set<String> stages = new HashSet<>();
+        for (Map.Entry<String, StageCallback> entry : STAGE_CALLBACKS.entrySet()) {
+            StageCallback callback = entry.getValue();
+            if (callback.method == null) {
+                return new HashSet<>(STAGE_CALLBACKS.keySet());
+            }
+            for (Class<?> current = serviceClass; current != BasePaymentFlowService.class; current = current.getSuperclass()) {
+                if (callback.isOverriddenIn(current)) {
+                    stages.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        return stages.isEmpty() ? new HashSet<>(STAGE_CALLBACKS.keySet()) : stages;
     }
 
     @Override
@@ -43,6 +139,10 @@ public abstract class BasePaymentFlowService extends BaseApiService {
      * @param request            The request
      */
     protected void mapStageToCallback(String flowStage, ClientCommunicator clientCommunicator, String request) {
+        if (STAGE_CALLBACKS.containsKey(flowStage) && !implementedStages.contains(flowStage)) {
+            returnStageNotImplemented(clientCommunicator, flowStage);
+            return;
+        }
         try {
 
             if (flowStage != null) {
@@ -196,20 +296,21 @@ public abstract class BasePaymentFlowService extends BaseApiService {
      * @param model The model relevant for this stage
      */
     protected void onStatusUpdate(StatusUpdateModel model) {
-        throw new StageNotImplementedException(POST_GENERIC);
+        throw new StageNotImplementedException(STATUS_UPDATE);
     }
 
     /**
      * Fallback method when the flow stage can not be mapped to any of the known callback methods.
      *
-     * The default implementation here will throw an exception. Clients can override to implement an alternative fallback behaviour.
+     * The default implementation here will respond with a stage not supported error. Clients can override to implement an alternative fallback
+     * behaviour.
      *
      * @param flowStage          The flow stage that could not be mapped
      * @param clientCommunicator The client message id
      * @param request            The request
      */
     protected void onUnknownStage(String flowStage, ClientCommunicator clientCommunicator, String request) {
-        throw new StageNotImplementedException(flowStage);
+        returnStageNotImplemented(clientCommunicator, flowStage);
     }
 
     private void returnStageNotImplemented(ClientCommunicator clientCommunicator, String stage) {
@@ -0,0 +1,158 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.pos.flow.service;
+
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.PatternMatcher;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of the activities resolved to handle each flow stage in {@link ActivityProxyService}.
+ *
+ * Resolving an activity requires a call into the package manager, which is a cross-process call that would otherwise be made for every
+ * request. The activities of an app can not change while it is installed, other than by its components being enabled or disabled, so the
+ * cache is only dropped when the app package is replaced or changed, as reported by the package broadcasts.
+ */
+final class StageActivityCache {
+
+    private static final String TAG = StageActivityCache.class.getSimpleName();
+
+    /**
+     * Resolves the activity for a flow stage via the package manager.
+     */
+    interface Resolver {
+
+        /**
+         * @param flowStage The flow stage
+         * @return The component of the activity handling the stage, or null if there is none
+         */
+        ComponentName resolve(String flowStage);
+    }
+
+    // Stages without an activity are cached as well, as a null value
+    private final Map<String, ComponentName> components = new HashMap<>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final BroadcastReceiver packageChangeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.d(TAG, "Package changed: " + intent.getAction());
+            invalidate();
+        }
+    };
+
+    private Context registeredContext;
+    private int generation;
+
+    /**
+     * Get the activity handling the flow stage, resolving it if it is not cached.
+     *
+     * @param flowStage The flow stage
+     * @param resolver  The resolver to use if the stage is not cached
+     * @return The component of the activity handling the stage, or null if there is none
+     */
+    ComponentName get(String flowStage, Resolver resolver) {
+        int lookupGeneration;
+        synchronized (this) {
+            if (components.containsKey(flowStage)) {
+                hitCount.incrementAndGet();
+                return components.get(flowStage);
+            }
+            lookupGeneration = generation;
+        }
+        missCount.incrementAndGet();
+        ComponentName component = resolver.resolve(flowStage);
+        synchronized (this) {
+            // Don't cache a result that may predate a package change received during the lookup
+            if (lookupGeneration == generation) {
+                components.put(flowStage, component);
+            }
+        }
+        return component;
+    }
+
+    /**
+     * Resolve and cache the activities for the given flow stages.
+     *
+     * @param flowStages The flow stages
+     * @param resolver   The resolver to use for stages that are not cached
+     * @return The flow stages that have no activity
+     */
+    List<String> warm(List<String> flowStages, Resolver resolver) {
+        List<String> stagesWithoutActivity = new ArrayList<>();
+        for (String flowStage : flowStages) {
+            if (get(flowStage, resolver) == null) {
+                stagesWithoutActivity.add(flowStage);
+            }
+        }
+        return stagesWithoutActivity;
+    }
+
+    /**
+     * Drop the cached activities, meaning they will be resolved from the package manager again.
+     */
+    synchronized void invalidate() {
+        generation++;
+        components.clear();
+    }
+
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Listen for changes to the package of the given context, if not already listening.
+     *
+     * @param context The Android context
+     */
+    synchronized void registerForPackageChanges(Context context) {
+        Context applicationContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        if (applicationContext == registeredContext) {
+            return;
+        }
+        if (registeredContext != null) {
+            try {
+                registeredContext.unregisterReceiver(packageChangeReceiver);
+            } catch (IllegalArgumentException e) {
+                // Not registered
+            }
+        }
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        filter.addDataSchemeSpecificPart(context.getPackageName(), PatternMatcher.PATTERN_LITERAL);
+        applicationContext.registerReceiver(packageChangeReceiver, filter);
+        registeredContext = applicationContext;
+        // Anything cached so far can't be trusted as we were not listening for changes against this context
+        invalidate();
+    }
+}
@@ -26,8 +26,6 @@ import com.aevi.sdk.pos.flow.model.TransactionResponseBuilder;
 import com.aevi.sdk.pos.flow.service.ActivityProxyService;
 import com.aevi.sdk.pos.flow.service.BasePaymentFlowService;
 
-import static com.aevi.sdk.flow.service.ActivityHelper.ACTIVITY_REQUEST_KEY;
-
 /**
  * Model for the card-reading stage that exposes all the data functions and other utilities required for any app to process this stage.
  *
@@ -65,8 +63,7 @@ public class CardReadingModel extends BaseStageModel {
      * @return An instance of {@link CardReadingModel}
      */
     public static CardReadingModel fromActivity(Activity activity) {
-        String request = activity.getIntent().getStringExtra(ACTIVITY_REQUEST_KEY);
-        return new CardReadingModel(activity, TransactionRequest.fromJson(request));
+        return new CardReadingModel(activity, readRequest(activity, TransactionRequest.class));
     }
 
     /**
@@ -145,4 +142,9 @@ public class CardReadingModel extends BaseStageModel {
     public String getRequestJson() {
         return transactionRequest.toJson();
     }
+
+    @Override
+    protected Object getRequestModel() {
+        return transactionRequest;
+    }
 }
@@ -23,8 +23,6 @@ import com.aevi.sdk.pos.flow.model.PaymentResponse;
 import com.aevi.sdk.pos.flow.service.ActivityProxyService;
 import com.aevi.sdk.pos.flow.service.BasePaymentFlowService;
 
-import static com.aevi.sdk.flow.service.ActivityHelper.ACTIVITY_REQUEST_KEY;
-
 /**
  * Model for the post-flow stage that exposes all the data functions and other utilities required for any app to process this stage.
  *
@@ -59,8 +57,7 @@ public class PostFlowModel extends BaseStageModel {
      * @return An instance of {@link PostFlowModel}
      */
     public static PostFlowModel fromActivity(Activity activity) {
-        String request = activity.getIntent().getStringExtra(ACTIVITY_REQUEST_KEY);
-        return new PostFlowModel(activity, PaymentResponse.fromJson(request));
+        return new PostFlowModel(activity, readRequest(activity, PaymentResponse.class));
     }
 
     /**
@@ -104,4 +101,9 @@ public class PostFlowModel extends BaseStageModel {
         return paymentResponse.toJson();
     }
 
+    @Override
+    protected Object getRequestModel() {
+        return paymentResponse;
+    }
+
 }
@@ -25,7 +25,6 @@ import com.aevi.sdk.pos.flow.model.TransactionSummary;
 import com.aevi.sdk.pos.flow.service.ActivityProxyService;
 import com.aevi.sdk.pos.flow.service.BasePaymentFlowService;
 
-import static com.aevi.sdk.flow.service.ActivityHelper.ACTIVITY_REQUEST_KEY;
 import static com.aevi.sdk.flow.util.Preconditions.checkNotEmpty;
 import static com.aevi.sdk.flow.util.Preconditions.checkNotNull;
 
@@ -69,8 +68,7 @@ public class PostTransactionModel extends BaseStageModel {
      * @return An instance of {@link PostTransactionModel}
      */
     public static PostTransactionModel fromActivity(Activity activity) {
-        String request = activity.getIntent().getStringExtra(ACTIVITY_REQUEST_KEY);
-        return new PostTransactionModel(activity, TransactionSummary.fromJson(request));
+        return new PostTransactionModel(activity, readRequest(activity, TransactionSummary.class));
     }
 
     /**
@@ -156,4 +154,9 @@ public class PostTransactionModel extends BaseStageModel {
     public String getRequestJson() {
         return transactionSummary.toJson();
     }
+
+    @Override
+    protected Object getRequestModel() {
+        return transactionSummary;
+    }
 }
@@ -25,8 +25,6 @@ import com.aevi.sdk.pos.flow.model.PaymentBuilder;
 import com.aevi.sdk.pos.flow.service.ActivityProxyService;
 import com.aevi.sdk.pos.flow.service.BasePaymentFlowService;
 
-import static com.aevi.sdk.flow.service.ActivityHelper.ACTIVITY_REQUEST_KEY;
-
 /**
  * Model for the pre-flow stage that exposes all the data functions and other utilities required for any app to process this stage.
  *
@@ -67,8 +65,7 @@ public class PreFlowModel extends BaseStageModel {
      * @return An instance of {@link PreFlowModel}
      */
     public static PreFlowModel fromActivity(Activity activity) {
-        String request = activity.getIntent().getStringExtra(ACTIVITY_REQUEST_KEY);
-        return new PreFlowModel(activity, Payment.fromJson(request));
+        return new PreFlowModel(activity, readRequest(activity, Payment.class));
     }
 
     /**
@@ -136,4 +133,9 @@ public class PreFlowModel extends BaseStageModel {
     public String getRequestJson() {
         return payment.toJson();
     }
+
+    @Override
+    protected Object getRequestModel() {
+        return payment;
+    }
 }
@@ -30,7 +30,6 @@ import com.aevi.sdk.pos.flow.service.BasePaymentFlowService;
 
 import java.util.List;
 
-import static com.aevi.sdk.flow.service.ActivityHelper.ACTIVITY_REQUEST_KEY;
 import static com.aevi.sdk.flow.util.Preconditions.*;
 
 /**
@@ -76,8 +75,7 @@ public class PreTransactionModel extends BaseStageModel {
      * @return An instance of {@link PreTransactionModel}
      */
     public static PreTransactionModel fromActivity(Activity activity) {
-        String request = activity.getIntent().getStringExtra(ACTIVITY_REQUEST_KEY);
-        return new PreTransactionModel(activity, TransactionRequest.fromJson(request));
+        return new PreTransactionModel(activity, readRequest(activity, TransactionRequest.class));
     }
 
     /**
@@ -340,4 +338,9 @@ public class PreTransactionModel extends BaseStageModel {
     public String getRequestJson() {
         return transactionRequest.toJson();
     }
+
+    @Override
+    protected Object getRequestModel() {
+        return transactionRequest;
+    }
 }
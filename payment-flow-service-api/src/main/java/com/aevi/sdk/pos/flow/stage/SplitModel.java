@@ -25,7 +25,6 @@ import com.aevi.sdk.pos.flow.model.*;
 import com.aevi.sdk.pos.flow.service.ActivityProxyService;
 import com.aevi.sdk.pos.flow.service.BasePaymentFlowService;
 
-import static com.aevi.sdk.flow.service.ActivityHelper.ACTIVITY_REQUEST_KEY;
 import static com.aevi.sdk.flow.util.Preconditions.*;
 
 /**
@@ -73,8 +72,7 @@ public class SplitModel extends BaseStageModel {
      * @return An instance of {@link SplitModel}
      */
     public static SplitModel fromActivity(Activity activity) {
-        String request = activity.getIntent().getStringExtra(ACTIVITY_REQUEST_KEY);
-        return new SplitModel(activity, SplitRequest.fromJson(request));
+        return new SplitModel(activity, readRequest(activity, SplitRequest.class));
     }
 
     /**
@@ -257,4 +255,9 @@ public class SplitModel extends BaseStageModel {
     public String getRequestJson() {
         return splitRequest.toJson();
     }
+
+    @Override
+    protected Object getRequestModel() {
+        return splitRequest;
+    }
 }
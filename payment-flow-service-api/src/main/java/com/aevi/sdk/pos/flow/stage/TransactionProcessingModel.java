@@ -26,8 +26,6 @@ import com.aevi.sdk.pos.flow.model.TransactionResponseBuilder;
 import com.aevi.sdk.pos.flow.service.ActivityProxyService;
 import com.aevi.sdk.pos.flow.service.BasePaymentFlowService;
 
-import static com.aevi.sdk.flow.service.ActivityHelper.ACTIVITY_REQUEST_KEY;
-
 /**
  * Model for the transaction-processing stage that exposes all the data functions and other utilities required for any app to process this stage.
  *
@@ -67,8 +65,7 @@ public class TransactionProcessingModel extends BaseStageModel {
      * @return An instance of {@link TransactionProcessingModel}
      */
     public static TransactionProcessingModel fromActivity(Activity activity) {
-        String request = activity.getIntent().getStringExtra(ACTIVITY_REQUEST_KEY);
-        return new TransactionProcessingModel(activity, TransactionRequest.fromJson(request));
+        return new TransactionProcessingModel(activity, readRequest(activity, TransactionRequest.class));
     }
 
     /**
@@ -124,4 +121,9 @@ public class TransactionProcessingModel extends BaseStageModel {
     public String getRequestJson() {
         return transactionRequest.toJson();
     }
+
+    @Override
+    protected Object getRequestModel() {
+        return transactionRequest;
+    }
 }
@@ -0,0 +1,9 @@
+# Keep the stage callbacks of payment flow services, as the stages a service implements are determined from the callbacks it overrides.
+-keepclassmembers class com.aevi.sdk.pos.flow.service.BasePaymentFlowService {
+    void on*(com.aevi.sdk.pos.flow.stage.*Model);
+    void on*(com.aevi.sdk.flow.stage.*Model);
+}
+-keepclassmembers class * extends com.aevi.sdk.pos.flow.service.BasePaymentFlowService {
+    void on*(com.aevi.sdk.pos.flow.stage.*Model);
+    void on*(com.aevi.sdk.flow.stage.*Model);
+}
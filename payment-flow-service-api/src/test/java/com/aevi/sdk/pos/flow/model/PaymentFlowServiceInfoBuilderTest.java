@@ -2,6 +2,9 @@ package com.aevi.sdk.pos.flow.model;
 
 
 import android.content.Context;
+import com.aevi.sdk.flow.constants.FlowStages;
+import com.aevi.sdk.pos.flow.service.BasePaymentFlowService;
+import com.aevi.sdk.pos.flow.stage.PreFlowModel;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -64,6 +67,50 @@ public class PaymentFlowServiceInfoBuilderTest {
         assertThat(serviceInfo.getAdditionalInfo().getValue("supportsManualEntry", Boolean.class)).isTrue();
     }
 
+    @Test
+    public void canPublishImplementedStages() throws Exception {
+        PaymentFlowServiceInfo serviceInfo = paymentFlowServiceInfoBuilder
+                .withImplementedStages(PreFlowService.class)
+                .build(context);
+
+        assertThat(serviceInfo.getImplementedStages()).containsOnly(FlowStages.PRE_FLOW);
+        assertThat(serviceInfo.implementsStage(FlowStages.PRE_FLOW)).isTrue();
+        assertThat(serviceInfo.implementsStage(FlowStages.SPLIT)).isFalse();
+    }
+
+    @Test
+    public void shouldAssumeAllStagesImplementedIfNotPublished() throws Exception {
+        PaymentFlowServiceInfo serviceInfo = paymentFlowServiceInfoBuilder.build(context);
+
+        assertThat(serviceInfo.getImplementedStages()).isNull();
+        assertThat(serviceInfo.implementsStage(FlowStages.SPLIT)).isTrue();
+    }
+
+    @Test
+    public void canPublishStageFilters() throws Exception {
+        PaymentFlowServiceInfo serviceInfo = paymentFlowServiceInfoBuilder
+                .withStageFilters(new StageFilterBuilder(FlowStages.PRE_FLOW).withCurrencies("GBP").build())
+                .build(context);
+        PaymentFlowServiceInfo received = PaymentFlowServiceInfo.fromJson(serviceInfo.toJson());
+
+        assertThat(received.getStageFilters()).hasSize(1);
+        assertThat(received.canSkip(FlowStages.PRE_FLOW, createPayment("GBP"))).isFalse();
+        assertThat(received.canSkip(FlowStages.PRE_FLOW, createPayment("USD"))).isTrue();
+        assertThat(received.canSkip(FlowStages.PRE_FLOW.toLowerCase(), createPayment("USD"))).isTrue();
+        assertThat(received.canSkip(FlowStages.SPLIT, createPayment("USD"))).isFalse();
+    }
+
+    private static Payment createPayment(String currency) {
+        return new PaymentBuilder().withPaymentFlow("sale").withAmounts(new Amounts(100, currency)).build();
+    }
+
+    static class PreFlowService extends BasePaymentFlowService {
+
+        @Override
+        protected void onPreFlow(PreFlowModel model) {
+        }
+    }
+
     private void setAllMandatoryFields() {
         paymentFlowServiceInfoBuilder
                 .withVendor("Test")
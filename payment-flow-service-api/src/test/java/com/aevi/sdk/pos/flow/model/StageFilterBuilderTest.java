@@ -0,0 +1,59 @@
+package com.aevi.sdk.pos.flow.model;
+
+
+import com.aevi.sdk.flow.model.AdditionalData;
+import com.aevi.sdk.flow.model.Customer;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static com.aevi.sdk.flow.constants.FlowStages.POST_TRANSACTION;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class StageFilterBuilderTest {
+
+    @Test
+    public void shouldMatchAnyRequestWithoutConditions() {
+        StageFilter stageFilter = new StageFilterBuilder(POST_TRANSACTION).build();
+
+        assertThat(stageFilter.matches(createRequest(100, "GBP", "sale", null))).isTrue();
+    }
+
+    @Test
+    public void shouldMatchAmountRangeAndCurrency() {
+        StageFilter stageFilter = new StageFilterBuilder(POST_TRANSACTION).withAmountRange(500, 10000).withCurrencies("GBP", "EUR").build();
+
+        assertThat(stageFilter.matches(createRequest(1000, "GBP", "sale", null))).isTrue();
+        assertThat(stageFilter.matches(createRequest(100, "GBP", "sale", null))).isFalse();
+        assertThat(stageFilter.matches(createRequest(1000, "USD", "sale", null))).isFalse();
+    }
+
+    @Test
+    public void shouldMatchFlowTypesAndCustomer() {
+        StageFilter stageFilter = new StageFilterBuilder(POST_TRANSACTION).withFlowTypes("sale").withCustomerRequired().build();
+
+        assertThat(stageFilter.matches(createRequest(1000, "GBP", "sale", new Customer("cust")))).isTrue();
+        assertThat(stageFilter.matches(createRequest(1000, "GBP", "sale", null))).isFalse();
+        assertThat(stageFilter.matches(createRequest(1000, "GBP", "refund", new Customer("cust")))).isFalse();
+    }
+
+    @Test
+    public void shouldMatchRequiredDataKeys() {
+        StageFilter stageFilter = new StageFilterBuilder(POST_TRANSACTION).withRequiredDataKeys("loyaltyId").build();
+        TransactionRequest request = createRequest(1000, "GBP", "sale", null);
+
+        assertThat(stageFilter.matches(request)).isFalse();
+        request.getAdditionalData().addData("loyaltyId", "123");
+        assertThat(stageFilter.matches(request)).isTrue();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAllowInvalidAmountRange() {
+        new StageFilterBuilder(POST_TRANSACTION).withAmountRange(1000, 500);
+    }
+
+    private static TransactionRequest createRequest(long amount, String currency, String flowType, Customer customer) {
+        return new TransactionRequest("id", "txnId", flowType, POST_TRANSACTION, new Amounts(amount, currency),
+                                      Collections.<Basket>emptyList(), customer, new AdditionalData(), null);
+    }
+}
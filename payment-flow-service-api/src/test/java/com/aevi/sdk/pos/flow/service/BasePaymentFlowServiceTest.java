@@ -0,0 +1,75 @@
+package com.aevi.sdk.pos.flow.service;
+
+import com.aevi.sdk.flow.service.ClientCommunicator;
+import com.aevi.sdk.pos.flow.stage.CardReadingModel;
+import com.aevi.sdk.pos.flow.stage.PreFlowModel;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import static com.aevi.sdk.flow.constants.ErrorConstants.STAGE_NOT_SUPPORTED;
+import static com.aevi.sdk.flow.constants.FlowStages.*;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class BasePaymentFlowServiceTest {
+
+    @Mock
+    ClientCommunicator clientCommunicator;
+
+    private TestPaymentFlowService service;
+
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+        service = new TestPaymentFlowService();
+    }
+
+    @Test
+    public void shouldFindStagesImplementedByServiceAndSuperclasses() {
+        assertThat(BasePaymentFlowService.getImplementedStages(TestPaymentFlowService.class)).containsOnly(PRE_FLOW);
+        assertThat(BasePaymentFlowService.getImplementedStages(SubclassedPaymentFlowService.class))
+                .containsOnly(PRE_FLOW, PAYMENT_CARD_READING);
+    }
+
+    @Test
+    public void shouldAssumeAllStagesImplementedIfNoCallbackFound() {
+        assertThat(BasePaymentFlowService.getImplementedStages(NoCallbackPaymentFlowService.class))
+                .containsOnly(PRE_FLOW, SPLIT, PRE_TRANSACTION, PAYMENT_CARD_READING, POST_CARD_READING, TRANSACTION_PROCESSING,
+                              POST_TRANSACTION, POST_FLOW, GENERIC, POST_GENERIC, STATUS_UPDATE);
+    }
+
+    @Test
+    public void shouldRejectNotImplementedStageWithoutDecodingRequest() {
+        service.mapStageToCallback(SPLIT, clientCommunicator, "not json");
+
+        verify(clientCommunicator).sendResponseAsErrorAndEnd(eq(STAGE_NOT_SUPPORTED), anyString());
+    }
+
+    @Test
+    public void shouldRejectUnknownStage() {
+        service.mapStageToCallback("UNKNOWN", clientCommunicator, "not json");
+
+        verify(clientCommunicator).sendResponseAsErrorAndEnd(eq(STAGE_NOT_SUPPORTED), anyString());
+    }
+
+    static class TestPaymentFlowService extends BasePaymentFlowService {
+
+        @Override
+        protected void onPreFlow(PreFlowModel model) {
+        }
+    }
+
+    static class NoCallbackPaymentFlowService extends BasePaymentFlowService {
+    }
+
+    static class SubclassedPaymentFlowService extends TestPaymentFlowService {
+
+        @Override
+        protected void onPaymentCardReading(CardReadingModel model) {
+        }
+    }
+}
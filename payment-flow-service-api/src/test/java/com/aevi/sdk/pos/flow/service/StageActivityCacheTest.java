@@ -0,0 +1,68 @@
+package com.aevi.sdk.pos.flow.service;
+
+import android.content.ComponentName;
+import com.aevi.sdk.flow.constants.FlowStages;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class StageActivityCacheTest {
+
+    private final ComponentName component = new ComponentName("com.test", "com.test.PreFlowActivity");
+    private StageActivityCache cache;
+    private int resolveCount;
+
+    private final StageActivityCache.Resolver resolver = new StageActivityCache.Resolver() {
+        @Override
+        public ComponentName resolve(String flowStage) {
+            resolveCount++;
+            return flowStage.equals(FlowStages.PRE_FLOW) ? component : null;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new StageActivityCache();
+    }
+
+    @Test
+    public void shouldResolveEachStageOnce() {
+        assertThat(cache.get(FlowStages.PRE_FLOW, resolver)).isSameAs(component);
+        assertThat(cache.get(FlowStages.PRE_FLOW, resolver)).isSameAs(component);
+
+        assertThat(resolveCount).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCacheStagesWithoutActivity() {
+        assertThat(cache.get(FlowStages.SPLIT, resolver)).isNull();
+        assertThat(cache.get(FlowStages.SPLIT, resolver)).isNull();
+
+        assertThat(resolveCount).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldResolveAgainAfterInvalidate() {
+        cache.get(FlowStages.PRE_FLOW, resolver);
+
+        cache.invalidate();
+        cache.get(FlowStages.PRE_FLOW, resolver);
+
+        assertThat(resolveCount).isEqualTo(2);
+    }
+
+    @Test
+    public void warmShouldReportStagesWithoutActivity() {
+        List<String> missing = cache.warm(Arrays.asList(FlowStages.PRE_FLOW, FlowStages.SPLIT, FlowStages.POST_FLOW), resolver);
+
+        assertThat(missing).containsExactly(FlowStages.SPLIT, FlowStages.POST_FLOW);
+        cache.get(FlowStages.SPLIT, resolver);
+        assertThat(resolveCount).isEqualTo(3);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.pos.flow;
+
+
+import android.support.annotation.NonNull;
+import com.aevi.sdk.flow.BaseApiClient;
+import com.aevi.sdk.flow.constants.ErrorConstants;
+import com.aevi.sdk.flow.model.BatchItemResult;
+import com.aevi.sdk.flow.model.FlowEvent;
+import com.aevi.sdk.flow.model.FlowException;
+import com.aevi.sdk.flow.model.Request;
+import com.aevi.sdk.flow.service.BaseResponseListenerService;
+import com.aevi.sdk.pos.flow.model.Payment;
+import com.aevi.sdk.pos.flow.model.PaymentResponse;
+import com.aevi.sdk.pos.flow.model.config.PaymentSettings;
+import com.aevi.sdk.pos.flow.service.BasePaymentResponseListenerService;
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.Single;
+
+import java.util.List;
+
+/**
+ * Payment client with additional functions for batching, correlated responses and settings and event streams.
+ *
+ * These functions are not part of {@link PaymentClient} so that existing implementations and mocks of that interface keep compiling.
+ * Use {@link PaymentApi#getExtendedPaymentClient(android.content.Context)} to obtain an instance.
+ */
+public interface ExtendedPaymentClient extends PaymentClient {
+
+    /**
+     * Subscribe to the payment settings.
+     *
+     * The stream emits the current payment settings (see {@link #getPaymentSettings()}), followed by updated settings whenever they change.
+     *
+     * @return A stream that will emit {@link PaymentSettings} instances
+     */
+    @NonNull
+    Observable<PaymentSettings> subscribeToPaymentSettings();
+
+    /**
+     * Initiate payment processing based on the provided {@link Payment}, and receive the response via the rx chain.
+     *
+     * Unlike waiting for the response on the connection used to initiate the payment, the connection to the processing service is released as
+     * soon as the payment has been accepted. The response is delivered to your {@link BasePaymentResponseListenerService} as usual, and
+     * from there matched up with this payment by its id. This means your application must implement a {@link BasePaymentResponseListenerService}
+     * running in the same process as this client for this method to work.
+     *
+     * Note that failures can only be matched up with the payment if the processing service echoes the id of the failed request in the
+     * internal data of the failure message, under {@link com.aevi.sdk.flow.constants.InternalDataKeys#REQUEST_ID}. If it does not, the
+     * failure is only delivered to your {@link BasePaymentResponseListenerService}, and the returned Single only errors with
+     * {@link ErrorConstants#RESPONSE_TIMEOUT} once the timeout below has expired.
+     *
+     * The response is awaited for the sum of the stage timeouts in {@link com.aevi.sdk.flow.model.config.FpsSettings} for a flow with one
+     * transaction, starting once the payment has been accepted. The timeouts are taken from the payment settings last retrieved in this
+     * process, or are the defaults if the settings have not been retrieved yet. If the response is not received in time, a
+     * {@link FlowException} with error code {@link ErrorConstants#RESPONSE_TIMEOUT} is delivered to the `onError` handler. Flows that process several split transactions may take
+     * longer than this, in which case the response is still delivered to your {@link BasePaymentResponseListenerService}. As with
+     * {@link #initiatePayment(Payment)}, your application should not rely on still being alive when the flow is complete.
+     *
+     * @param payment The payment to process
+     * @return Single emitting the response for the payment
+     */
+    @NonNull
+    Single<PaymentResponse> initiatePaymentForResponse(Payment payment);
+
+    /**
+     * Initiate processing of a batch of requests, with up to {@link BaseApiClient#DEFAULT_MAX_IN_FLIGHT} requests in flight at a time.
+     *
+     * See {@link #initiateRequests(List, int)}.
+     *
+     * @param requests The requests
+     * @return Stream emitting the outcome of initiating each request, in order
+     */
+    @NonNull
+    Flowable<BatchItemResult<Request>> initiateRequests(List<Request> requests);
+
+    /**
+     * Initiate processing of a batch of requests.
+     *
+     * This is the same as calling {@link #initiateRequest(Request)} for each request, except that requests are sent back to back over pooled
+     * connections without waiting for each request to be accepted before sending the next, up to the given number of requests in flight.
+     *
+     * The stream emits whether each request was accepted, in the same order as the requests. A request being rejected does not stop the
+     * remaining requests from being sent. The responses are delivered to your {@link BaseResponseListenerService} as usual.
+     *
+     * @param requests    The requests
+     * @param maxInFlight The maximum number of requests waiting to be accepted at any time
+     * @return Stream emitting the outcome of initiating each request, in order
+     */
+    @NonNull
+    Flowable<BatchItemResult<Request>> initiateRequests(List<Request> requests, int maxInFlight);
+
+    /**
+     * Initiate processing of a batch of payments, with up to {@link BaseApiClient#DEFAULT_MAX_IN_FLIGHT} payments in flight at a time.
+     *
+     * See {@link #initiatePayments(List, int)}.
+     *
+     * @param payments The payments
+     * @return Stream emitting the outcome of initiating each payment, in order
+     */
+    @NonNull
+    Flowable<BatchItemResult<Payment>> initiatePayments(List<Payment> payments);
+
+    /**
+     * Initiate processing of a batch of payments.
+     *
+     * This is the same as calling {@link #initiatePayment(Payment)} for each payment, except that payments are sent back to back over pooled
+     * connections without waiting for each payment to be accepted before sending the next, up to the given number of payments in flight.
+     *
+     * The stream emits whether each payment was accepted, in the same order as the payments. A payment being rejected does not stop the
+     * remaining payments from being sent. The responses are delivered to your {@link BasePaymentResponseListenerService} as usual.
+     *
+     * @param payments    The payments
+     * @param maxInFlight The maximum number of payments waiting to be accepted at any time
+     * @return Stream emitting the outcome of initiating each payment, in order
+     */
+    @NonNull
+    Flowable<BatchItemResult<Payment>> initiatePayments(List<Payment> payments, int maxInFlight);
+
+    /**
+     * Subscribe to system events of the given types only.
+     *
+     * Only events of the given types are sent by the processing service, which saves the cost of sending and parsing events your application
+     * is not interested in.
+     *
+     * @param types The {@link FlowEvent#getType()} values to subscribe to
+     * @return A stream that will emit {@link FlowEvent} items of the given types
+     */
+    @NonNull
+    Observable<FlowEvent> subscribeToSystemEvents(String... types);
+
+    /**
+     * Subscribe to general system events, with backpressure.
+     *
+     * This is the same as {@link #subscribeToSystemEvents()}, except that events are buffered per subscriber in a bounded buffer. Use
+     * {@link BaseApiClient#getSystemEventStream()} to configure the buffer size, what to do on buffer overflow and how many recent events
+     * are replayed to new subscribers.
+     *
+     * @return A stream that will emit {@link FlowEvent} items
+     */
+    @NonNull
+    Flowable<FlowEvent> subscribeToSystemEventStream();
+}
@@ -73,4 +73,16 @@ public final class PaymentApi {
     public static PaymentClient getPaymentClient(Context context) {
         return new PaymentClientImpl(context);
     }
+
+    /**
+     * Get a new instance of an {@link ExtendedPaymentClient}, which in addition to the functions of {@link PaymentClient} supports batches,
+     * receiving payment responses via the rx chain and streams of settings and events.
+     *
+     * @param context The Android context
+     * @return An instance of {@link ExtendedPaymentClient}
+     */
+    @NonNull
+    public static ExtendedPaymentClient getExtendedPaymentClient(Context context) {
+        return new PaymentClientImpl(context);
+    }
 }
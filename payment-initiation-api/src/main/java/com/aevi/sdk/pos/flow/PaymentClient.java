@@ -43,7 +43,11 @@ public interface PaymentClient {
      *
      * This includes system settings, flow configurations, information about flow services, etc.
      *
-     * Subscribe to system events via {@link #subscribeToSystemEvents()} for updates when the state changes.
+     * The settings are cached for the lifetime of the process. Once fetched, the cached snapshot is returned straight away and refreshed in the
+     * background when it is older than 30 seconds, when a flow service reports a change of its service info, or when the processing service
+     * or a flow service is installed, updated or removed. Other changes to the processing service configuration are only picked up by the
+     * periodic refresh, so the snapshot returned may be up to 30 seconds out of date - use
+     * {@link ExtendedPaymentClient#subscribeToPaymentSettings()} to be notified of updated settings.
      *
      * @return Single emitting a {@link PaymentSettings} instance
      */
@@ -111,6 +115,8 @@ public interface PaymentClient {
      *
      * Examples are when there are changed to devices, applications or system settings.
      *
+     * All subscribers in the application share a single connection to the processing service.
+     *
      * @return A stream that will emit {@link FlowEvent} items
      * @see <a href="https://github.com/AEVI-AppFlow/pos-android-sdk/wiki/events-subscription" target="_blank">Events Docs</a>
      */
@@ -18,27 +18,42 @@ package com.aevi.sdk.pos.flow;
 import android.content.Context;
 import android.support.annotation.NonNull;
 import android.util.Log;
-import com.aevi.android.rxmessenger.ChannelClient;
 import com.aevi.sdk.flow.BaseApiClient;
 import com.aevi.sdk.flow.constants.AppMessageTypes;
 import com.aevi.sdk.flow.constants.ResponseMechanisms;
 import com.aevi.sdk.flow.model.AdditionalData;
 import com.aevi.sdk.flow.model.AppMessage;
+import com.aevi.sdk.flow.model.BatchItemResult;
 import com.aevi.sdk.flow.model.Request;
 import com.aevi.sdk.flow.model.Response;
+import com.aevi.sdk.flow.model.config.FpsSettings;
 import com.aevi.sdk.pos.flow.model.Payment;
 import com.aevi.sdk.pos.flow.model.PaymentResponse;
 import com.aevi.sdk.pos.flow.model.config.PaymentSettings;
-import io.reactivex.Completable;
-import io.reactivex.CompletableSource;
-import io.reactivex.Single;
-import io.reactivex.SingleSource;
-import io.reactivex.functions.Action;
+import io.reactivex.*;
+import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
 
-public class PaymentClientImpl extends BaseApiClient implements PaymentClient {
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+public class PaymentClientImpl extends BaseApiClient implements ExtendedPaymentClient {
 
     private static final String TAG = PaymentClientImpl.class.getSimpleName();
+    private static final int GENERAL_STAGES_PER_FLOW = 6;
+
+    private static final PaymentSettingsCache SETTINGS_CACHE = new PaymentSettingsCache();
+    private static final PaymentSettingsChangeReceiver SETTINGS_CHANGE_RECEIVER =
+            new PaymentSettingsChangeReceiver(SETTINGS_CACHE, FLOW_PROCESSING_SERVICE);
+
+    private final PaymentSettingsCache.Fetcher settingsFetcher = new PaymentSettingsCache.Fetcher() {
+        @Override
+        public Single<String> fetch() {
+            return fetchPaymentSettings();
+        }
+    };
 
     protected PaymentClientImpl(Context context) {
         super(PaymentInitiationConfig.VERSION, context);
@@ -52,21 +67,12 @@ public class PaymentClientImpl extends BaseApiClient implements PaymentClient {
         if (!isProcessingServiceInstalled(context)) {
             return Single.error(NO_FPS_EXCEPTION);
         }
-        final ChannelClient paymentInfoMessenger = getMessengerClient(INFO_PROVIDER_SERVICE_COMPONENT);
-        AppMessage appMessage = new AppMessage(AppMessageTypes.PAYMENT_FLOW_CONFIG_REQUEST, getInternalData());
-        return paymentInfoMessenger
-                .sendMessage(appMessage.toJson())
-                .map(new Function<String, PaymentSettings>() {
-                    @Override
-                    public PaymentSettings apply(String json) throws Exception {
-                        return PaymentSettings.fromJson(json);
-                    }
-                })
-                .singleOrError()
-                .doFinally(new Action() {
+        SETTINGS_CHANGE_RECEIVER.register(context);
+        return SETTINGS_CACHE.get(settingsFetcher)
+                .doOnSuccess(new Consumer<PaymentSettings>() {
                     @Override
-                    public void run() throws Exception {
-                        paymentInfoMessenger.closeConnection();
+                    public void accept(PaymentSettings paymentSettings) throws Exception {
+                        SETTINGS_CHANGE_RECEIVER.watchFlowServices(paymentSettings);
                     }
                 })
                 .onErrorResumeNext(new Function<Throwable, SingleSource<? extends PaymentSettings>>() {
@@ -77,25 +83,51 @@ public class PaymentClientImpl extends BaseApiClient implements PaymentClient {
                 });
     }
 
+    @NonNull
+    @Override
+    public Observable<PaymentSettings> subscribeToPaymentSettings() {
+        if (!isProcessingServiceInstalled(context)) {
+            return Observable.error(NO_FPS_EXCEPTION);
+        }
+        SETTINGS_CHANGE_RECEIVER.register(context);
+        return SETTINGS_CACHE.subscribe(settingsFetcher)
+                .doOnNext(new Consumer<PaymentSettings>() {
+                    @Override
+                    public void accept(PaymentSettings paymentSettings) throws Exception {
+                        SETTINGS_CHANGE_RECEIVER.watchFlowServices(paymentSettings);
+                    }
+                })
+                .onErrorResumeNext(new Function<Throwable, ObservableSource<? extends PaymentSettings>>() {
+                    @Override
+                    public ObservableSource<? extends PaymentSettings> apply(Throwable throwable) throws Exception {
+                        return Observable.error(createFlowException(throwable));
+                    }
+                });
+    }
+
+    private Single<String> fetchPaymentSettings() {
+        return coalesceInfoRequest(INFO_PROVIDER_SERVICE_COMPONENT, AppMessageTypes.PAYMENT_FLOW_CONFIG_REQUEST, new Callable<Single<String>>() {
+            @Override
+            public Single<String> call() throws Exception {
+                AppMessage appMessage = new AppMessage(AppMessageTypes.PAYMENT_FLOW_CONFIG_REQUEST, getInternalData());
+                return sendMessage(INFO_PROVIDER_SERVICE_COMPONENT, appMessage).singleOrError();
+            }
+        });
+    }
+
     @Override
     @NonNull
     public Completable initiatePayment(final Payment payment) {
         if (!isProcessingServiceInstalled(context)) {
             return Completable.error(NO_FPS_EXCEPTION);
         }
-        final ChannelClient transactionMessenger = getMessengerClient(FLOW_PROCESSING_SERVICE_COMPONENT);
-        AppMessage appMessage = createAppMessageForPayment(payment, ResponseMechanisms.RESPONSE_SERVICE);
+        return sendPayment(createAppMessageForPayment(payment, ResponseMechanisms.RESPONSE_SERVICE));
+    }
 
-        return transactionMessenger
-                .sendMessage(appMessage.toJson())
+    private Completable sendPayment(AppMessage appMessage) {
+        return sendMessage(FLOW_PROCESSING_SERVICE_COMPONENT, appMessage)
                 .singleOrError()
                 .ignoreElement()
-                .doFinally(new Action() {
-                    @Override
-                    public void run() throws Exception {
-                        transactionMessenger.closeConnection();
-                    }
-                })
                 .onErrorResumeNext(new Function<Throwable, CompletableSource>() {
                     @Override
                     public CompletableSource apply(Throwable throwable) throws Exception {
@@ -104,14 +136,68 @@ public class PaymentClientImpl extends BaseApiClient implements PaymentClient {
                 });
     }
 
+    @Override
+    @NonNull
+    public Single<PaymentResponse> initiatePaymentForResponse(final Payment payment) {
+        if (!isProcessingServiceInstalled(context)) {
+            return Single.error(NO_FPS_EXCEPTION);
+        }
+        return Single.defer(new Callable<SingleSource<PaymentResponse>>() {
+            @Override
+            public SingleSource<PaymentResponse> call() throws Exception {
+                Request request = createPaymentRequest(payment);
+                Completable initiation = sendPayment(createAppMessageForPaymentRequest(request, ResponseMechanisms.RESPONSE_SERVICE));
+                long timeoutMs = getFlowResponseTimeoutMs(getCachedFpsSettings());
+                return PaymentResponseCorrelator
+                        .correlate(payment.getId(), request.getId(), initiation, timeoutMs, Schedulers.computation());
+            }
+        });
+    }
+
+    /*
+    Fetching the settings just for the timeouts would add a round trip to the processing service to every payment, so fall back to the
+    default timeouts instead if the settings have not been fetched yet
+     */
+    private static FpsSettings getCachedFpsSettings() {
+        PaymentSettings paymentSettings = SETTINGS_CACHE.getCached();
+        if (paymentSettings == null || paymentSettings.getFpsSettings() == null) {
+            return new FpsSettings();
+        }
+        return paymentSettings.getFpsSettings();
+    }
+
+    /*
+    The processing service times out each stage separately, so allow for the timeouts of all the stages of a flow with one transaction
+     */
+    static long getFlowResponseTimeoutMs(FpsSettings fpsSettings) {
+        long timeoutSeconds = (long) fpsSettings.getUserSelectionTimeoutSeconds() + fpsSettings.getSplitResponseTimeoutSeconds()
+                + fpsSettings.getPaymentResponseTimeoutSeconds() + GENERAL_STAGES_PER_FLOW * fpsSettings.getFlowResponseTimeoutSeconds();
+        return TimeUnit.SECONDS.toMillis(timeoutSeconds);
+    }
+
+    @Override
+    @NonNull
+    public Flowable<BatchItemResult<Payment>> initiatePayments(List<Payment> payments) {
+        return initiatePayments(payments, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    @Override
+    @NonNull
+    public Flowable<BatchItemResult<Payment>> initiatePayments(List<Payment> payments, int maxInFlight) {
+        return initiateBatch(payments, maxInFlight, new Function<Payment, AppMessage>() {
+            @Override
+            public AppMessage apply(Payment payment) throws Exception {
+                return createAppMessageForPayment(payment, ResponseMechanisms.RESPONSE_SERVICE);
+            }
+        });
+    }
+
     protected Single<PaymentResponse> initiatePaymentDirect(final Payment payment) {
         if (!isProcessingServiceInstalled(context)) {
             return Single.error(NO_FPS_EXCEPTION);
         }
-        final ChannelClient transactionMessenger = getMessengerClient(FLOW_PROCESSING_SERVICE_COMPONENT);
         AppMessage appMessage = createAppMessageForPayment(payment, ResponseMechanisms.MESSENGER_CONNECTION);
-        return transactionMessenger
-                .sendMessage(appMessage.toJson())
+        return sendMessage(FLOW_PROCESSING_SERVICE_COMPONENT, appMessage)
                 .singleOrError()
                 .map(new Function<String, PaymentResponse>() {
                     @Override
@@ -120,12 +206,6 @@ public class PaymentClientImpl extends BaseApiClient implements PaymentClient {
                         return response.getResponseData().getValue(AppMessageTypes.PAYMENT_MESSAGE, PaymentResponse.class);
                     }
                 })
-                .doFinally(new Action() {
-                    @Override
-                    public void run() throws Exception {
-                        transactionMessenger.closeConnection();
-                    }
-                })
                 .onErrorResumeNext(new Function<Throwable, SingleSource<? extends PaymentResponse>>() {
                     @Override
                     public SingleSource<? extends PaymentResponse> apply(Throwable throwable) throws Exception {
@@ -135,11 +215,19 @@ public class PaymentClientImpl extends BaseApiClient implements PaymentClient {
     }
 
     protected AppMessage createAppMessageForPayment(Payment payment, String responseMechanism) {
+        return createAppMessageForPaymentRequest(createPaymentRequest(payment), responseMechanism);
+    }
+
+    private static Request createPaymentRequest(Payment payment) {
         AdditionalData paymentData = new AdditionalData();
         paymentData.addData(AppMessageTypes.PAYMENT_MESSAGE, payment);
         Request request = new Request(payment.getFlowName(), paymentData);
         request.setDeviceId(payment.getDeviceId());
-        AppMessage appMessage = new AppMessage(AppMessageTypes.PAYMENT_MESSAGE, request.toJson(), getInternalData());
+        return request;
+    }
+
+    private AppMessage createAppMessageForPaymentRequest(Request request, String responseMechanism) {
+        AppMessage appMessage = new AppMessage(AppMessageTypes.PAYMENT_MESSAGE, serializeForProcessingService(request), getInternalData());
         appMessage.setResponseMechanism(responseMechanism);
         return appMessage;
     }
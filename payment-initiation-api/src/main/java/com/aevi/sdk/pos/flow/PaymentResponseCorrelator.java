@@ -0,0 +1,131 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.pos.flow;
+
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.aevi.sdk.flow.model.FlowException;
+import com.aevi.sdk.pos.flow.model.Payment;
+import com.aevi.sdk.pos.flow.model.PaymentResponse;
+import com.aevi.sdk.pos.flow.service.BasePaymentResponseListenerService;
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.SingleSource;
+import io.reactivex.functions.Action;
+import io.reactivex.subjects.SingleSubject;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.aevi.sdk.flow.constants.ErrorConstants.INVALID_REQUEST;
+import static com.aevi.sdk.flow.constants.ErrorConstants.RESPONSE_TIMEOUT;
+
+/**
+ * Process-wide correlation of payment responses and failures received by a {@link BasePaymentResponseListenerService} with the payments
+ * awaiting them, keyed by the payment id and the id of the request the payment was sent in.
+ *
+ * This allows {@link ExtendedPaymentClient#initiatePaymentForResponse(Payment)} to deliver the response via the rx chain, without holding a
+ * connection to the processing service open for the whole flow. As the correlation is held in memory, the listener service must run in
+ * the same process as the client awaiting the response.
+ */
+public final class PaymentResponseCorrelator {
+
+    private static final ConcurrentMap<String, SingleSubject<PaymentResponse>> PENDING = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, String> PAYMENT_IDS_BY_REQUEST_ID = new ConcurrentHashMap<>();
+
+    private PaymentResponseCorrelator() {
+    }
+
+    /**
+     * Complete the payment awaiting the given response, if any.
+     *
+     * @param paymentResponse The payment response
+     * @return True if a payment was awaiting the response, false otherwise
+     */
+    public static boolean onPaymentResponse(@NonNull PaymentResponse paymentResponse) {
+        Payment payment = paymentResponse.getOriginatingPayment();
+        SingleSubject<PaymentResponse> pending = payment != null ? PENDING.remove(payment.getId()) : null;
+        if (pending == null) {
+            return false;
+        }
+        pending.onSuccess(paymentResponse);
+        return true;
+    }
+
+    /**
+     * Fail the payment awaiting a response for the given request or payment id, if any.
+     *
+     * @param id            The id of the request the payment was sent in, or the id of the payment
+     * @param flowException The failure
+     * @return True if a payment was awaiting a response, false otherwise
+     */
+    public static boolean onPaymentFailure(@Nullable String id, @NonNull FlowException flowException) {
+        if (id == null) {
+            return false;
+        }
+        String paymentId = PAYMENT_IDS_BY_REQUEST_ID.get(id);
+        SingleSubject<PaymentResponse> pending = PENDING.remove(paymentId != null ? paymentId : id);
+        if (pending == null) {
+            return false;
+        }
+        pending.onError(flowException);
+        return true;
+    }
+
+    /**
+     * Initiate a payment on subscription, and emit the response for it once received.
+     *
+     * The response is awaited from before the payment is initiated, and no longer once the returned single terminates or is disposed of.
+     *
+     * @param paymentId  The id of the payment
+     * @param requestId  The id of the request the payment is sent in
+     * @param initiation Initiates the payment
+     * @param timeoutMs  How long to wait for the response once the payment has been accepted, in milliseconds
+     * @param scheduler  The scheduler to time out on
+     * @return Single emitting the payment response
+     */
+    static Single<PaymentResponse> correlate(final String paymentId, final String requestId, final Completable initiation,
+                                             final long timeoutMs, final Scheduler scheduler) {
+        return Single.defer(new Callable<SingleSource<PaymentResponse>>() {
+            @Override
+            public SingleSource<PaymentResponse> call() throws Exception {
+                final SingleSubject<PaymentResponse> pending = SingleSubject.create();
+                if (PENDING.putIfAbsent(paymentId, pending) != null) {
+                    return Single.error(new FlowException(INVALID_REQUEST, "A response is already awaited for payment: " + paymentId));
+                }
+                PAYMENT_IDS_BY_REQUEST_ID.put(requestId, paymentId);
+                Single<PaymentResponse> timeout = Single.error(
+                        new FlowException(RESPONSE_TIMEOUT, "No response received for payment: " + paymentId));
+                return initiation
+                        .andThen(pending.timeout(timeoutMs, TimeUnit.MILLISECONDS, scheduler, timeout))
+                        .doFinally(new Action() {
+                            @Override
+                            public void run() throws Exception {
+                                PENDING.remove(paymentId, pending);
+                                PAYMENT_IDS_BY_REQUEST_ID.remove(requestId, paymentId);
+                            }
+                        });
+            }
+        });
+    }
+
+    static int getPendingCount() {
+        return PENDING.size();
+    }
+}
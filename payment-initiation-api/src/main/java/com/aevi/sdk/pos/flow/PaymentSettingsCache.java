@@ -0,0 +1,199 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.pos.flow;
+
+
+import android.util.Log;
+import com.aevi.sdk.pos.flow.model.config.PaymentSettings;
+import io.reactivex.Observable;
+import io.reactivex.Single;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.subjects.BehaviorSubject;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide stale-while-revalidate cache of the payment settings.
+ *
+ * Once the settings have been fetched, they are served straight from the cache. If the cached settings are older than the max age, or have
+ * been invalidated because the configuration of the processing service or of a flow service has changed, they are still served but a
+ * refresh is started in the background. Invalidation also starts a refresh straight away, so that the cache is usually up to date by the time
+ * it is next read.
+ *
+ * Refreshed settings are only parsed (and published to subscribers) if they differ from the cached ones.
+ */
+final class PaymentSettingsCache {
+
+    private static final String TAG = PaymentSettingsCache.class.getSimpleName();
+
+    static final long DEFAULT_MAX_AGE_MS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Fetches the serialised payment settings from the processing service.
+     */
+    interface Fetcher {
+        Single<String> fetch();
+    }
+
+    private final BehaviorSubject<PaymentSettings> settingsSubject = BehaviorSubject.create();
+    private final long maxAgeMs;
+
+    private Fetcher lastFetcher;
+    private Single<PaymentSettings> inFlight;
+    private String settingsJson;
+    private long fetchedAt;
+    private boolean invalidated;
+    private int generation;
+
+    PaymentSettingsCache() {
+        this(DEFAULT_MAX_AGE_MS);
+    }
+
+    PaymentSettingsCache(long maxAgeMs) {
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * Get the payment settings, served from the cache if available.
+     *
+     * The cache is consulted when the returned single is subscribed to, so that re-subscribing (such as via retry) reads the cache again, and
+     * re-fetches the settings if required.
+     *
+     * @param fetcher The fetcher to use if the settings need to be (re-)fetched
+     * @return Single emitting the payment settings
+     */
+    Single<PaymentSettings> get(final Fetcher fetcher) {
+        return Single.defer(new Callable<Single<PaymentSettings>>() {
+            @Override
+            public Single<PaymentSettings> call() throws Exception {
+                return getNow(fetcher);
+            }
+        });
+    }
+
+    private Single<PaymentSettings> getNow(Fetcher fetcher) {
+        PaymentSettings cached;
+        synchronized (this) {
+            lastFetcher = fetcher;
+            cached = settingsSubject.getValue();
+            if (cached == null) {
+                return refresh(fetcher);
+            }
+            if (!isStale()) {
+                return Single.just(cached);
+            }
+        }
+        refreshInBackground(fetcher);
+        return Single.just(cached);
+    }
+
+    /**
+     * Get the cached payment settings, without fetching or refreshing them.
+     *
+     * @return The cached payment settings, or null if they have not been fetched yet
+     */
+    PaymentSettings getCached() {
+        return settingsSubject.getValue();
+    }
+
+    /**
+     * Get a stream of the payment settings, that emits the current settings followed by any updated settings.
+     *
+     * @param fetcher The fetcher to use if the settings need to be (re-)fetched
+     * @return Stream of payment settings
+     */
+    Observable<PaymentSettings> subscribe(Fetcher fetcher) {
+        // The subject replays the latest settings, which will be the same instance as emitted by get() unless they were updated in-between
+        return get(fetcher).toObservable().concatWith(settingsSubject).distinctUntilChanged();
+    }
+
+    /**
+     * Mark the cached settings as stale, and start a refresh if the settings have been fetched before.
+     */
+    void invalidate() {
+        Fetcher fetcher;
+        synchronized (this) {
+            invalidated = true;
+            generation++;
+            fetcher = lastFetcher;
+        }
+        if (fetcher != null) {
+            refreshInBackground(fetcher);
+        }
+    }
+
+    synchronized boolean isStale() {
+        return invalidated || System.currentTimeMillis() - fetchedAt > maxAgeMs;
+    }
+
+    private void refreshInBackground(Fetcher fetcher) {
+        refresh(fetcher).subscribe(new Consumer<PaymentSettings>() {
+            @Override
+            public void accept(PaymentSettings paymentSettings) throws Exception {
+                // Published via the subject
+            }
+        }, new Consumer<Throwable>() {
+            @Override
+            public void accept(Throwable throwable) throws Exception {
+                Log.w(TAG, "Failed to refresh payment settings", throwable);
+            }
+        });
+    }
+
+    private synchronized Single<PaymentSettings> refresh(Fetcher fetcher) {
+        if (inFlight == null) {
+            final int fetchGeneration = generation;
+            inFlight = fetcher.fetch()
+                    .map(new Function<String, PaymentSettings>() {
+                        @Override
+                        public PaymentSettings apply(String json) throws Exception {
+                            return store(json, fetchGeneration);
+                        }
+                    })
+                    .doFinally(new Action() {
+                        @Override
+                        public void run() throws Exception {
+                            synchronized (PaymentSettingsCache.this) {
+                                inFlight = null;
+                            }
+                        }
+                    })
+                    .cache();
+        }
+        return inFlight;
+    }
+
+    private PaymentSettings store(String json, int fetchGeneration) {
+        PaymentSettings settings;
+        synchronized (this) {
+            fetchedAt = System.currentTimeMillis();
+            if (fetchGeneration == generation) {
+                // Otherwise the settings were invalidated while being fetched, and may already be out of date
+                invalidated = false;
+            }
+            settings = settingsSubject.getValue();
+            if (settings != null && json.equals(settingsJson)) {
+                return settings;
+            }
+            settings = PaymentSettings.fromJson(json);
+            settingsJson = json;
+        }
+        settingsSubject.onNext(settings);
+        return settings;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.pos.flow;
+
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.PatternMatcher;
+import android.util.Log;
+import com.aevi.sdk.pos.flow.model.PaymentFlowServiceInfo;
+import com.aevi.sdk.pos.flow.model.config.PaymentSettings;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.aevi.sdk.flow.constants.IntentActions.SERVICE_INFO_CHANGE_ACTION;
+
+/**
+ * Invalidates the payment settings cache when the applications the settings are built from change.
+ *
+ * The settings are invalidated when a flow service broadcasts a change of its service info, and when the package of the processing service
+ * or of one of the flow services in the current settings is added, replaced, changed or removed. Package broadcasts for other applications
+ * are not received, and the receiver is registered again whenever the flow services in the settings change.
+ */
+final class PaymentSettingsChangeReceiver extends BroadcastReceiver {
+
+    private static final String TAG = PaymentSettingsChangeReceiver.class.getSimpleName();
+
+    private final PaymentSettingsCache cache;
+    private final String processingServicePackage;
+
+    private Context registeredContext;
+    private Set<String> flowServicePackages = Collections.emptySet();
+
+    PaymentSettingsChangeReceiver(PaymentSettingsCache cache, String processingServicePackage) {
+        this.cache = cache;
+        this.processingServicePackage = processingServicePackage;
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Log.d(TAG, "Invalidating payment settings due to: " + intent.getAction());
+        cache.invalidate();
+    }
+
+    /**
+     * Start receiving change broadcasts against the application context of the given context, if not already registered.
+     *
+     * @param context The Android context
+     */
+    synchronized void register(Context context) {
+        Context applicationContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        if (applicationContext != registeredContext) {
+            unregister();
+            registerWith(applicationContext);
+        }
+    }
+
+    /**
+     * Watch the packages of the flow services in the given settings for changes.
+     *
+     * @param paymentSettings The latest payment settings
+     */
+    synchronized void watchFlowServices(PaymentSettings paymentSettings) {
+        Set<String> packages = new HashSet<>();
+        if (paymentSettings.getPaymentFlowServices() != null) {
+            for (PaymentFlowServiceInfo serviceInfo : paymentSettings.getPaymentFlowServices().getAll()) {
+                if (serviceInfo.getPackageName() != null) {
+                    packages.add(serviceInfo.getPackageName());
+                }
+            }
+        }
+        if (!packages.equals(flowServicePackages)) {
+            flowServicePackages = packages;
+            Context context = registeredContext;
+            if (context != null) {
+                unregister();
+                registerWith(context);
+            }
+        }
+    }
+
+    private void registerWith(Context context) {
+        IntentFilter serviceInfoFilter = new IntentFilter(SERVICE_INFO_CHANGE_ACTION);
+        serviceInfoFilter.addDataScheme("package");
+        context.registerReceiver(this, serviceInfoFilter);
+
+        IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addDataScheme("package");
+        packageFilter.addDataSchemeSpecificPart(processingServicePackage, PatternMatcher.PATTERN_LITERAL);
+        for (String flowServicePackage : flowServicePackages) {
+            packageFilter.addDataSchemeSpecificPart(flowServicePackage, PatternMatcher.PATTERN_LITERAL);
+        }
+        context.registerReceiver(this, packageFilter);
+        registeredContext = context;
+    }
+
+    private void unregister() {
+        if (registeredContext != null) {
+            try {
+                registeredContext.unregisterReceiver(this);
+            } catch (IllegalArgumentException e) {
+                // Not registered
+            }
+            registeredContext = null;
+        }
+    }
+}
@@ -17,6 +17,7 @@ package com.aevi.sdk.pos.flow.model;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
+import com.aevi.sdk.flow.codec.WireFormat;
 import com.aevi.sdk.flow.model.AdditionalData;
 import com.aevi.sdk.flow.model.BaseModel;
 import com.aevi.sdk.flow.model.Customer;
@@ -295,7 +296,7 @@ public class Payment extends BaseModel {
     }
 
     public static Payment fromJson(String json) {
-        return JsonConverter.deserialize(json, Payment.class);
+        return WireFormat.deserialize(json, Payment.class);
     }
 
 }
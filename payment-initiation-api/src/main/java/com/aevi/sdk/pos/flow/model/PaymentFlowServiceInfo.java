@@ -36,6 +36,7 @@ import com.aevi.sdk.flow.model.BaseServiceInfo;
 import com.aevi.sdk.flow.util.ComparisonUtil;
 import com.aevi.util.json.JsonConverter;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
@@ -49,6 +50,16 @@ import java.util.Set;
  */
 public class PaymentFlowServiceInfo extends BaseServiceInfo {
 
+    /**
+     * The additional info key for the stages implemented by the service.
+     */
+    public static final String IMPLEMENTED_STAGES_KEY = "implementedStages";
+
+    /**
+     * The additional info key for the stage filters of the service.
+     */
+    public static final String STAGE_FILTERS_KEY = "stageFilters";
+
     private final boolean canAdjustAmounts;
     private final boolean canPayAmounts;
     private final String defaultCurrency;
@@ -154,6 +165,98 @@ public class PaymentFlowServiceInfo extends BaseServiceInfo {
         return defaultCurrency;
     }
 
+    /**
+     * Get the stages the service has declared that it implements.
+     *
+     * @return The implemented stages, or null if the service has not declared them
+     */
+    @Nullable
+    public Set<String> getImplementedStages() {
+        AdditionalData additionalInfo = getAdditionalInfo();
+        String[] stages = additionalInfo != null ? additionalInfo.getValue(IMPLEMENTED_STAGES_KEY, String[].class) : null;
+        return stages != null ? new HashSet<>(Arrays.asList(stages)) : null;
+    }
+
+    /**
+     * Check whether the service implements the given stage.
+     *
+     * Services that have not declared the stages they implement are assumed to implement all stages.
+     *
+     * @param stage The stage to check
+     * @return True if the service implements the stage, false otherwise
+     */
+    public boolean implementsStage(String stage) {
+        Set<String> stages = getImplementedStages();
+        return stages == null || ComparisonUtil.stringCollectionContainsIgnoreCase(stages, stage);
+    }
+
+    /**
+     * Get the filters declaring the requests the service should be called for in a stage.
+     *
+     * @return The stage filters, which may be empty
+     */
+    @NonNull
+    public StageFilter[] getStageFilters() {
+        AdditionalData additionalInfo = getAdditionalInfo();
+        StageFilter[] stageFilters = additionalInfo != null ? additionalInfo.getValue(STAGE_FILTERS_KEY, StageFilter[].class) : null;
+        return stageFilters != null ? stageFilters : new StageFilter[0];
+    }
+
+    /**
+     * Check whether calling the service for a transaction request in the given stage can be skipped, either because the service does not
+     * implement the stage or because the request does not match any of the filters of the service for the stage.
+     *
+     * @param stage              The stage
+     * @param transactionRequest The transaction request
+     * @return True if the call can be skipped, false if the service should be called
+     */
+    public boolean canSkip(String stage, final TransactionRequest transactionRequest) {
+        return canSkip(stage, new FilterMatcher() {
+            @Override
+            public boolean matches(StageFilter stageFilter) {
+                return stageFilter.matches(transactionRequest);
+            }
+        });
+    }
+
+    /**
+     * Check whether calling the service for a payment in the given stage can be skipped, either because the service does not implement the
+     * stage or because the payment does not match any of the filters of the service for the stage.
+     *
+     * @param stage   The stage
+     * @param payment The payment
+     * @return True if the call can be skipped, false if the service should be called
+     */
+    public boolean canSkip(String stage, final Payment payment) {
+        return canSkip(stage, new FilterMatcher() {
+            @Override
+            public boolean matches(StageFilter stageFilter) {
+                return stageFilter.matches(payment);
+            }
+        });
+    }
+
+    private boolean canSkip(String stage, FilterMatcher filterMatcher) {
+        if (!implementsStage(stage)) {
+            return true;
+        }
+        boolean hasFilter = false;
+        for (StageFilter stageFilter : getStageFilters()) {
+            if (stageFilter.getStage().equalsIgnoreCase(stage)) {
+                if (filterMatcher.matches(stageFilter)) {
+                    return false;
+                }
+                hasFilter = true;
+            }
+        }
+        return hasFilter;
+    }
+
+    private interface FilterMatcher {
+
+        boolean matches(StageFilter stageFilter);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -16,6 +16,7 @@ package com.aevi.sdk.pos.flow.model;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import com.aevi.sdk.flow.codec.WireFormat;
 import com.aevi.sdk.flow.model.BaseModel;
 import com.aevi.util.json.JsonConverter;
 
@@ -243,7 +244,7 @@ public class PaymentResponse extends BaseModel {
     }
 
     public static PaymentResponse fromJson(String json) {
-        return JsonConverter.deserialize(json, PaymentResponse.class);
+        return WireFormat.deserialize(json, PaymentResponse.class);
     }
 
     @Override
@@ -0,0 +1,226 @@
+/*
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.aevi.sdk.pos.flow.model;
+
+
+import android.support.annotation.NonNull;
+import com.aevi.sdk.flow.model.AdditionalData;
+import com.aevi.sdk.flow.util.ComparisonUtil;
+import com.aevi.util.json.JsonConverter;
+import com.aevi.util.json.Jsonable;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Declares the conditions a request must meet for a flow service to be called for a stage.
+ *
+ * If a request does not meet the conditions, calling the flow service would be a no-op (such as it calling skip()), and the processing service
+ * can skip the call altogether. All conditions that are set must be met. Conditions that are not set match any request.
+ *
+ * Use flow-service-api StageFilterBuilder to construct an instance, and add it to the service info via the PaymentFlowServiceInfoBuilder.
+ */
+public class StageFilter implements Jsonable {
+
+    private final String stage;
+    private final long minAmount;
+    private final long maxAmount;
+    private final Set<String> currencies;
+    private final Set<String> flowTypes;
+    private final boolean basketRequired;
+    private final boolean customerRequired;
+    private final Set<String> requiredDataKeys;
+
+    // Default constructor for deserialisation
+    StageFilter() {
+        this("", 0, Long.MAX_VALUE, null, null, false, false, null);
+    }
+
+    public StageFilter(String stage, long minAmount, long maxAmount, Set<String> currencies, Set<String> flowTypes, boolean basketRequired,
+                       boolean customerRequired, Set<String> requiredDataKeys) {
+        this.stage = stage;
+        this.minAmount = minAmount;
+        this.maxAmount = maxAmount;
+        this.currencies = currencies != null ? currencies : new HashSet<String>();
+        this.flowTypes = flowTypes != null ? flowTypes : new HashSet<String>();
+        this.basketRequired = basketRequired;
+        this.customerRequired = customerRequired;
+        this.requiredDataKeys = requiredDataKeys != null ? requiredDataKeys : new HashSet<String>();
+    }
+
+    /**
+     * Get the stage this filter applies to.
+     *
+     * @return The flow stage
+     */
+    @NonNull
+    public String getStage() {
+        return stage;
+    }
+
+    /**
+     * Get the minimum total amount value of requests, inclusive.
+     *
+     * @return The minimum amount value
+     */
+    public long getMinAmount() {
+        return minAmount;
+    }
+
+    /**
+     * Get the maximum total amount value of requests, inclusive.
+     *
+     * @return The maximum amount value
+     */
+    public long getMaxAmount() {
+        return maxAmount;
+    }
+
+    /**
+     * Get the currencies of requests, or an empty set for any currency.
+     *
+     * @return The currencies
+     */
+    @NonNull
+    public Set<String> getCurrencies() {
+        return currencies;
+    }
+
+    /**
+     * Get the flow types of requests, or an empty set for any flow type.
+     *
+     * @return The flow types
+     */
+    @NonNull
+    public Set<String> getFlowTypes() {
+        return flowTypes;
+    }
+
+    /**
+     * @return True if requests must have a basket
+     */
+    public boolean isBasketRequired() {
+        return basketRequired;
+    }
+
+    /**
+     * @return True if requests must have a customer
+     */
+    public boolean isCustomerRequired() {
+        return customerRequired;
+    }
+
+    /**
+     * Get the keys that must be present in the additional data of requests.
+     *
+     * @return The required additional data keys
+     */
+    @NonNull
+    public Set<String> getRequiredDataKeys() {
+        return requiredDataKeys;
+    }
+
+    /**
+     * Check whether a transaction request meets the conditions of this filter.
+     *
+     * @param transactionRequest The transaction request
+     * @return True if the request meets the conditions, false if the call can be skipped
+     */
+    public boolean matches(TransactionRequest transactionRequest) {
+        List<Basket> baskets = transactionRequest.getBaskets();
+        return matches(transactionRequest.getFlowType(), transactionRequest.getAmounts(), baskets != null && !baskets.isEmpty(),
+                       transactionRequest.getCustomer() != null, transactionRequest.getAdditionalData());
+    }
+
+    /**
+     * Check whether a payment meets the conditions of this filter.
+     *
+     * @param payment The payment
+     * @return True if the payment meets the conditions, false if the call can be skipped
+     */
+    public boolean matches(Payment payment) {
+        return matches(payment.getFlowType(), payment.getAmounts(), payment.getBasket() != null, payment.getCustomer() != null,
+                       payment.getAdditionalData());
+    }
+
+    private boolean matches(String flowType, Amounts amounts, boolean hasBasket, boolean hasCustomer, AdditionalData additionalData) {
+        if (amounts != null) {
+            long amount = amounts.getTotalAmountValue();
+            if (amount < minAmount || amount > maxAmount) {
+                return false;
+            }
+            if (!currencies.isEmpty() && !ComparisonUtil.stringCollectionContainsIgnoreCase(currencies, amounts.getCurrency())) {
+                return false;
+            }
+        }
+        if (!flowTypes.isEmpty() && !ComparisonUtil.stringCollectionContainsIgnoreCase(flowTypes, flowType)) {
+            return false;
+        }
+        if ((basketRequired && !hasBasket) || (customerRequired && !hasCustomer)) {
+            return false;
+        }
+        for (String key : requiredDataKeys) {
+            if (additionalData == null || !additionalData.hasData(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toJson() {
+        return JsonConverter.serialize(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        StageFilter that = (StageFilter) o;
+        return minAmount == that.minAmount &&
+                maxAmount == that.maxAmount &&
+                basketRequired == that.basketRequired &&
+                customerRequired == that.customerRequired &&
+                Objects.equals(stage, that.stage) &&
+                Objects.equals(currencies, that.currencies) &&
+                Objects.equals(flowTypes, that.flowTypes) &&
+                Objects.equals(requiredDataKeys, that.requiredDataKeys);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(stage, minAmount, maxAmount, currencies, flowTypes, basketRequired, customerRequired, requiredDataKeys);
+    }
+
+    @Override
+    public String toString() {
+        return "StageFilter{" +
+                "stage='" + stage + '\'' +
+                ", minAmount=" + minAmount +
+                ", maxAmount=" + maxAmount +
+                ", currencies=" + currencies +
+                ", flowTypes=" + flowTypes +
+                ", basketRequired=" + basketRequired +
+                ", customerRequired=" + customerRequired +
+                ", requiredDataKeys=" + requiredDataKeys +
+                '}';
+    }
+}
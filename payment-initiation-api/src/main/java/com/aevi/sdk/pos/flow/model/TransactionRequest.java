@@ -16,6 +16,7 @@ package com.aevi.sdk.pos.flow.model;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import com.aevi.sdk.flow.codec.WireFormat;
 import com.aevi.sdk.flow.model.AdditionalData;
 import com.aevi.sdk.flow.model.BaseModel;
 import com.aevi.sdk.flow.model.Customer;
@@ -211,7 +212,7 @@ public class TransactionRequest extends BaseModel {
     }
 
     public static TransactionRequest fromJson(String json) {
-        return JsonConverter.deserialize(json, TransactionRequest.class);
+        return WireFormat.deserialize(json, TransactionRequest.class);
     }
 
     /**
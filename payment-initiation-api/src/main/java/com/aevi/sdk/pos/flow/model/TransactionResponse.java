@@ -16,6 +16,7 @@ package com.aevi.sdk.pos.flow.model;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import com.aevi.sdk.flow.codec.WireFormat;
 import com.aevi.sdk.flow.model.AdditionalData;
 import com.aevi.sdk.flow.model.BaseModel;
 import com.aevi.util.json.JsonConverter;
@@ -223,7 +224,7 @@ public class TransactionResponse extends BaseModel {
     }
 
     public static TransactionResponse fromJson(String json) {
-        return JsonConverter.deserialize(json, TransactionResponse.class);
+        return WireFormat.deserialize(json, TransactionResponse.class);
     }
 
     @Override
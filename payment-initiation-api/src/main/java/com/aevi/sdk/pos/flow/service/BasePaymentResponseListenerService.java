@@ -13,14 +13,24 @@
  */
 package com.aevi.sdk.pos.flow.service;
 
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.aevi.sdk.flow.model.FlowException;
 import com.aevi.sdk.flow.service.BaseListenerService;
+import com.aevi.sdk.pos.flow.ExtendedPaymentClient;
 import com.aevi.sdk.pos.flow.PaymentInitiationConfig;
+import com.aevi.sdk.pos.flow.PaymentResponseCorrelator;
 import com.aevi.sdk.pos.flow.model.PaymentResponse;
 
 /**
  * Extend this service in your application if you want to listen to payment responses initiated by your application,
  * or if you are implementing a flow service and want to listen to the final `PaymentResponse` when the flow is complete.
  *
+ * Responses and failures for payments initiated via
+ * {@link ExtendedPaymentClient#initiatePaymentForResponse(com.aevi.sdk.pos.flow.model.Payment)} are also delivered to the rx chain of that
+ * call, in addition to {@link #notifyResponse(PaymentResponse)} and {@link #notifyError(String, String)}. This requires the service to run
+ * in the same process as the client.
+ *
  * @see <a href="https://github.com/AEVI-AppFlow/pos-android-sdk/wiki/flow-response-listeners" target="_blank">Response listener docs</a>
  */
 public abstract class BasePaymentResponseListenerService extends BaseListenerService<PaymentResponse> {
@@ -28,4 +38,14 @@ public abstract class BasePaymentResponseListenerService extends BaseListenerSer
     protected BasePaymentResponseListenerService() {
         super(PaymentResponse.class, PaymentInitiationConfig.VERSION);
     }
+
+    @Override
+    protected void onResponseReceived(@NonNull PaymentResponse response) {
+        PaymentResponseCorrelator.onPaymentResponse(response);
+    }
+
+    @Override
+    protected void onFailureReceived(@Nullable String requestId, @NonNull FlowException flowException) {
+        PaymentResponseCorrelator.onPaymentFailure(requestId, flowException);
+    }
 }
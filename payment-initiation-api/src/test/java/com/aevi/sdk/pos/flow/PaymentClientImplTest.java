@@ -7,6 +7,7 @@ import com.aevi.sdk.flow.constants.AppMessageTypes;
 import com.aevi.sdk.flow.model.AppMessage;
 import com.aevi.sdk.flow.model.FlowException;
 import com.aevi.sdk.flow.model.Request;
+import com.aevi.sdk.flow.model.config.FpsSettings;
 import com.aevi.sdk.pos.flow.model.Amounts;
 import com.aevi.sdk.pos.flow.model.Payment;
 import com.aevi.sdk.pos.flow.model.PaymentBuilder;
@@ -22,6 +23,8 @@ import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowLog;
 
+import java.util.concurrent.TimeUnit;
+
 import static com.aevi.sdk.pos.flow.TestEnvironment.pretendFpsIsInstalled;
 import static org.assertj.core.api.Java6Assertions.assertThat;
 import static org.mockito.Mockito.*;
@@ -60,7 +63,7 @@ public class PaymentClientImplTest {
         Request request = Request.fromJson(sentAppMessage.getMessageData());
         Payment sentPayment = request.getRequestData().getValue(AppMessageTypes.PAYMENT_MESSAGE, Payment.class);
         assertThat(sentPayment).isEqualTo(payment);
-        verify(messengerClient).closeConnection();
+        verify(messengerClient).closeConnection(); // Not pooled, as the processing service has not advertised channel reuse
     }
 
     @Test
@@ -70,6 +73,17 @@ public class PaymentClientImplTest {
         assertThat(test.errors().get(0)).isInstanceOf(FlowException.class);
     }
 
+    @Test
+    public void responseTimeoutShouldCoverAllStagesOfFlow() {
+        FpsSettings fpsSettings = new FpsSettings();
+        fpsSettings.setUserSelectionTimeoutSeconds(10);
+        fpsSettings.setSplitResponseTimeoutSeconds(20);
+        fpsSettings.setPaymentResponseTimeoutSeconds(30);
+        fpsSettings.setFlowResponseTimeoutSeconds(5);
+
+        assertThat(PaymentClientImpl.getFlowResponseTimeoutMs(fpsSettings)).isEqualTo(TimeUnit.SECONDS.toMillis(90));
+    }
+
     private AppMessage callSendAndCaptureMessage() {
         ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
         verify(messengerClient).sendMessage(captor.capture());
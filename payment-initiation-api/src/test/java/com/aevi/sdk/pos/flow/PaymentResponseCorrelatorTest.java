@@ -0,0 +1,118 @@
+package com.aevi.sdk.pos.flow;
+
+import com.aevi.sdk.flow.constants.ErrorConstants;
+import com.aevi.sdk.flow.model.FlowException;
+import com.aevi.sdk.pos.flow.model.Amounts;
+import com.aevi.sdk.pos.flow.model.Payment;
+import com.aevi.sdk.pos.flow.model.PaymentBuilder;
+import com.aevi.sdk.pos.flow.model.PaymentResponse;
+import io.reactivex.Completable;
+import io.reactivex.Single;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subjects.CompletableSubject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class PaymentResponseCorrelatorTest {
+
+    private TestScheduler scheduler;
+    private Payment payment;
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new TestScheduler();
+        payment = new PaymentBuilder().withPaymentFlow("blarp").withAmounts(new Amounts(1000, "GBP")).build();
+    }
+
+    @Test
+    public void shouldEmitResponseForPayment() {
+        TestObserver<PaymentResponse> observer = correlate(Completable.complete()).test();
+        PaymentResponse response = createResponse(payment);
+
+        assertThat(PaymentResponseCorrelator.onPaymentResponse(createResponse(otherPayment()))).isFalse();
+        assertThat(PaymentResponseCorrelator.onPaymentResponse(response)).isTrue();
+
+        observer.assertValue(response);
+        assertThat(PaymentResponseCorrelator.getPendingCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldAwaitResponseBeforePaymentIsAccepted() {
+        CompletableSubject initiation = CompletableSubject.create();
+        TestObserver<PaymentResponse> observer = correlate(initiation).test();
+        PaymentResponse response = createResponse(payment);
+
+        PaymentResponseCorrelator.onPaymentResponse(response);
+        observer.assertNoValues();
+        initiation.onComplete();
+
+        observer.assertValue(response);
+    }
+
+    @Test
+    public void shouldFailPaymentForFailedRequest() {
+        TestObserver<PaymentResponse> observer = correlate(Completable.complete()).test();
+        FlowException failure = new FlowException("declined", "Declined");
+
+        assertThat(PaymentResponseCorrelator.onPaymentFailure("request-2", failure)).isFalse();
+        assertThat(PaymentResponseCorrelator.onPaymentFailure(null, failure)).isFalse();
+        assertThat(PaymentResponseCorrelator.onPaymentFailure("request-1", failure)).isTrue();
+
+        observer.assertError(failure);
+        assertThat(PaymentResponseCorrelator.getPendingCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldFailPaymentForFailureWithPaymentId() {
+        TestObserver<PaymentResponse> observer = correlate(Completable.complete()).test();
+        FlowException failure = new FlowException("declined", "Declined");
+
+        assertThat(PaymentResponseCorrelator.onPaymentFailure(payment.getId(), failure)).isTrue();
+
+        observer.assertError(failure);
+    }
+
+    @Test
+    public void shouldTimeOutIfNoResponse() {
+        TestObserver<PaymentResponse> observer = correlate(Completable.complete()).test();
+
+        scheduler.advanceTimeBy(60, TimeUnit.SECONDS);
+
+        observer.assertError(FlowException.class);
+        assertThat(((FlowException) observer.errors().get(0)).getErrorCode()).isEqualTo(ErrorConstants.RESPONSE_TIMEOUT);
+        assertThat(PaymentResponseCorrelator.getPendingCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldStopAwaitingIfPaymentRejected() {
+        TestObserver<PaymentResponse> observer = correlate(Completable.error(new FlowException("busy", "Busy"))).test();
+
+        observer.assertError(FlowException.class);
+        assertThat(PaymentResponseCorrelator.getPendingCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldNotAwaitBeforeSubscription() {
+        correlate(Completable.complete());
+
+        assertThat(PaymentResponseCorrelator.getPendingCount()).isEqualTo(0);
+    }
+
+    private Single<PaymentResponse> correlate(Completable initiation) {
+        return PaymentResponseCorrelator.correlate(payment.getId(), "request-1", initiation, TimeUnit.SECONDS.toMillis(60), scheduler);
+    }
+
+    private Payment otherPayment() {
+        return new PaymentBuilder().withPaymentFlow("blarp").withAmounts(new Amounts(500, "GBP")).build();
+    }
+
+    private static PaymentResponse createResponse(Payment payment) {
+        return new PaymentResponse(payment) {
+        };
+    }
+}
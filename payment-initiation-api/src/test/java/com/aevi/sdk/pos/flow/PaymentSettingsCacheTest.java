@@ -0,0 +1,184 @@
+package com.aevi.sdk.pos.flow;
+
+
+import com.aevi.sdk.flow.model.AdditionalData;
+import com.aevi.sdk.flow.model.config.FpsSettings;
+import com.aevi.sdk.pos.flow.model.config.PaymentSettings;
+import io.reactivex.Single;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.SingleSubject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class PaymentSettingsCacheTest {
+
+    private PaymentSettingsCache cache;
+    private String settingsJson;
+    private int fetchCount;
+
+    private final PaymentSettingsCache.Fetcher fetcher = new PaymentSettingsCache.Fetcher() {
+        @Override
+        public Single<String> fetch() {
+            return Single.fromCallable(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    fetchCount++;
+                    return settingsJson;
+                }
+            });
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new PaymentSettingsCache();
+        settingsJson = createSettingsJson("one");
+    }
+
+    @Test
+    public void shouldFetchOnFirstCall() {
+        PaymentSettings settings = cache.get(fetcher).blockingGet();
+
+        assertThat(fetchCount).isEqualTo(1);
+        assertThat(settings.getAdditionalSettings().getValue("name", String.class)).isEqualTo("one");
+    }
+
+    @Test
+    public void shouldServeFromCacheOnSubsequentCalls() {
+        PaymentSettings settings = cache.get(fetcher).blockingGet();
+
+        assertThat(cache.get(fetcher).blockingGet()).isSameAs(settings);
+        assertThat(fetchCount).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldOnlyReturnCachedSettingsWithoutFetching() {
+        assertThat(cache.getCached()).isNull();
+
+        PaymentSettings settings = cache.get(fetcher).blockingGet();
+
+        assertThat(cache.getCached()).isSameAs(settings);
+        assertThat(fetchCount).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldServeStaleSettingsAndRefreshInBackground() {
+        cache = new PaymentSettingsCache(0);
+        PaymentSettings settings = cache.get(fetcher).blockingGet();
+        settingsJson = createSettingsJson("two");
+        waitForExpiry();
+
+        assertThat(cache.get(fetcher).blockingGet()).isSameAs(settings);
+        assertThat(fetchCount).isEqualTo(2);
+        assertThat(cache.get(fetcher).blockingGet().getAdditionalSettings().getValue("name", String.class)).isEqualTo("two");
+    }
+
+    @Test
+    public void shouldFetchAgainWhenRetriedAfterError() {
+        final int[] attempts = {0};
+        PaymentSettingsCache.Fetcher failingOnce = new PaymentSettingsCache.Fetcher() {
+            @Override
+            public Single<String> fetch() {
+                return attempts[0]++ == 0 ? Single.<String>error(new IllegalStateException("failed")) : fetcher.fetch();
+            }
+        };
+
+        PaymentSettings settings = cache.get(failingOnce).retry(1).blockingGet();
+
+        assertThat(attempts[0]).isEqualTo(2);
+        assertThat(settings.getAdditionalSettings().getValue("name", String.class)).isEqualTo("one");
+    }
+
+    @Test
+    public void shouldReadCacheWhenSubscribed() {
+        Single<PaymentSettings> single = cache.get(fetcher);
+        single.blockingGet();
+        settingsJson = createSettingsJson("two");
+        cache.invalidate();
+
+        assertThat(single.blockingGet().getAdditionalSettings().getValue("name", String.class)).isEqualTo("two");
+    }
+
+    @Test
+    public void shouldRefreshWhenInvalidated() {
+        cache.get(fetcher).blockingGet();
+        settingsJson = createSettingsJson("two");
+
+        cache.invalidate();
+
+        assertThat(fetchCount).isEqualTo(2);
+        assertThat(cache.isStale()).isFalse();
+        assertThat(cache.get(fetcher).blockingGet().getAdditionalSettings().getValue("name", String.class)).isEqualTo("two");
+    }
+
+    @Test
+    public void shouldKeepSnapshotIfRefreshedSettingsAreUnchanged() {
+        PaymentSettings settings = cache.get(fetcher).blockingGet();
+
+        cache.invalidate();
+
+        assertThat(fetchCount).isEqualTo(2);
+        assertThat(cache.get(fetcher).blockingGet()).isSameAs(settings);
+    }
+
+    @Test
+    public void shouldShareInFlightFetch() {
+        final SingleSubject<String> response = SingleSubject.create();
+        PaymentSettingsCache.Fetcher slowFetcher = new PaymentSettingsCache.Fetcher() {
+            @Override
+            public Single<String> fetch() {
+                fetchCount++;
+                return response;
+            }
+        };
+
+        TestObserver<PaymentSettings> first = cache.get(slowFetcher).test();
+        TestObserver<PaymentSettings> second = cache.get(slowFetcher).test();
+        response.onSuccess(settingsJson);
+
+        assertThat(fetchCount).isEqualTo(1);
+        first.assertValueCount(1);
+        second.assertValueCount(1);
+        assertThat(first.values().get(0)).isSameAs(second.values().get(0));
+    }
+
+    @Test
+    public void subscribeShouldEmitCurrentAndUpdatedSettings() {
+        TestObserver<PaymentSettings> observer = cache.subscribe(fetcher).test();
+        cache.invalidate();
+        settingsJson = createSettingsJson("two");
+        cache.invalidate();
+
+        observer.assertValueCount(2);
+        assertThat(observer.values().get(1).getAdditionalSettings().getValue("name", String.class)).isEqualTo("two");
+    }
+
+    @Test
+    public void shouldKeepCachedSettingsIfRefreshFails() {
+        PaymentSettings settings = cache.get(fetcher).blockingGet();
+        settingsJson = null; // Causes the fetch to fail
+
+        cache.invalidate();
+
+        assertThat(cache.get(fetcher).blockingGet()).isSameAs(settings);
+        assertThat(cache.isStale()).isTrue();
+    }
+
+    private static void waitForExpiry() {
+        try {
+            Thread.sleep(2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String createSettingsJson(String name) {
+        AdditionalData additionalSettings = new AdditionalData();
+        additionalSettings.addData("name", name);
+        return new PaymentSettings(null, null, new FpsSettings(), additionalSettings).toJson();
+    }
+}
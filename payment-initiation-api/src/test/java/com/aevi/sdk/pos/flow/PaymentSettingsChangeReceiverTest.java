@@ -0,0 +1,98 @@
+package com.aevi.sdk.pos.flow;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import com.aevi.sdk.flow.model.AdditionalData;
+import com.aevi.sdk.flow.model.config.FpsSettings;
+import com.aevi.sdk.pos.flow.model.PaymentFlowServiceInfo;
+import com.aevi.sdk.pos.flow.model.PaymentFlowServices;
+import com.aevi.sdk.pos.flow.model.config.PaymentSettings;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.aevi.sdk.flow.constants.IntentActions.SERVICE_INFO_CHANGE_ACTION;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@Config(sdk = Build.VERSION_CODES.LOLLIPOP, manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class PaymentSettingsChangeReceiverTest {
+
+    private static final String FPS_PACKAGE = "com.aevi.sdk.fps";
+
+    @Mock
+    private Context context;
+
+    private PaymentSettingsChangeReceiver receiver;
+
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+        when(context.getApplicationContext()).thenReturn(context);
+        receiver = new PaymentSettingsChangeReceiver(new PaymentSettingsCache(), FPS_PACKAGE);
+    }
+
+    @Test
+    public void shouldOnlyReceivePackageChangesOfProcessingService() throws Exception {
+        receiver.register(context);
+        receiver.register(context);
+
+        List<IntentFilter> filters = captureFilters(2);
+        assertThat(filters.get(0).hasAction(SERVICE_INFO_CHANGE_ACTION)).isTrue();
+        assertThat(filters.get(1).hasAction(Intent.ACTION_PACKAGE_REPLACED)).isTrue();
+        assertThat(filters.get(1).hasDataSchemeSpecificPart(FPS_PACKAGE)).isTrue();
+        assertThat(filters.get(1).hasDataSchemeSpecificPart("com.some.other.app")).isFalse();
+    }
+
+    @Test
+    public void shouldRegisterAgainWhenFlowServicesChange() throws Exception {
+        receiver.register(context);
+        receiver.watchFlowServices(createSettings("com.flow.service"));
+        receiver.watchFlowServices(createSettings("com.flow.service"));
+
+        verify(context).unregisterReceiver(receiver);
+        List<IntentFilter> filters = captureFilters(4);
+        assertThat(filters.get(3).hasDataSchemeSpecificPart(FPS_PACKAGE)).isTrue();
+        assertThat(filters.get(3).hasDataSchemeSpecificPart("com.flow.service")).isTrue();
+    }
+
+    @Test
+    public void shouldNotRegisterForFlowServicesBeforeRegistered() throws Exception {
+        receiver.watchFlowServices(createSettings("com.flow.service"));
+
+        verify(context, never()).registerReceiver(any(BroadcastReceiver.class), any(IntentFilter.class));
+    }
+
+    private List<IntentFilter> captureFilters(int expectedCount) {
+        ArgumentCaptor<IntentFilter> filterCaptor = ArgumentCaptor.forClass(IntentFilter.class);
+        verify(context, times(expectedCount)).registerReceiver(any(BroadcastReceiver.class), filterCaptor.capture());
+        return filterCaptor.getAllValues();
+    }
+
+    private static PaymentSettings createSettings(String flowServicePackage) {
+        Set<String> none = new HashSet<>();
+        PaymentFlowServiceInfo serviceInfo = new PaymentFlowServiceInfo("id", flowServicePackage, "vendor", "1.0.0", "1.0.0", "Service", false,
+                                                                        none, none, none, false, false, "GBP", none, none,
+                                                                        new AdditionalData());
+        return new PaymentSettings(null, new PaymentFlowServices(Collections.singletonList(serviceInfo)), new FpsSettings(),
+                                   new AdditionalData());
+    }
+}
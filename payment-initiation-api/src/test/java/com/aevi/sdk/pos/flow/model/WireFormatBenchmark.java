@@ -0,0 +1,115 @@
+package com.aevi.sdk.pos.flow.model;
+
+
+import com.aevi.sdk.flow.codec.WireFormat;
+import com.aevi.sdk.flow.model.AdditionalData;
+import com.aevi.sdk.flow.model.Customer;
+import com.aevi.sdk.flow.model.Token;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the binary wire codec against the JSON path for typical payment models.
+ *
+ * The size comparison is a plain assertion and always runs. The timing comparison is only run when the "runBenchmarks" system property is
+ * set, as in <code>./gradlew :payment-initiation-api:test -DrunBenchmarks=true</code>
+ */
+public class WireFormatBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 20000;
+
+    private Payment payment;
+    private PaymentResponse paymentResponse;
+
+    @Before
+    public void setUp() throws Exception {
+        List<BasketItem> items = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            items.add(new BasketItemBuilder().generateRandomId().withLabel("Item " + i).withCategory("category" + (i % 3))
+                              .withAmount(100 + i).withQuantity(1 + i % 4).withReference("sku", "SKU-" + i).build());
+        }
+        Customer customer = new Customer("customer-1");
+        customer.setFullName("Joe Bloggs");
+        customer.addToken(new Token("a1b2c3d4", "card", "sha256"));
+        Basket basket = new Basket("basket", items);
+        Amounts amounts = new Amounts(basket.getTotalBasketValue(), "GBP");
+        amounts.addAdditionalAmount("tip", 500);
+        payment = new PaymentBuilder()
+                .withPaymentFlow("sale")
+                .withAmounts(amounts)
+                .withBasket(basket)
+                .withCustomer(customer)
+                .addAdditionalData("receiptNumber", 1234)
+                .addAdditionalData("channels", "one", "two")
+                .withDeviceId("device-1")
+                .build();
+
+        paymentResponse = new PaymentResponse(payment);
+        paymentResponse.outcome = PaymentResponse.Outcome.FULFILLED;
+        paymentResponse.totalAmountsProcessed = amounts;
+        for (int i = 0; i < 3; i++) {
+            Transaction transaction = new Transaction(amounts, Collections.singletonList(payment.getBasket()), customer, new AdditionalData());
+            AdditionalData references = new AdditionalData();
+            references.addData("authCode", "AUTH" + i);
+            references.addData("stan", 100 + i);
+            transaction.addTransactionResponse(new TransactionResponse("tx-" + i, Card.getEmptyCard(), TransactionResponse.Outcome.APPROVED,
+                                                                       "Approved", amounts, "00", references, "card"));
+            paymentResponse.transactions.add(transaction);
+        }
+    }
+
+    @Test
+    public void binaryRoundTripsPayment() {
+        assertThat(Payment.fromJson(WireFormat.serialize(payment, true))).isEqualTo(payment);
+    }
+
+    @Test
+    public void binaryRoundTripsPaymentResponse() {
+        PaymentResponse result = PaymentResponse.fromJson(WireFormat.serialize(paymentResponse, true));
+
+        assertThat(result).isEqualTo(paymentResponse);
+        assertThat(result.getTransactions()).hasSize(3);
+    }
+
+    @Test
+    public void binaryShouldBeSmallerThanJsonOverBinder() {
+        for (Object model : new Object[]{payment, paymentResponse}) {
+            String json = WireFormat.serialize(model, false);
+            String binary = WireFormat.serialize(model, true);
+            // Strings are sent as UTF-16 over Binder, so the character count is what matters for the bytes sent
+            assertThat(binary.length()).isLessThan(json.length());
+        }
+    }
+
+    @Test
+    public void compareEncodeAndDecodeTime() {
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarks"));
+        for (boolean binary : new boolean[]{false, true}) {
+            String serialized = null;
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                serialized = WireFormat.serialize(paymentResponse, binary);
+                WireFormat.deserialize(serialized, PaymentResponse.class);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                serialized = WireFormat.serialize(paymentResponse, binary);
+            }
+            long encodeTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                WireFormat.deserialize(serialized, PaymentResponse.class);
+            }
+            long decodeTime = System.nanoTime() - start;
+            System.out.println(String.format("%s: encode %d us/op, decode %d us/op", binary ? "binary" : "JSON",
+                                             encodeTime / ITERATIONS / 1000, decodeTime / ITERATIONS / 1000));
+        }
+    }
+}